@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.Document;
+import gate.Factory;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.BdocDocumentBuilder;
+import gate.util.GateException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark BdocDocumentBuilder.buildBdoc() from a GATE document.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildBdocBenchmark extends DocumentBenchmarkBase {
+  
+  private Document doc;
+  
+  /**
+   * Create the GATE document.
+   * @throws GateException if GATE cannot be initialised
+   */
+  @Setup
+  public void setup() throws GateException {
+    doc = Documents.toGate(generate());
+  }
+  
+  /**
+   * Delete the GATE document.
+   */
+  @TearDown
+  public void tearDown() {
+    Factory.deleteResource(doc);
+  }
+  
+  /**
+   * Build with java offsets.
+   * @return document
+   */
+  @Benchmark
+  public BdocDocument buildJava() {
+    return new BdocDocumentBuilder().fromGate(doc).buildBdoc();
+  }
+  
+  /**
+   * Build with python offsets.
+   * @return document
+   */
+  @Benchmark
+  public BdocDocument buildPython() {
+    return new BdocDocumentBuilder().fromGate(doc).pythonOffsets().buildBdoc();
+  }
+  
+  /**
+   * Build with java offsets, converting the sets in parallel on the 
+   * common ForkJoinPool.
+   * @return document
+   */
+  @Benchmark
+  public BdocDocument buildParallel() {
+    return new BdocDocumentBuilder().fromGate(doc).
+            parallel(ForkJoinPool.commonPool()).buildBdoc();
+  }
+  
+  /**
+   * Build column-wise annotation lists with java offsets.
+   * @return document
+   */
+  @Benchmark
+  public BdocDocument buildColumnar() {
+    return new BdocDocumentBuilder().fromGate(doc).columnar().buildBdoc();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.Document;
+import gate.Factory;
+import gate.lib.basicdocument.BdocAnnotation;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.GateDocumentUpdater;
+import gate.util.GateException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark applying a changelog as it comes from Python to a new GATE
+ * document, entry by entry and in batches.
+ *
+ * The changelog adds a layer of tokens to the default set, with python
+ * offsets and 1% emojis in the text, and every tenth entry sets a feature
+ * of the token added before it. Each operation creates the document,
+ * applies the changelog and deletes the document again.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class ChangeLogApplyBenchmark {
+
+  /**
+   * Number of changelog entries.
+   */
+  @Param({"10000", "100000", "1000000"})
+  public int entries;
+
+  private String text;
+  private ChangeLog clog;
+
+  /**
+   * Create the text and the changelog.
+   * @throws GateException if GATE cannot be initialised
+   */
+  @Setup
+  public void setup() throws GateException {
+    Documents.initGate();
+    BdocDocument bdoc = Documents.tokens(entries, 0.01, 42L);
+    bdoc.fixupOffsets("p");
+    text = bdoc.text;
+    List<BdocAnnotation> tokens = bdoc.annotation_sets.get("").annotations;
+    clog = new ChangeLog();
+    clog.offset_type = "p";
+    for (int i = 0; clog.changes.size() < entries; i++) {
+      BdocAnnotation ann = tokens.get(i);
+      Map<String, Object> change = new HashMap<>();
+      change.put("command", "annotation:add");
+      change.put("set", "");
+      change.put("id", ann.id);
+      change.put("start", ann.start);
+      change.put("end", ann.end);
+      change.put("type", ann.type);
+      change.put("features", ann.features);
+      clog.changes.add(change);
+      if (i % 10 == 9 && clog.changes.size() < entries) {
+        change = new HashMap<>();
+        change.put("command", "feature:set");
+        change.put("set", "");
+        change.put("id", ann.id);
+        change.put("feature", "checked");
+        change.put("value", true);
+        clog.changes.add(change);
+      }
+    }
+  }
+
+  /**
+   * Apply the changelog entry by entry.
+   * @return number of annotations
+   */
+  @Benchmark
+  public long sequential() {
+    return release(new GateDocumentUpdater(text).fromChangeLog(clog));
+  }
+
+  /**
+   * Apply the changelog in batches.
+   * @return number of annotations
+   */
+  @Benchmark
+  public long batched() {
+    return release(new GateDocumentUpdater(text).batched(true).fromChangeLog(clog));
+  }
+
+  private static long release(Document doc) {
+    long size = doc.getAnnotations().size();
+    Factory.deleteResource(doc);
+    return size;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.BdocDocument;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Common parameters of the benchmarks which work on generated documents.
+ * 
+ * The defaults give eight combinations, use e.g. "-p textLength=100000" to
+ * restrict a run.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@State(Scope.Benchmark)
+public abstract class DocumentBenchmarkBase {
+  
+  /**
+   * Text length in UTF16 code units.
+   */
+  @Param({"100000", "1000000"})
+  public int textLength;
+  
+  /**
+   * Average number of annotations per word.
+   */
+  @Param({"0.5", "3.0"})
+  public double density;
+  
+  /**
+   * Fraction of words which are emojis.
+   */
+  @Param({"0.0", "0.01"})
+  public double surrogateRatio;
+  
+  /**
+   * Generate the document for the current parameters.
+   * 
+   * @return document with java offsets
+   */
+  protected BdocDocument generate() {
+    return Documents.generate(textLength, density, surrogateRatio, 42L);
+  }
+}
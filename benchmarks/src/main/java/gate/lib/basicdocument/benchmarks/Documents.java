@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.BdocAnnotation;
+import gate.lib.basicdocument.BdocAnnotationSet;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.ChangeLog;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import gate.Utils;
+import gate.creole.ResourceInstantiationException;
+import gate.util.GateException;
+import gate.util.InvalidOffsetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generate synthetic Bdoc documents for the benchmarks.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class Documents {
+  
+  private static final String[] CATEGORIES = {
+    "NN", "NNS", "NNP", "VB", "VBD", "VBZ", "JJ", "RB", "IN", "DT", "CC", "PRP"
+  };
+  private static final String[] ORTHS = {
+    "lowercase", "upperInitial", "allCaps", "mixedCaps"
+  };
+  private static final String[] TYPES = {
+    "Token", "Lookup", "SpaceToken", "Person", "Location", "Sentence"
+  };
+  
+  private static boolean gateInitialised = false;
+  
+  /**
+   * Disallow instantiation.
+   */
+  private Documents() {}
+  
+  /**
+   * Create a document with the given number of Token annotations in the
+   * default set. 
+   * 
+   * Each token has the features string, category, kind, orth and length,
+   * like the tokens created by the ANNIE tokeniser and POS tagger.
+   * 
+   * @param ntokens number of tokens
+   * @param surrogateRatio fraction of words in the text which are emojis
+   * @param seed random seed
+   * @return the document
+   */
+  public static BdocDocument tokens(int ntokens, double surrogateRatio, long seed) {
+    String text = Texts.generate(ntokens * 8, surrogateRatio, seed);
+    Random rnd = new Random(seed);
+    BdocDocument bdoc = new BdocDocument();
+    bdoc.text = text;
+    bdoc.features = new HashMap<>();
+    bdoc.features.put("gate.SourceURL", "created from String");
+    bdoc.annotation_sets = new HashMap<>();
+    BdocAnnotationSet set = new BdocAnnotationSet();
+    set.name = "";
+    set.annotations = new ArrayList<>(ntokens);
+    for (int i = 0; i < ntokens; i++) {
+      BdocAnnotation ann = new BdocAnnotation();
+      ann.id = i;
+      ann.type = "Token";
+      ann.start = i * 8;
+      ann.end = i * 8 + 1 + rnd.nextInt(7);
+      Map<String, Object> fm = new HashMap<>();
+      fm.put("string", text.substring(ann.start, ann.end));
+      fm.put("category", CATEGORIES[rnd.nextInt(CATEGORIES.length)]);
+      fm.put("kind", "word");
+      fm.put("orth", ORTHS[rnd.nextInt(ORTHS.length)]);
+      fm.put("length", ann.end - ann.start);
+      ann.features = fm;
+      set.annotations.add(ann);
+    }
+    set.next_annid = ntokens;
+    bdoc.annotation_sets.put("", set);
+    return bdoc;
+  }
+  
+  /**
+   * Create a document with annotations over the words of a generated text.
+   * 
+   * For each word of the text, on average density annotations are created
+   * which span the word, so the annotations never split a surrogate pair. 
+   * The first annotation of a word is a Token with the same features as
+   * created by tokens(), any further ones get other types and the features
+   * kind and length only. All annotations are in the default set.
+   * 
+   * @param textLength text length in UTF16 code units
+   * @param density average number of annotations per word
+   * @param surrogateRatio fraction of words in the text which are emojis
+   * @param seed random seed
+   * @return the document, using java offsets
+   */
+  public static BdocDocument generate(int textLength, double density, 
+          double surrogateRatio, long seed) {
+    String text = Texts.generate(textLength, surrogateRatio, seed);
+    Random rnd = new Random(seed);
+    BdocDocument bdoc = new BdocDocument();
+    bdoc.text = text;
+    bdoc.features = new HashMap<>();
+    bdoc.features.put("gate.SourceURL", "created from String");
+    bdoc.annotation_sets = new HashMap<>();
+    BdocAnnotationSet set = new BdocAnnotationSet();
+    set.name = "";
+    set.annotations = new ArrayList<>((int)(textLength / 6 * density) + 16);
+    int id = 0;
+    int start = 0;
+    while(start < text.length()) {
+      int end = text.indexOf(' ', start);
+      if(end < 0) {
+        end = text.length();
+      }
+      if(end > start) {
+        int n = (int)density;
+        if(rnd.nextDouble() < density - n) {
+          n++;
+        }
+        for(int k = 0; k < n; k++) {
+          BdocAnnotation ann = new BdocAnnotation();
+          ann.id = id++;
+          ann.start = start;
+          ann.end = end;
+          Map<String, Object> fm = new HashMap<>();
+          if(k == 0) {
+            ann.type = "Token";
+            fm.put("string", text.substring(start, end));
+            fm.put("category", CATEGORIES[rnd.nextInt(CATEGORIES.length)]);
+            fm.put("orth", ORTHS[rnd.nextInt(ORTHS.length)]);
+          } else {
+            ann.type = TYPES[1 + rnd.nextInt(TYPES.length - 1)];
+          }
+          fm.put("kind", "word");
+          fm.put("length", end - start);
+          ann.features = fm;
+          set.annotations.add(ann);
+        }
+      }
+      start = end + 1;
+    }
+    set.next_annid = id;
+    bdoc.annotation_sets.put("", set);
+    return bdoc;
+  }
+  
+  /**
+   * Create a changelog which adds all the annotations of the document.
+   * 
+   * @param bdoc the document
+   * @return changelog with one annotation:add change per annotation
+   */
+  public static ChangeLog changeLog(BdocDocument bdoc) {
+    ChangeLog clog = new ChangeLog();
+    clog.offset_type = bdoc.offset_type;
+    for(BdocAnnotationSet set : bdoc.annotation_sets.values()) {
+      for(BdocAnnotation ann : set.annotations) {
+        Map<String, Object> change = new HashMap<>();
+        change.put("command", "annotation:add");
+        change.put("set", set.name);
+        change.put("id", ann.id);
+        change.put("start", ann.start);
+        change.put("end", ann.end);
+        change.put("type", ann.type);
+        change.put("features", ann.features);
+        clog.changes.add(change);
+      }
+    }
+    return clog;
+  }
+  
+  /**
+   * Initialise GATE, if not already done.
+   * 
+   * @throws GateException if GATE cannot be initialised
+   */
+  public static synchronized void initGate() throws GateException {
+    if(!gateInitialised) {
+      Gate.init();
+      gateInitialised = true;
+    }
+  }
+  
+  /**
+   * Create a GATE document with the text and annotations of the document.
+   * 
+   * This uses the GATE API directly, so the result does not depend on the
+   * code which gets benchmarked. The document must use java offsets.
+   * 
+   * @param bdoc the document
+   * @return the GATE document
+   * @throws GateException if GATE cannot be initialised
+   */
+  public static Document toGate(BdocDocument bdoc) throws GateException {
+    initGate();
+    Document doc = Factory.newDocument(bdoc.text);
+    doc.getFeatures().putAll(bdoc.features);
+    for(BdocAnnotationSet set : bdoc.annotation_sets.values()) {
+      gate.AnnotationSet annset = set.name.isEmpty() 
+              ? doc.getAnnotations() 
+              : doc.getAnnotations(set.name);
+      for(BdocAnnotation ann : set.annotations) {
+        try {
+          annset.add(ann.id, (long)ann.start, (long)ann.end, ann.type, 
+                  Utils.toFeatureMap(ann.features));
+        } catch (InvalidOffsetException ex) {
+          throw new ResourceInstantiationException("Invalid offset", ex);
+        }
+      }
+    }
+    return doc;
+  }
+  
+  /**
+   * All annotation start and end offsets of the document, in the order
+   * of the annotations.
+   * 
+   * @param bdoc the document
+   * @return array of start0, end0, start1, end1, ...
+   */
+  public static int[] offsets(BdocDocument bdoc) {
+    List<Integer> offsets = new ArrayList<>();
+    for(BdocAnnotationSet set : bdoc.annotation_sets.values()) {
+      for(BdocAnnotation ann : set.annotations) {
+        offsets.add(ann.start);
+        offsets.add(ann.end);
+      }
+    }
+    int[] ret = new int[offsets.size()];
+    for(int i = 0; i < ret.length; i++) {
+      ret[i] = offsets.get(i);
+    }
+    return ret;
+  }
+}
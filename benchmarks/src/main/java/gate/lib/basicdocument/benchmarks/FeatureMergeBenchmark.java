@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.Document;
+import gate.Factory;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.GateDocumentUpdater;
+import gate.lib.basicdocument.GateDocumentUpdater.HandleExistingAnns;
+import gate.util.GateException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark merging features into existing annotations.
+ *
+ * A GATE document with tokens gets created before each operation, the
+ * operation applies a changelog which adds the same tokens again with an
+ * additional feature, so every entry is merged into an existing annotation
+ * with the given HandleExistingAnns option.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeatureMergeBenchmark {
+
+  /**
+   * Number of tokens.
+   */
+  @Param({"100000"})
+  public int tokens;
+
+  /**
+   * How to merge the features.
+   */
+  @Param({"UPDATE_FEATURES", "ADD_NEW_FEATURES", "REPLACE_FEATURES"})
+  public HandleExistingAnns option;
+
+  private BdocDocument bdoc;
+  private ChangeLog clog;
+  private Document doc;
+
+  /**
+   * Create the tokens and the changelog.
+   * @throws GateException if GATE cannot be initialised
+   */
+  @Setup
+  public void setup() throws GateException {
+    Documents.initGate();
+    bdoc = Documents.tokens(tokens, 0.0, 42L);
+    clog = Documents.changeLog(Documents.tokens(tokens, 0.0, 42L));
+    for (Map<String, Object> change : clog.changes) {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> features = (Map<String, Object>)change.get("features");
+      features.put("lemma", features.get("string"));
+    }
+  }
+
+  /**
+   * Create the GATE document for the next operation.
+   * @throws GateException if the document cannot be created
+   */
+  @Setup(Level.Invocation)
+  public void createDocument() throws GateException {
+    doc = Documents.toGate(bdoc);
+  }
+
+  /**
+   * Delete the GATE document of the last operation.
+   */
+  @TearDown(Level.Invocation)
+  public void deleteDocument() {
+    Factory.deleteResource(doc);
+  }
+
+  /**
+   * Merge the features of all tokens.
+   * @return number of annotations
+   */
+  @Benchmark
+  public int merge() {
+    new GateDocumentUpdater(doc).handleExistingAnnotation(option).fromChangeLog(clog);
+    return doc.getAnnotations().size();
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.OffsetMapper;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark converting the offsets of a document and changelog.
+ * 
+ * Each operation converts to python offsets and back, so that the state
+ * is the same after each operation. One offset mapper for the text is 
+ * passed to all conversions, so after the first operation only the 
+ * conversion itself is measured.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FixupOffsetsBenchmark extends DocumentBenchmarkBase {
+  
+  private BdocDocument bdoc;
+  private ChangeLog clog;
+  private OffsetMapper om;
+  
+  /**
+   * Create the document and changelog.
+   */
+  @Setup
+  public void setup() {
+    bdoc = generate();
+    clog = Documents.changeLog(generate());
+    om = new OffsetMapper(bdoc.text, OffsetMapper.Mode.LAZY);
+  }
+  
+  /**
+   * Convert the document offsets to python and back.
+   * @return the document
+   */
+  @Benchmark
+  public BdocDocument document() {
+    bdoc.fixupOffsets(om, "p");
+    bdoc.fixupOffsets(om, "j");
+    return bdoc;
+  }
+  
+  /**
+   * Convert the changelog offsets to python and back.
+   * @return the changelog
+   */
+  @Benchmark
+  public ChangeLog changeLog() {
+    clog.fixupOffsets(om, "p");
+    clog.fixupOffsets(om, "j");
+    return clog;
+  }
+}
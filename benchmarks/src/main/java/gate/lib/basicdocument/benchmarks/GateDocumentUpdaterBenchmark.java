@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.Document;
+import gate.Factory;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.GateDocumentLoader;
+import gate.lib.basicdocument.GateDocumentUpdater;
+import gate.util.GateException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark creating GATE documents with GateDocumentUpdater.
+ * 
+ * Each operation creates a new GATE document from the text, adds all
+ * annotations and features and deletes the document again, so that GATE
+ * does not keep it registered. The newDocument benchmark measures only
+ * the creation and deletion, for reference. The load benchmarks create 
+ * the same documents with GateDocumentLoader, which BdocDocument.toGateDocument
+ * uses, the fromBdoc benchmarks with GateDocumentUpdater.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GateDocumentUpdaterBenchmark extends DocumentBenchmarkBase {
+  
+  private BdocDocument bdoc;
+  private BdocDocument bdocPython;
+  private ChangeLog clog;
+  
+  /**
+   * Create the documents and changelog.
+   * @throws GateException if GATE cannot be initialised
+   */
+  @Setup
+  public void setup() throws GateException {
+    Documents.initGate();
+    bdoc = generate();
+    clog = Documents.changeLog(bdoc);
+    bdocPython = generate();
+    bdocPython.fixupOffsets("p");
+  }
+  
+  /**
+   * Create and delete an empty GATE document.
+   * @return document size
+   */
+  @Benchmark
+  public long newDocument() {
+    return release(new GateDocumentUpdater(bdoc.text).fromBdoc(new BdocDocument()));
+  }
+  
+  /**
+   * Create a document from a bdoc with java offsets.
+   * @return document size
+   */
+  @Benchmark
+  public long fromBdoc() {
+    return release(new GateDocumentUpdater(bdoc.text).fromBdoc(bdoc));
+  }
+  
+  /**
+   * Create a document from a bdoc with python offsets.
+   * @return document size
+   */
+  @Benchmark
+  public long fromBdocPython() {
+    return release(new GateDocumentUpdater(bdoc.text).fromBdoc(bdocPython));
+  }
+  
+  /**
+   * Create a document from a bdoc with java offsets with the loader.
+   * @return document size
+   */
+  @Benchmark
+  public long load() {
+    return release(new GateDocumentLoader().load(bdoc));
+  }
+  
+  /**
+   * Create a document from a bdoc with python offsets with the loader.
+   * @return document size
+   */
+  @Benchmark
+  public long loadPython() {
+    return release(new GateDocumentLoader().load(bdocPython));
+  }
+  
+  /**
+   * Create a document from a changelog which adds all annotations.
+   * @return document size
+   */
+  @Benchmark
+  public long fromChangeLog() {
+    return release(new GateDocumentUpdater(bdoc.text).fromChangeLog(clog));
+  }
+  
+  private static long release(Document doc) {
+    long size = doc.getAnnotations().size();
+    Factory.deleteResource(doc);
+    return size;
+  }
+}
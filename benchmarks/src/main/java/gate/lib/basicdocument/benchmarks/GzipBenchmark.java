@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.docformats.BlockGzipInputStream;
+import gate.lib.basicdocument.docformats.BlockGzipOutputStream;
+import gate.lib.basicdocument.docformats.SimpleJson;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark compressing and decompressing document JSON with 
+ * GZIPOutputStream/GZIPInputStream and with the block gzip streams.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GzipBenchmark extends DocumentBenchmarkBase {
+  
+  private byte[] json;
+  private byte[] gzipped;
+  private byte[] blockGzipped;
+  
+  /**
+   * Create the document JSON and both compressed forms.
+   * @throws IOException never
+   */
+  @Setup
+  public void setup() throws IOException {
+    json = new SimpleJson().dumps(generate()).getBytes(StandardCharsets.UTF_8);
+    gzipped = gzip();
+    blockGzipped = blockGzip();
+  }
+  
+  /**
+   * Compress with GZIPOutputStream.
+   * @return compressed bytes
+   * @throws IOException never
+   */
+  @Benchmark
+  public byte[] gzip() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4);
+    try (OutputStream out = new GZIPOutputStream(bytes, 1 << 16)) {
+      out.write(json);
+    }
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Compress with BlockGzipOutputStream on its default executor.
+   * @return compressed bytes
+   * @throws IOException never
+   */
+  @Benchmark
+  public byte[] blockGzip() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4);
+    try (OutputStream out = new BlockGzipOutputStream(bytes)) {
+      out.write(json);
+    }
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Decompress with GZIPInputStream.
+   * @return uncompressed bytes
+   * @throws IOException never
+   */
+  @Benchmark
+  public byte[] gunzip() throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped), 1 << 16)) {
+      return IOUtils.toByteArray(in);
+    }
+  }
+  
+  /**
+   * Decompress with BlockGzipInputStream on its default executor.
+   * @return uncompressed bytes
+   * @throws IOException never
+   */
+  @Benchmark
+  public byte[] blockGunzip() throws IOException {
+    try (InputStream in = new BlockGzipInputStream(new ByteArrayInputStream(blockGzipped))) {
+      return IOUtils.toByteArray(in);
+    }
+  }
+}
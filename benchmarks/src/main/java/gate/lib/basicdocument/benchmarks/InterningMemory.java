@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.SymbolTable;
+import gate.lib.basicdocument.docformats.SimpleJson;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure the heap retained by loaded documents with and without interning.
+ * 
+ * This is not a JMH benchmark: it loads a number of synthetic documents 
+ * with Token annotations, keeps all of them and reports the heap in use 
+ * after a full GC. Run e.g. with
+ * {@code java -cp target/benchmarks.jar gate.lib.basicdocument.benchmarks.InterningMemory 200 5000}
+ * for 200 documents of 5000 tokens each.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class InterningMemory {
+  
+  /**
+   * Disallow instantiation.
+   */
+  private InterningMemory() {}
+  
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      try { Thread.sleep(50); } catch (InterruptedException ex) { }
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+  
+  private static long measure(List<String> jsons, SimpleJson reader) {
+    long before = usedHeap();
+    List<BdocDocument> docs = new ArrayList<>(jsons.size());
+    for (String json : jsons) {
+      docs.add(reader.loads_doc(json));
+    }
+    long after = usedHeap();
+    if (docs.size() != jsons.size()) {
+      throw new IllegalStateException("Should not happen");
+    }
+    return after - before;
+  }
+  
+  /**
+   * Run the measurement.
+   * 
+   * @param args optional number of documents and tokens per document
+   */
+  public static void main(String[] args) {
+    int ndocs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int ntokens = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    List<String> jsons = new ArrayList<>(ndocs);
+    for (int i = 0; i < ndocs; i++) {
+      jsons.add(new SimpleJson().dumps(Documents.tokens(ntokens, 0.0, i)));
+    }
+    long plain = measure(jsons, new SimpleJson().noInterning());
+    long perdoc = measure(jsons, new SimpleJson());
+    long shared = measure(jsons, new SimpleJson().withSymbolTable(new SymbolTable()));
+    System.out.printf("%d documents, %d tokens each%n", ndocs, ntokens);
+    System.out.printf("no interning:        %,d bytes%n", plain);
+    System.out.printf("per document table:  %,d bytes%n", perdoc);
+    System.out.printf("shared table:        %,d bytes%n", shared);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.docformats.BdocJsonCodec;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the throughput of writing and reading bdoc JSON with jackson-jr
+ * bean introspection and with the BdocJsonCodec. 
+ * 
+ * Both codecs use a new symbol table for each document, like SimpleJson 
+ * does by default, the jackson-jr variants without interning to show the 
+ * plain cost of the bean access.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+  
+  /**
+   * Number of Token annotations in the document.
+   */
+  @Param({"1000", "100000"})
+  public int ntokens;
+  
+  private BdocDocument bdoc;
+  private String json;
+  private final BdocJsonCodec codec = BdocJsonCodec.getDefault();
+  private final BdocJsonCodec plainCodec = BdocJsonCodec.getDefault().noInterning();
+  
+  /**
+   * Create the document and its JSON.
+   */
+  @Setup
+  public void setup() {
+    bdoc = Documents.tokens(ntokens, 0.01, 42L);
+    json = codec.dumps(bdoc);
+  }
+  
+  /**
+   * Write with jackson-jr bean introspection.
+   * @return JSON
+   * @throws IOException never
+   */
+  @Benchmark
+  public String writeBeans() throws IOException {
+    return JSON.std.asString(bdoc);
+  }
+  
+  /**
+   * Write with the codec.
+   * @return JSON
+   */
+  @Benchmark
+  public String writeCodec() {
+    return codec.dumps(bdoc);
+  }
+  
+  /**
+   * Read with jackson-jr bean introspection.
+   * @return document
+   * @throws IOException never
+   */
+  @Benchmark
+  public BdocDocument readBeans() throws IOException {
+    return JSON.std.beanFrom(BdocDocument.class, json);
+  }
+  
+  /**
+   * Read with the codec, without interning.
+   * @return document
+   */
+  @Benchmark
+  public BdocDocument readCodec() {
+    return plainCodec.loads_doc(json);
+  }
+  
+  /**
+   * Read with the codec, with interning.
+   * @return document
+   */
+  @Benchmark
+  public BdocDocument readCodecInterning() {
+    return codec.loads_doc(json);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.docformats.BdocJsonCodec;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the first write and read of a small document in a fresh JVM.
+ * 
+ * Each fork measures a single call, so this includes class loading and, 
+ * for jackson-jr, the introspection of the Bdoc classes, which is what 
+ * every new worker process pays for its first document.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class JsonCodecStartupBenchmark {
+  
+  private BdocDocument bdoc;
+  private String json;
+  
+  /**
+   * Create the document and its JSON without touching either codec.
+   */
+  @Setup
+  public void setup() {
+    bdoc = Documents.tokens(100, 0.0, 42L);
+    json = "{\"annotation_sets\":{\"\":{\"annotations\":["+
+            "{\"end\":4,\"features\":{\"category\":\"NN\"},\"gatenlp_type\":\"Annotation\","+
+            "\"id\":0,\"start\":0,\"type\":\"Token\"}],\"gatenlp_type\":\"AnnotationSet\","+
+            "\"name\":\"\",\"next_annid\":1}},\"gatenlp_type\":\"Document\","+
+            "\"offset_type\":\"j\",\"text\":\"This text\"}";
+  }
+  
+  /**
+   * First write and read with jackson-jr bean introspection.
+   * @return document read
+   * @throws IOException never
+   */
+  @Benchmark
+  public BdocDocument firstBeans() throws IOException {
+    JSON.std.asString(bdoc);
+    return JSON.std.beanFrom(BdocDocument.class, json);
+  }
+  
+  /**
+   * First write and read with the codec.
+   * @return document read
+   */
+  @Benchmark
+  public BdocDocument firstCodec() {
+    BdocJsonCodec.getDefault().dumps(bdoc);
+    return BdocJsonCodec.getDefault().loads_doc(json);
+  }
+}
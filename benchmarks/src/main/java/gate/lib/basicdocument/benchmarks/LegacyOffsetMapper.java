@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original OffsetMapper table construction, kept as a baseline.
+ * 
+ * This boxes every offset into an ArrayList and unboxes using a parallel
+ * stream, exactly as OffsetMapper did before the construction was rewritten. 
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class LegacyOffsetMapper {
+  
+  /**
+   * Java to python table.
+   */
+  public int[] java2python;
+  
+  /**
+   * Python to java table.
+   */
+  public int[] python2java;
+  
+  /**
+   * Build the tables for the string.
+   * 
+   * @param str the text
+   */
+  public LegacyOffsetMapper(String str) {
+    List<Integer> java2python_list = new ArrayList<Integer>();
+    List<Integer> python2java_list = new ArrayList<Integer>();
+    
+    int off_p = 0;
+    for (int i=0; i<str.length(); i++) {
+      char ch = str.charAt(i);      
+      java2python_list.add(off_p);       
+      if(Character.isHighSurrogate(ch)) {
+        python2java_list.add(i);
+      } else if(Character.isLowSurrogate(ch)) {
+        off_p += 1;
+      } else {
+        off_p += 1;
+        python2java_list.add(i);
+      }
+    }
+    java2python_list.add(java2python_list.get(java2python_list.size()-1)+1);
+    python2java_list.add(python2java_list.get(python2java_list.size()-1)+1);
+    java2python = 
+            java2python_list.parallelStream().
+                    mapToInt(Integer::intValue).toArray();
+    python2java = 
+            python2java_list.parallelStream().
+                    mapToInt(Integer::intValue).toArray();
+  }
+}
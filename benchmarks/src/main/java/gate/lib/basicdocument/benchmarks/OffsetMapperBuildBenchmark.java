@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.OffsetMapper;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the construction of offset mappers.
+ * 
+ * The text size is given in units of 2^20 UTF16 code units, so running 
+ * with "-prof gc" and dividing gc.alloc.rate.norm by the size gives the
+ * allocated bytes per MB of text.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OffsetMapperBuildBenchmark {
+  
+  /**
+   * Text size in MB (2^20 code units).
+   */
+  @Param({"1", "8"})
+  public int sizeMB;
+  
+  /**
+   * Fraction of words which are emojis.
+   */
+  @Param({"0.0", "0.01"})
+  public double surrogateRatio;
+  
+  private String text;
+  
+  /**
+   * Create the text.
+   */
+  @Setup
+  public void setup() {
+    text = Texts.generate(sizeMB * (1<<20), surrogateRatio, 42L);
+  }
+  
+  /**
+   * Original boxing table construction.
+   * @return the mapper
+   */
+  @Benchmark
+  public LegacyOffsetMapper buildLegacyTables() {
+    return new LegacyOffsetMapper(text);
+  }
+  
+  /**
+   * Current table construction.
+   * @return the mapper
+   */
+  @Benchmark
+  public OffsetMapper buildTables() {
+    return new OffsetMapper(text, OffsetMapper.Mode.TABLES);
+  }
+  
+  /**
+   * Sparse surrogate pair list construction.
+   * @return the mapper
+   */
+  @Benchmark
+  public OffsetMapper buildSparse() {
+    return new OffsetMapper(text, OffsetMapper.Mode.SPARSE);
+  }
+  
+}
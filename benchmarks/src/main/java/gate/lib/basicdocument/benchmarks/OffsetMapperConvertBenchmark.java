@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.OffsetMapper;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the conversion of annotation offsets from java to python.
+ * 
+ * The offsets are all start and end offsets of the annotations of a 
+ * generated document, converted one by one and with the bulk method, 
+ * either as one array with start and end offsets interleaved or as 
+ * separate start and end arrays. All variants first copy the offsets into
+ * work arrays, so they allocate the same.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffsetMapperConvertBenchmark extends DocumentBenchmarkBase {
+  
+  /**
+   * Mapper mode.
+   */
+  @Param({"TABLES", "SPARSE"})
+  public OffsetMapper.Mode mode;
+  
+  private OffsetMapper mapper;
+  private int[] offsets;
+  private int[] starts;
+  private int[] ends;
+  
+  /**
+   * Create the mapper and collect the offsets.
+   */
+  @Setup
+  public void setup() {
+    BdocDocument bdoc = generate();
+    offsets = Documents.offsets(bdoc);
+    starts = new int[offsets.length / 2];
+    ends = new int[offsets.length / 2];
+    for(int i = 0; i < starts.length; i++) {
+      starts[i] = offsets[2*i];
+      ends[i] = offsets[2*i+1];
+    }
+    mapper = new OffsetMapper(bdoc.text, mode);
+  }
+  
+  /**
+   * Convert each offset with a separate call.
+   * @return converted offsets
+   */
+  @Benchmark
+  public int[] convertSingle() {
+    int[] work = offsets.clone();
+    for(int i = 0; i < work.length; i++) {
+      work[i] = mapper.convertToPython(work[i]);
+    }
+    return work;
+  }
+  
+  /**
+   * Convert all offsets with one bulk call.
+   * @return converted offsets
+   */
+  @Benchmark
+  public int[] convertBulk() {
+    int[] work = offsets.clone();
+    mapper.convertToPython(work, null);
+    return work;
+  }
+  
+  /**
+   * Convert the start and end offsets as two arrays with one bulk call.
+   * @return converted start offsets
+   */
+  @Benchmark
+  public int[] convertBulkStartsEnds() {
+    int[] workStarts = starts.clone();
+    int[] workEnds = ends.clone();
+    mapper.convertToPython(workStarts, workEnds);
+    return workStarts;
+  }
+}
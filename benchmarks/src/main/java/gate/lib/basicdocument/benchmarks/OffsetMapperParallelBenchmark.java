@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.OffsetMapper;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the parallel chunked surrogate scan against the sequential one.
+ * 
+ * The threads parameter is the size of the thread pool the chunks are 
+ * scanned on, compare with buildSequential to see how the scan scales with
+ * the number of cores. 
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OffsetMapperParallelBenchmark {
+  
+  /**
+   * Text size in MB (2^20 code units).
+   */
+  @Param({"32"})
+  public int sizeMB;
+  
+  /**
+   * Fraction of words which are emojis.
+   */
+  @Param({"0.05"})
+  public double surrogateRatio;
+  
+  /**
+   * Number of threads to scan with.
+   */
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+  
+  /**
+   * Chunk size in code units.
+   */
+  @Param({"1048576"})
+  public int chunkSize;
+  
+  private String text;
+  private ExecutorService executor;
+  
+  /**
+   * Create the text and thread pool.
+   */
+  @Setup
+  public void setup() {
+    text = Texts.generate(sizeMB * (1<<20), surrogateRatio, 42L);
+    executor = Executors.newFixedThreadPool(threads);
+  }
+  
+  /**
+   * Shut down the thread pool.
+   */
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+  
+  /**
+   * Sequential sparse construction.
+   * @return the mapper
+   */
+  @Benchmark
+  public OffsetMapper buildSequential() {
+    return new OffsetMapper(text, OffsetMapper.Mode.SPARSE);
+  }
+  
+  /**
+   * Parallel chunked sparse construction.
+   * @return the mapper
+   */
+  @Benchmark
+  public OffsetMapper buildParallel() {
+    return new OffsetMapper(text, executor, chunkSize);
+  }
+  
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.docformats.SimpleJson;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark SimpleJson dump and load of documents and changelogs.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleJsonBenchmark extends DocumentBenchmarkBase {
+  
+  private final SimpleJson simpleJson = new SimpleJson();
+  private BdocDocument bdoc;
+  private String docJson;
+  private ChangeLog clog;
+  private String logJson;
+  
+  /**
+   * Create the document, changelog and their JSON.
+   */
+  @Setup
+  public void setup() {
+    bdoc = generate();
+    docJson = simpleJson.dumps(bdoc);
+    clog = Documents.changeLog(bdoc);
+    logJson = simpleJson.dumps(clog);
+  }
+  
+  /**
+   * Serialise the document.
+   * @return JSON
+   */
+  @Benchmark
+  public String dumpsDoc() {
+    return simpleJson.dumps(bdoc);
+  }
+  
+  /**
+   * Deserialise the document.
+   * @return document
+   */
+  @Benchmark
+  public BdocDocument loadsDoc() {
+    return simpleJson.loads_doc(docJson);
+  }
+  
+  /**
+   * Serialise the changelog.
+   * @return JSON
+   */
+  @Benchmark
+  public String dumpsLog() {
+    return simpleJson.dumps(clog);
+  }
+  
+  /**
+   * Deserialise the changelog.
+   * @return changelog
+   */
+  @Benchmark
+  public ChangeLog loadsLog() {
+    return simpleJson.loads_log(logJson);
+  }
+}
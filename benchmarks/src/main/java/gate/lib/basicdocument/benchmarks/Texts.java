@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generate synthetic texts for the benchmarks.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class Texts {
+  
+  private static final String[] WORDS = {
+    "the", "of", "document", "annotation", "Sheffield", "text", "a", "is",
+    "processing", "language", "natural", "GATE", "python", "java", "offset"
+  };
+  
+  /**
+   * Disallow instantiation.
+   */
+  private Texts() {}
+  
+  /**
+   * Generate a text of words separated by spaces with approximately the
+   * given fraction of words replaced by an emoji (a surrogate pair). 
+   * 
+   * @param length the length of the text in UTF16 code units
+   * @param surrogateRatio fraction of words which should be emojis, 0.0 to 1.0
+   * @param seed random seed
+   * @return generated text
+   */
+  public static String generate(int length, double surrogateRatio, long seed) {
+    Random rnd = new Random(seed);
+    StringBuilder sb = new StringBuilder(length+16);
+    while(sb.length() < length) {
+      if(surrogateRatio > 0.0 && rnd.nextDouble() < surrogateRatio) {
+        sb.appendCodePoint(0x1F600 + rnd.nextInt(80));
+      } else {
+        sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+      }
+      sb.append(' ');
+    }
+    sb.setLength(length);
+    // never end in a high surrogate
+    if(length > 0 && Character.isHighSurrogate(sb.charAt(length-1))) {
+      sb.setCharAt(length-1, ' ');
+    }
+    return sb.toString();
+  }
+  
+}
@@ -40,6 +40,7 @@ public class BdocAnnotationSet {
   
   /**
    * The list of annotations in this set.
+   * This can be a ColumnarAnnotationList to save memory.
    */
   public List<BdocAnnotation> annotations;
   
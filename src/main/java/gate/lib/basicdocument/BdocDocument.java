@@ -87,17 +87,72 @@ public class BdocDocument
     if(text == null) {
       throw new RuntimeException("Fixing offsets only possible if the text is known");
     }
-    // create the offset mapper
-    OffsetMapper om = new OffsetMapper(this.text);
-    // go through all annotation sets and all annotations and fix them
+    // a document text is usually only converted once, so the mapper does
+    // not go into the shared cache
+    fixupOffsets(new OffsetMapper(this.text, OffsetMapper.Mode.LAZY), newtype);
+  }
+  
+  /**
+   * Change all the annotation offsets to the required type (java/python),
+   * using the given offset mapper.
+   * 
+   * Same as fixupOffsets(newtype) but with an offset mapper which must have 
+   * been created for the text of this document, e.g. one which is also 
+   * used for other conversions of the same text or from an 
+   * OffsetMapperCache. 
+   * @param om the offset mapper to use
+   * @param newtype the target offset type
+   */
+  public void fixupOffsets(OffsetMapper om, String newtype) {
+    if(offset_type.equals(newtype)) {
+      return;
+    }
+    if(annotation_sets == null || annotation_sets.isEmpty()) { 
+      return;
+    }
+    // collect the offsets of all annotations in all sets, convert them
+    // in bulk and put them back
+    int n = 0;
+    for(BdocAnnotationSet annset : annotation_sets.values()) {
+      n += annset.annotations.size();
+    }
+    int[] starts = new int[n];
+    int[] ends = new int[n];
+    int i = 0;
+    for(BdocAnnotationSet annset : annotation_sets.values()) {
+      if(annset.annotations instanceof ColumnarAnnotationList) {
+        ColumnarAnnotationList anns = (ColumnarAnnotationList)annset.annotations;
+        for(int j = 0; j < anns.size(); j++) {
+          starts[i] = anns.getStart(j);
+          ends[i] = anns.getEnd(j);
+          i++;
+        }
+      } else {
+        for(BdocAnnotation ann : annset.annotations) {
+          starts[i] = ann.start;
+          ends[i] = ann.end;
+          i++;
+        }
+      }
+    }
+    if("p".equals(newtype)) {
+      om.convertToPython(starts, ends);
+    } else {
+      om.convertToJava(starts, ends);
+    }
+    i = 0;
     for(BdocAnnotationSet annset : annotation_sets.values()) {
-      for(BdocAnnotation ann : annset.annotations) {
-        if("p".equals(newtype)) {
-          ann.start = om.convertToPython(ann.start);
-          ann.end = om.convertToPython(ann.end);
-        } else {
-          ann.start = om.convertToJava(ann.start);
-          ann.end = om.convertToJava(ann.end);          
+      if(annset.annotations instanceof ColumnarAnnotationList) {
+        ColumnarAnnotationList anns = (ColumnarAnnotationList)annset.annotations;
+        for(int j = 0; j < anns.size(); j++) {
+          anns.setOffsets(j, starts[i], ends[i]);
+          i++;
+        }
+      } else {
+        for(BdocAnnotation ann : annset.annotations) {
+          ann.start = starts[i];
+          ann.end = ends[i];
+          i++;
         }
       }
     }
@@ -112,13 +167,15 @@ public class BdocDocument
   /**
    * Convert this BdocDocument instance to a GATE document. 
    * 
-   * This will include all the parts present in the BdocDocument.
+   * This will include all the parts present in the BdocDocument. The 
+   * document gets created with GateDocumentLoader, which gives the same
+   * result as GateDocumentUpdater with the default options.
    * 
    * @return a new GATE document containing everything in the BdocDocument 
    * instance.
    */
   public Document toGateDocument() {
-    return new GateDocumentUpdater(this.text).fromBdoc(this);
+    return new GateDocumentLoader().load(this);
   }
   
 }
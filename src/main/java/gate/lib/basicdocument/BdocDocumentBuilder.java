@@ -19,20 +19,28 @@
  */
 package gate.lib.basicdocument;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.jr.ob.JSON;
+import gate.lib.basicdocument.docformats.BdocJsonCodec;
 import gate.Annotation;
 import gate.Document;
 import gate.util.GateRuntimeException;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * Class for building a JsonDocument.
@@ -41,17 +49,33 @@ import java.util.Set;
  * optionally limiting the parts to add to the document.
  * Once all the parts are ready, this can be used to return the BdocDocument
  * instance or directly serialise it as JSON to various destinations.
+ * <p>
+ * By default, serialising first builds the whole BdocDocument. In streaming
+ * mode (see streaming()), the JSON is instead written directly from the 
+ * GATE annotations and features, without creating any Bdoc objects.
+ * With parallel(executor), buildBdoc() converts the annotation sets 
+ * concurrently on the given executor.
  * 
  * @author Johann Petrak johann.petrak@gmail.com
  */
 public class BdocDocumentBuilder {
   
+  /**
+   * Default maximum number of annotations converted by one task in the 
+   * parallel build.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 20000;
+  
   String text;
   HashMap<String,Set<Annotation>> includedSets = new HashMap<>();
   HashMap<String,Integer> nextAnnotationIds = new HashMap<>();
   HashMap<String, Object> includedFeatures = new HashMap<>();
   String offset_type = "j";
   List<JSON.Feature> addJSONFeatures = new ArrayList<>();
+  boolean streaming = false;
+  boolean columnar = false;
+  Executor executor = null;
+  int chunkSize = DEFAULT_CHUNK_SIZE;
 
   /**
    * Tell the builder to create the JsonDocument from a GATE document.
@@ -217,6 +241,74 @@ public class BdocDocumentBuilder {
     return this;
   }
   
+  /**
+   * Make the dump methods write the JSON directly from the GATE annotations.
+   * 
+   * In this mode, the dump methods and dumps() do not build a BdocDocument 
+   * first but walk the included annotation sets and features and write
+   * the JSON tokens directly to the destination, converting offsets to 
+   * python offsets on the fly if necessary. This keeps the memory needed
+   * independent of the number of annotations. The JSON written is 
+   * equivalent to what gets written for the BdocDocument returned by 
+   * buildBdoc(). 
+   * 
+   * @return modified BdocDocumentBuilder
+   */
+  public BdocDocumentBuilder streaming() {
+    streaming = true;
+    return this;
+  }
+  
+  /**
+   * Make buildBdoc() store the annotations of each set column-wise.
+   * 
+   * The annotations lists of the BdocAnnotationSets created will be 
+   * ColumnarAnnotationList instances and feature maps are only created for
+   * annotations which have features. 
+   * 
+   * @return modified BdocDocumentBuilder
+   */
+  public BdocDocumentBuilder columnar() {
+    columnar = true;
+    return this;
+  }
+  
+  /**
+   * Make buildBdoc() convert the annotation sets in parallel.
+   * 
+   * Same as parallel(executor, DEFAULT_CHUNK_SIZE).
+   * 
+   * @param executor the executor, e.g. a ForkJoinPool, to run the tasks on
+   * @return modified BdocDocumentBuilder
+   */
+  public BdocDocumentBuilder parallel(Executor executor) {
+    return parallel(executor, DEFAULT_CHUNK_SIZE);
+  }
+  
+  /**
+   * Make buildBdoc() convert the annotation sets in parallel.
+   * 
+   * All sets get converted concurrently and sets with more than chunkSize
+   * annotations are split into chunks which are converted concurrently
+   * too. buildBdoc() blocks until all tasks have finished. The 
+   * BdocDocument built is identical to the one built sequentially. 
+   * The GATE document must not be modified while buildBdoc() runs.
+   * This is also used by the dump methods, unless in streaming mode.
+   * 
+   * @param executor the executor, e.g. a ForkJoinPool, to run the tasks on
+   * @param chunkSize maximum number of annotations converted by one task, 
+   * must be positive
+   * @return modified BdocDocumentBuilder
+   */
+  public BdocDocumentBuilder parallel(Executor executor, int chunkSize) {
+    if(chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize must be at least 1");
+    }
+    this.executor = executor;
+    this.chunkSize = chunkSize;
+    return this;
+  }
+  
   /**
    * Set a JSON serialisation feature.
    * @param feature the feature to set
@@ -243,33 +335,183 @@ public class BdocDocumentBuilder {
     }
     if(includedSets.size() > 0) {
       HashMap<String, BdocAnnotationSet> annotation_sets = new HashMap<>();
-      for(Map.Entry<String, Set<Annotation>> entry : includedSets.entrySet()) {     
-        BdocAnnotationSet annset = new BdocAnnotationSet();
-        annset.name = entry.getKey();
-        annset.annotations = new ArrayList<>();
-        int next_annid = 0;
-        for (Annotation ann : entry.getValue()) {
-          BdocAnnotation bdocann = BdocAnnotation.fromGateAnnotation(ann);
-          if(bdocann.id >= next_annid) {
-            next_annid = bdocann.id + 1;
-          }
-          annset.annotations.add(bdocann);
-        }
-        if(nextAnnotationIds.containsKey(entry.getKey())) {
-          annset.next_annid = Math.max(next_annid, nextAnnotationIds.get(entry.getKey()));
-        } else {
-          annset.next_annid = next_annid;
+      if(executor != null) {
+        buildSetsParallel(annotation_sets);
+      } else {
+        for(Map.Entry<String, Set<Annotation>> entry : includedSets.entrySet()) {     
+          annotation_sets.put(entry.getKey(), buildSet(entry.getKey(), entry.getValue()));
         }
-        annotation_sets.put(annset.name, annset);
-      }     
+      }
       ret.annotation_sets = annotation_sets;
     }
-    // do any offset fixup, if necessary
-
-    ret.fixupOffsets(offset_type);
+    // do any offset fixup, if necessary: the text is the content of a GATE
+    // document, so the mapper is shared with other conversions of it
+    if(text != null && ret.annotation_sets != null && !offset_type.equals(ret.offset_type)) {
+      ret.fixupOffsets(OffsetMapperCache.getDefault().get(text), offset_type);
+    } else {
+      ret.fixupOffsets(offset_type);
+    }
     return ret;
   }
   
+  /**
+   * Convert one included set on the calling thread.
+   * 
+   * @param name set name
+   * @param anns the annotations
+   * @return the converted set
+   */
+  private BdocAnnotationSet buildSet(String name, Set<Annotation> anns) {
+    BdocAnnotationSet annset = new BdocAnnotationSet();
+    annset.name = name;
+    int next_annid = 0;
+    if(columnar) {
+      ColumnarAnnotationList list = new ColumnarAnnotationList(anns.size());
+      for (Annotation ann : anns) {
+        int id = ann.getId();
+        if(id >= next_annid) {
+          next_annid = id + 1;
+        }
+        list.add(id, ann.getType(), 
+                ann.getStartNode().getOffset().intValue(), 
+                ann.getEndNode().getOffset().intValue(), 
+                ann.getFeatures().isEmpty() 
+                        ? null 
+                        : BdocUtils.featureMap2Map(ann.getFeatures(), null));
+      }
+      annset.annotations = list;
+    } else {
+      annset.annotations = new ArrayList<>();
+      for (Annotation ann : anns) {
+        BdocAnnotation bdocann = BdocAnnotation.fromGateAnnotation(ann);
+        if(bdocann.id >= next_annid) {
+          next_annid = bdocann.id + 1;
+        }
+        annset.annotations.add(bdocann);
+      }
+    }
+    annset.next_annid = nextAnnotationId(name, next_annid);
+    return annset;
+  }
+  
+  /**
+   * The next annotation id of a set, given the one computed from its 
+   * annotations.
+   * 
+   * @param name set name
+   * @param next_annid one more than the largest annotation id in the set
+   * @return the next annotation id to use
+   */
+  private int nextAnnotationId(String name, int next_annid) {
+    if(nextAnnotationIds.containsKey(name)) {
+      return Math.max(next_annid, nextAnnotationIds.get(name));
+    } 
+    return next_annid;
+  }
+  
+  /**
+   * Convert all included sets with tasks run on the executor.
+   * 
+   * Each set is split into chunks of at most chunkSize annotations and 
+   * each chunk is converted by a separate task. Each task also finds the
+   * largest annotation id in its chunk and the next annotation id of the set
+   * is computed from those once all tasks are finished. The annotations 
+   * end up in the same order as with the sequential build.
+   * 
+   * @param annotation_sets where to put the converted sets
+   */
+  private void buildSetsParallel(HashMap<String, BdocAnnotationSet> annotation_sets) {
+    List<SetBuild> builds = new ArrayList<>(includedSets.size());
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for(Map.Entry<String, Set<Annotation>> entry : includedSets.entrySet()) {     
+      SetBuild build = new SetBuild(entry.getKey(), 
+              entry.getValue().toArray(new Annotation[0]));
+      builds.add(build);
+      for(int c = 0; c < build.chunkNext.length; c++) {
+        final int chunk = c;
+        futures.add(CompletableFuture.runAsync(() -> build.convert(chunk), executor));
+      }
+    }
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException ex) {
+      throw new GateRuntimeException("Could not convert annotation sets", ex.getCause());
+    }
+    for(SetBuild build : builds) {
+      annotation_sets.put(build.name, build.finish());
+    }
+  }
+  
+  /**
+   * The state of the parallel conversion of one set.
+   */
+  private class SetBuild {
+    final String name;
+    final Annotation[] anns;
+    final BdocAnnotation[] converted;
+    final Map<String, Object>[] features;
+    final int[] chunkNext;
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SetBuild(String name, Annotation[] anns) {
+      this.name = name;
+      this.anns = anns;
+      if(columnar) {
+        converted = null;
+        features = new Map[anns.length];
+      } else {
+        converted = new BdocAnnotation[anns.length];
+        features = null;
+      }
+      chunkNext = new int[(int)Math.max(1, ((long)anns.length + chunkSize - 1) / chunkSize)];
+    }
+    
+    void convert(int chunk) {
+      int from = chunk * chunkSize;
+      int to = (int)Math.min((long)from + chunkSize, anns.length);
+      int next_annid = 0;
+      for(int i = from; i < to; i++) {
+        Annotation ann = anns[i];
+        int id = ann.getId();
+        if(id >= next_annid) {
+          next_annid = id + 1;
+        }
+        if(columnar) {
+          if(!ann.getFeatures().isEmpty()) {
+            features[i] = BdocUtils.featureMap2Map(ann.getFeatures(), null);
+          }
+        } else {
+          converted[i] = BdocAnnotation.fromGateAnnotation(ann);
+        }
+      }
+      chunkNext[chunk] = next_annid;
+    }
+    
+    BdocAnnotationSet finish() {
+      BdocAnnotationSet annset = new BdocAnnotationSet();
+      annset.name = name;
+      int next_annid = 0;
+      for(int next : chunkNext) {
+        next_annid = Math.max(next_annid, next);
+      }
+      if(columnar) {
+        ColumnarAnnotationList list = new ColumnarAnnotationList(anns.length);
+        for(int i = 0; i < anns.length; i++) {
+          Annotation ann = anns[i];
+          list.add(ann.getId(), ann.getType(), 
+                  ann.getStartNode().getOffset().intValue(), 
+                  ann.getEndNode().getOffset().intValue(), 
+                  features[i]);
+        }
+        annset.annotations = list;
+      } else {
+        annset.annotations = new ArrayList<>(Arrays.asList(converted));
+      }
+      annset.next_annid = nextAnnotationId(name, next_annid);
+      return annset;
+    }
+  }
+  
   /**
    * Create a JSON builder instance with the JSON Features passed so far.
    * 
@@ -278,16 +520,132 @@ public class BdocDocumentBuilder {
   public JSON initialJSON() {
     JSON jsonbuilder = JSON.std;
     for (JSON.Feature feature : addJSONFeatures) {
-      jsonbuilder.with(feature);
+      jsonbuilder = jsonbuilder.with(feature);
     }
-    jsonbuilder.with(JSON.Feature.HANDLE_JAVA_BEANS);
-    jsonbuilder.with(JSON.Feature.FORCE_REFLECTION_ACCESS);
-    jsonbuilder.with(JSON.Feature.WRITE_NULL_PROPERTIES);
-    jsonbuilder.without(JSON.Feature.USE_FIELDS);
-    
     return jsonbuilder;
   }
   
+  /**
+   * Create the codec used for serialising, with the JSON Features passed so far.
+   * 
+   * @return codec
+   */
+  BdocJsonCodec initialCodec() {
+    BdocJsonCodec codec = BdocJsonCodec.getDefault();
+    if(!addJSONFeatures.isEmpty()) {
+      codec = codec.with(addJSONFeatures.toArray(new JSON.Feature[0]));
+    }
+    return codec;
+  }
+  
+  private JsonGenerator configure(JsonGenerator gen, BdocJsonCodec codec) {
+    if(codec.getJSON().isEnabled(JSON.Feature.PRETTY_PRINT_OUTPUT)) {
+      gen.useDefaultPrettyPrinter();
+    }
+    return gen;
+  }
+  
+  /**
+   * True if all keys are strings or null. This goes through the entries
+   * since the key set of a GATE feature map is a copy.
+   */
+  private static boolean allStringKeys(Map<Object, Object> fm) {
+    for(Map.Entry<Object, Object> entry : fm.entrySet()) {
+      if(entry.getKey() != null && !(entry.getKey() instanceof String)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Write the JSON for everything added so far directly to the generator.
+   * 
+   * This writes the same fields in the same order as the serialisation of
+   * the BdocDocument from buildBdoc() would but does not create any 
+   * Bdoc objects. The generator is not closed.
+   * 
+   * @param gen the generator to write to
+   * @throws IOException if writing fails
+   */
+  void writeJson(JsonGenerator gen) throws IOException {
+    BdocJsonCodec codec = initialCodec();
+    OffsetMapper om = null;
+    if("p".equals(offset_type) && includedSets.size() > 0) {
+      if(text == null) {
+        throw new RuntimeException("Fixing offsets only possible if the text is known");
+      }
+      om = OffsetMapperCache.getDefault().get(text);
+    }
+    // feature maps with keys which are not strings go through the same 
+    // conversion as for buildBdoc(), so keys with the same string form
+    // give one JSON field
+    Map<String, Object> converted = new HashMap<>();
+    gen.writeStartObject();
+    gen.writeStringField("offset_type", 
+            includedSets.size() > 0 ? offset_type : "j");
+    if(includedSets.size() > 0) {
+      gen.writeObjectFieldStart("annotation_sets");
+      for(Map.Entry<String, Set<Annotation>> entry : includedSets.entrySet()) {     
+        gen.writeObjectFieldStart(entry.getKey());
+        gen.writeArrayFieldStart("annotations");
+        int next_annid = 0;
+        for (Annotation ann : entry.getValue()) {
+          int id = ann.getId();
+          if(id >= next_annid) {
+            next_annid = id + 1;
+          }
+          int start = ann.getStartNode().getOffset().intValue();
+          int end = ann.getEndNode().getOffset().intValue();
+          if(om != null) {
+            start = om.convertToPython(start);
+            end = om.convertToPython(end);
+          }
+          gen.writeStartObject();
+          gen.writeNumberField("end", end);
+          gen.writeObjectFieldStart("features");
+          Map<?, ?> features = ann.getFeatures();
+          if(!allStringKeys(ann.getFeatures())) {
+            converted.clear();
+            features = BdocUtils.featureMap2Map(ann.getFeatures(), converted);
+          }
+          for(Map.Entry<?, ?> fentry : features.entrySet()) {
+            if (fentry.getKey() == null) {
+              // we ignore null keys here, like featureMap2Map
+              continue;
+            }
+            gen.writeFieldName(fentry.getKey().toString());
+            codec.writeValue(fentry.getValue(), gen);
+          }
+          gen.writeEndObject();
+          gen.writeStringField("gatenlp_type", "Annotation");
+          gen.writeNumberField("id", id);
+          gen.writeNumberField("start", start);
+          gen.writeStringField("type", ann.getType());
+          gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeStringField("gatenlp_type", "AnnotationSet");
+        gen.writeStringField("name", entry.getKey());
+        if(nextAnnotationIds.containsKey(entry.getKey())) {
+          next_annid = Math.max(next_annid, nextAnnotationIds.get(entry.getKey()));
+        }
+        gen.writeNumberField("next_annid", next_annid);
+        gen.writeEndObject();
+      }
+      gen.writeEndObject();
+    }
+    if(includedFeatures.size() > 0) {
+      gen.writeFieldName("features");
+      codec.writeValue(includedFeatures, gen);
+    }
+    gen.writeStringField("gatenlp_type", "Document");
+    if(text != null) {
+      gen.writeStringField("text", text);
+    }
+    gen.writeEndObject();
+  }
+  
   /**
    * Serialise the BdocDocument built so far as JSON to the given File.
    * 
@@ -295,8 +653,15 @@ public class BdocDocumentBuilder {
    */
   public void dump(File path) {
     try {
-      BdocDocument jsondoc = buildBdoc();
-      initialJSON().write(jsondoc, path);
+      if(streaming) {
+        BdocJsonCodec codec = initialCodec();
+        try (JsonGenerator gen = configure(codec.getJSON().getStreamingFactory().
+                createGenerator(path, JsonEncoding.UTF8), codec)) {
+          writeJson(gen);
+        }
+        return;
+      }
+      initialCodec().dump(buildBdoc(), path);
     } catch (IOException ex) {
       throw new RuntimeException("Could not build and save JSON", ex);
     }
@@ -309,8 +674,15 @@ public class BdocDocumentBuilder {
    */
   public void dump(Writer writer) {
     try {
-      BdocDocument jsondoc = buildBdoc();
-      initialJSON().write(jsondoc, writer);
+      if(streaming) {
+        BdocJsonCodec codec = initialCodec();
+        try (JsonGenerator gen = configure(codec.getJSON().getStreamingFactory().
+                createGenerator(writer), codec)) {
+          writeJson(gen);
+        }
+        return;
+      }
+      initialCodec().dump(buildBdoc(), writer);
     } catch (IOException ex) {
       throw new RuntimeException("Could not build and save JSON", ex);
     }
@@ -323,8 +695,15 @@ public class BdocDocumentBuilder {
    */
   public void dump(OutputStream ostream) {
     try {
-      BdocDocument jsondoc = buildBdoc();
-      initialJSON().write(jsondoc, ostream);
+      if(streaming) {
+        BdocJsonCodec codec = initialCodec();
+        try (JsonGenerator gen = configure(codec.getJSON().getStreamingFactory().
+                createGenerator(ostream, JsonEncoding.UTF8), codec)) {
+          writeJson(gen);
+        }
+        return;
+      }
+      initialCodec().dump(buildBdoc(), ostream);
     } catch (IOException ex) {
       throw new RuntimeException("Could not build and save JSON", ex);
     }
@@ -338,8 +717,16 @@ public class BdocDocumentBuilder {
    */
   public String dumps() {
     try {
-      BdocDocument jsondoc = buildBdoc();
-      return initialJSON().asString(jsondoc);
+      if(streaming) {
+        StringWriter writer = new StringWriter();
+        BdocJsonCodec codec = initialCodec();
+        try (JsonGenerator gen = configure(codec.getJSON().getStreamingFactory().
+                createGenerator(writer), codec)) {
+          writeJson(gen);
+        }
+        return writer.toString();
+      }
+      return initialCodec().dumps(buildBdoc());
     } catch (IOException ex) {
       throw new RuntimeException("Could not build JSON", ex);
     }
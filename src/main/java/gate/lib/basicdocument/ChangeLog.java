@@ -21,12 +21,21 @@ package gate.lib.basicdocument;
 
 import gate.util.GateRuntimeException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Something that represents changes to a document.
  * 
+ * Besides the single entry commands, a whole layer of annotations can be 
+ * added with one "annotations:add_bulk" entry, which has the keys "set", 
+ * "ids", "starts" and "ends" (int arrays or lists of the same length), 
+ * "types" (the list of distinct annotation types) and "type_codes" (the 
+ * index into "types" for each annotation, may be omitted if there is only
+ * one type), and optionally "features" (a list with a feature map or null
+ * for each annotation). See addAnnotationsBulk.
+ * 
  * @author  Johann Petrak johann.petrak@gmail.com
  */
 public class ChangeLog {
@@ -59,24 +68,232 @@ public class ChangeLog {
     if(offset_type.equals(newtype)) {
       return;
     }    
+    // collect all the offsets, convert them in bulk and put them back
+    int n = 0;
+    for(Map<String,Object> change : changes) {
+      if(change.containsKey("start")) {
+        n++;
+      }
+      if(change.containsKey("end")) {
+        n++;
+      }
+    }
+    int[] offsets = new int[n];
+    int i = 0;
     for(Map<String,Object> change : changes) {
       if(change.containsKey("start")) {
-        if(newtype.equals("j")) {
-          change.put("start", om.convertToJava((Integer)change.get("start")));
-        } else {
-          change.put("start", om.convertToPython((Integer)change.get("start")));
-        }
+        offsets[i++] = ((Number)change.get("start")).intValue();
       }
       if(change.containsKey("end")) {
-        if(newtype.equals("j")) {
-          change.put("end", om.convertToJava((Integer)change.get("end")));
-        } else {
-          change.put("end", om.convertToPython((Integer)change.get("end")));
-        }
+        offsets[i++] = ((Number)change.get("end")).intValue();
       }
     }
+    if(newtype.equals("j")) {
+      om.convertToJava(offsets, null);
+    } else {
+      om.convertToPython(offsets, null);
+    }
+    i = 0;
+    for(Map<String,Object> change : changes) {
+      if(change.containsKey("start")) {
+        change.put("start", offsets[i++]);
+      }
+      if(change.containsKey("end")) {
+        change.put("end", offsets[i++]);
+      }
+    }
+    for(Map<String,Object> change : changes) {
+      if(BULK_ADD.equals(change.get("command"))) {
+        fixupBulkOffsets(change, om, newtype);
+      }
+    }
+    offset_type = newtype;
+  }
+  
+  /**
+   * In-place updating of the offsets to the desired new type.
+   * 
+   * Same as fixupOffsets(om, newtype) but creates a new offset mapper for 
+   * the given document text. To convert several changelogs for the same 
+   * text, pass one mapper to fixupOffsets(om, newtype) instead.
+   * 
+   * @param text the text of the document the changelog refers to
+   * @param newtype  the desired new offset type
+   */
+  public void fixupOffsets(String text, String newtype) {
+    if(offset_type.equals(newtype)) {
+      return;
+    }
+    fixupOffsets(new OffsetMapper(text, OffsetMapper.Mode.LAZY), newtype);
   }
 
+  /**
+   * Add an "annotations:add_bulk" entry.
+   * 
+   * The arrays and lists are not copied.
+   * 
+   * @param set the annotation set name
+   * @param ids the annotation ids
+   * @param starts the start offsets
+   * @param ends the end offsets
+   * @param types the distinct annotation types
+   * @param typeCodes the index into types for each annotation, may be null
+   * if there is only one type
+   * @param features the features for each annotation, may be null, and 
+   * may contain null for annotations without features
+   */
+  public void addAnnotationsBulk(String set, int[] ids, int[] starts, int[] ends,
+          List<String> types, int[] typeCodes, List<Map<String, Object>> features) {
+    Map<String, Object> change = new HashMap<>();
+    change.put("command", BULK_ADD);
+    change.put("set", set);
+    change.put("ids", ids);
+    change.put("starts", starts);
+    change.put("ends", ends);
+    change.put("types", types);
+    if(typeCodes != null) {
+      change.put("type_codes", typeCodes);
+    }
+    if(features != null) {
+      change.put("features", features);
+    }
+    checkBulk(change);
+    changes.add(change);
+  }
+  
+  static final String BULK_ADD = "annotations:add_bulk";
+  
+  /**
+   * Get an int array from an "annotations:add_bulk" entry.
+   * 
+   * @param change the entry
+   * @param key the key, the value must be an int[] or a list of numbers
+   * @return the int array, a new one if the value is a list
+   */
+  static int[] bulkInts(Map<String, Object> change, String key) {
+    Object value = change.get(key);
+    if(value instanceof int[]) {
+      return (int[])value;
+    } else if(value instanceof List) {
+      List<?> list = (List<?>)value;
+      int[] ret = new int[list.size()];
+      for(int i = 0; i < ret.length; i++) {
+        ret[i] = ((Number)list.get(i)).intValue();
+      }
+      return ret;
+    } else if(value == null && key.equals("type_codes")) {
+      return null;
+    }
+    throw new GateRuntimeException("Not an int array in "+BULK_ADD+": "+key);
+  }
+
+  /**
+   * Check that all the arrays of an "annotations:add_bulk" entry have the
+   * same length and that all type codes are valid.
+   * 
+   * @param change the entry
+   * @return the number of annotations
+   */
+  static int checkBulk(Map<String, Object> change) {
+    if(!(change.get("set") instanceof String)) {
+      throw new GateRuntimeException("No set name in "+BULK_ADD);
+    }
+    int n = bulkInts(change, "ids").length;
+    Object types = change.get("types");
+    Object features = change.get("features");
+    int[] codes = bulkInts(change, "type_codes");
+    if(bulkInts(change, "starts").length != n || bulkInts(change, "ends").length != n || 
+       (codes != null && codes.length != n) || 
+       (features != null && (!(features instanceof List) || ((List<?>)features).size() != n))) {
+      throw new GateRuntimeException("Arrays of different length in "+BULK_ADD);
+    }
+    if(!(types instanceof List)) {
+      throw new GateRuntimeException("No types list in "+BULK_ADD);
+    }
+    int ntypes = ((List<?>)types).size();
+    if(codes == null ? (n > 0 && ntypes != 1) : !allBelow(codes, ntypes)) {
+      throw new GateRuntimeException("Invalid type codes in "+BULK_ADD);
+    }
+    return n;
+  }
+  
+  private static boolean allBelow(int[] codes, int n) {
+    for(int code : codes) {
+      if(code < 0 || code >= n) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Convert the offsets of an "annotations:add_bulk" entry in place.
+   * 
+   * Offsets given as lists get replaced by int arrays.
+   */
+  static void fixupBulkOffsets(Map<String, Object> change, OffsetMapper om, String newtype) {
+    int[] starts = bulkInts(change, "starts").clone();
+    int[] ends = bulkInts(change, "ends").clone();
+    if(newtype.equals("j")) {
+      om.convertToJava(starts, ends);
+    } else {
+      om.convertToPython(starts, ends);
+    }
+    change.put("starts", starts);
+    change.put("ends", ends);
+  }
+
+  /**
+   * Return a changelog without the redundant entries of this one.
+   * 
+   * Same as compact(false): nothing gets folded into annotation:add
+   * entries, so the result is correct for any target document.
+   * 
+   * @return the compacted changelog
+   */
+  public ChangeLog compact() {
+    return compact(false);
+  }
+  
+  /**
+   * Return a changelog without the redundant entries of this one.
+   * 
+   * Applying the compacted changelog to a document gives the same result
+   * as applying this one. The compaction folds
+   * <ul>
+   * <li>only if idsAreNew is true: feature:set, feature:remove and 
+   * features:clear for an annotation added by the changelog into its 
+   * annotation:add entry, and annotation:add followed by annotation:remove
+   * of the same annotation into nothing</li>
+   * <li>repeated feature:set/feature:remove of the same feature into the 
+   * last one</li>
+   * <li>feature changes of a removed annotation into its 
+   * annotation:remove</li>
+   * <li>all entries for a set before annotations:clear or 
+   * annotations:remove of the set, and all entries for a feature map
+   * before its features:clear into that entry</li>
+   * </ul>
+   * The remaining entries keep their order, so a compacted changelog can 
+   * be applied or serialised in place of the original. Entries with an 
+   * unknown command are kept and nothing is folded across them. This 
+   * changelog is not modified, the compacted changelog may share entries
+   * with it.
+   * <p>
+   * idsAreNew must only be true if the target document has none of the 
+   * annotation ids added by this changelog, e.g. because the changelog was
+   * recorded on a copy of it. Otherwise the updater's default 
+   * HandleExistingAnns.ADD_WITH_NEW_ID gives an added annotation a new id 
+   * and the later entries with the id still refer to the annotation the 
+   * document already had.
+   * 
+   * @param idsAreNew if true, the ids of the annotations added by this 
+   * changelog do not exist in the target document
+   * @return the compacted changelog
+   */
+  public ChangeLog compact(boolean idsAreNew) {
+    return new ChangeLogCompactor(idsAreNew).compact(this);
+  }
+  
   /**
    * Type identifier.
    */
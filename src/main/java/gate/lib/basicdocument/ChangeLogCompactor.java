@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes redundant entries from a changelog, see ChangeLog.compact().
+ *
+ * The entries are processed in order. The compacted list is built in
+ * place, with entries which turn out to be redundant later replaced by
+ * null, and for every document feature, annotation and annotation set
+ * the positions of the entries which affect it are remembered.
+ * <p>
+ * Entries of an annotation are only folded into its annotation:add if 
+ * the ids of the added annotations are known to be new in the target
+ * document. Otherwise an annotation:add only starts a new history for 
+ * the id, as the later entries for the id may refer to an annotation 
+ * which the target document already has.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+class ChangeLogCompactor {
+
+  /**
+   * What we know about one feature map: the entries which change it.
+   */
+  private static class FeatureState {
+    // position of the last entry for each feature
+    final Map<String, Integer> last = new HashMap<>();
+    // position of the last features:clear, or -1
+    int clear = -1;
+  }
+
+  /**
+   * What we know about one annotation.
+   */
+  private static class AnnState {
+    // position of the annotation:add of this annotation, or -1 if it was
+    // not added by this changelog
+    int add = -1;
+    // true if the entry at position add is our own copy
+    boolean copied = false;
+    final FeatureState features = new FeatureState();
+  }
+
+  private final boolean idsAreNew;
+  private final List<Map<String, Object>> out = new ArrayList<>();
+  private final FeatureState docFeatures = new FeatureState();
+  private final Map<String, Map<Integer, AnnState>> anns = new HashMap<>();
+  // positions of all entries for each annotation set
+  private final Map<String, List<Integer>> setEntries = new HashMap<>();
+
+  /**
+   * Create a compactor.
+   * 
+   * @param idsAreNew if true, the ids of the annotations added by the 
+   * changelog do not exist in the target document
+   */
+  ChangeLogCompactor(boolean idsAreNew) {
+    this.idsAreNew = idsAreNew;
+  }
+
+  ChangeLog compact(ChangeLog clog) {
+    for(Map<String, Object> change : clog.changes) {
+      String cmd = (String)change.get("command");
+      String set = (String)change.get("set");
+      Integer id = change.get("id") == null ? null : ((Number)change.get("id")).intValue();
+      String feature = (String)change.get("feature");
+      if(cmd == null) {
+        barrier(change);
+        continue;
+      }
+      switch(cmd) {
+        case "feature:set":
+        case "feature:remove":
+          if(set == null) {
+            featureChange(docFeatures, change, cmd, feature);
+          } else if(id != null) {
+            AnnState ann = ann(set, id);
+            if(ann.add >= 0) {
+              Map<String, Object> features = ownFeatures(ann);
+              if(cmd.equals("feature:set")) {
+                features.put(feature, change.get("value"));
+              } else {
+                features.remove(feature);
+              }
+            } else {
+              setEntry(set, featureChange(ann.features, change, cmd, feature));
+            }
+          } else {
+            barrier(change);
+          }
+          break;
+        case "features:clear":
+          if(set == null) {
+            featuresClear(docFeatures, change);
+          } else if(id != null) {
+            AnnState ann = ann(set, id);
+            if(ann.add >= 0) {
+              ownFeatures(ann).clear();
+            } else {
+              setEntry(set, featuresClear(ann.features, change));
+            }
+          } else {
+            // without an id this clears the annotation set
+            setCleared(set, change);
+          }
+          break;
+        case "annotation:add":
+          if(set == null || id == null) {
+            barrier(change);
+            break;
+          }
+          AnnState added = new AnnState();
+          int pos = add(change);
+          setEntry(set, pos);
+          if(idsAreNew) {
+            added.add = pos;
+          }
+          anns.computeIfAbsent(set, k -> new HashMap<>()).put(id, added);
+          break;
+        case "annotation:remove":
+          if(set == null || id == null) {
+            barrier(change);
+            break;
+          }
+          AnnState removed = ann(set, id);
+          anns.get(set).remove(id);
+          if(removed.add >= 0) {
+            // added and removed again: drop both
+            out.set(removed.add, null);
+          } else {
+            drop(removed.features);
+            setEntry(set, add(change));
+          }
+          break;
+        case "annotations:clear":
+        case "annotations:remove":
+          if(set == null) {
+            barrier(change);
+          } else {
+            setCleared(set, change);
+          }
+          break;
+        default:
+          barrier(change);
+      }
+    }
+    ChangeLog ret = new ChangeLog();
+    ret.offset_type = clog.offset_type;
+    for(Map<String, Object> change : out) {
+      if(change != null) {
+        ret.changes.add(change);
+      }
+    }
+    return ret;
+  }
+
+  private int add(Map<String, Object> change) {
+    out.add(change);
+    return out.size() - 1;
+  }
+
+  private AnnState ann(String set, int id) {
+    return anns.computeIfAbsent(set, k -> new HashMap<>()).computeIfAbsent(id, k -> new AnnState());
+  }
+
+  private void setEntry(String set, int pos) {
+    setEntries.computeIfAbsent(set, k -> new ArrayList<>()).add(pos);
+  }
+
+  /**
+   * The features of the annotation:add entry, copied before the first change.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> ownFeatures(AnnState ann) {
+    Map<String, Object> add = out.get(ann.add);
+    if(!ann.copied) {
+      add = new HashMap<>(add);
+      Map<String, Object> features = (Map<String, Object>)add.get("features");
+      add.put("features", features == null ? new HashMap<>() : new HashMap<>(features));
+      out.set(ann.add, add);
+      ann.copied = true;
+    }
+    return (Map<String, Object>)add.get("features");
+  }
+
+  /**
+   * A feature:set or feature:remove replaces the previous entry for the feature.
+   */
+  private int featureChange(FeatureState state, Map<String, Object> change,
+          String cmd, String feature) {
+    Integer prev = state.last.remove(feature);
+    if(prev != null) {
+      out.set(prev, null);
+    }
+    if(state.clear >= 0 && cmd.equals("feature:remove")) {
+      // the feature is not there after the clear
+      return -1;
+    }
+    int pos = add(change);
+    state.last.put(feature, pos);
+    return pos;
+  }
+
+  /**
+   * A features:clear replaces all previous entries for the feature map.
+   */
+  private int featuresClear(FeatureState state, Map<String, Object> change) {
+    drop(state);
+    state.clear = add(change);
+    return state.clear;
+  }
+
+  private void drop(FeatureState state) {
+    for(int pos : state.last.values()) {
+      out.set(pos, null);
+    }
+    state.last.clear();
+    if(state.clear >= 0) {
+      out.set(state.clear, null);
+      state.clear = -1;
+    }
+  }
+
+  /**
+   * Clearing or removing a set replaces all previous entries for the set.
+   */
+  private void setCleared(String set, Map<String, Object> change) {
+    List<Integer> entries = setEntries.remove(set);
+    if(entries != null) {
+      for(int pos : entries) {
+        if(pos >= 0) {
+          out.set(pos, null);
+        }
+      }
+    }
+    anns.remove(set);
+    setEntry(set, add(change));
+  }
+
+  /**
+   * Keep an entry we do not understand and forget everything before it.
+   */
+  private void barrier(Map<String, Object> change) {
+    add(change);
+    docFeatures.last.clear();
+    docFeatures.clear = -1;
+    anns.clear();
+    setEntries.clear();
+  }
+}
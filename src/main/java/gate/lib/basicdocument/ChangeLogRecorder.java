@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.FeatureMap;
+import gate.event.AnnotationSetEvent;
+import gate.event.AnnotationSetListener;
+import gate.event.DocumentEvent;
+import gate.event.DocumentListener;
+import gate.event.FeatureMapListener;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Record the changes made to a GATE document as a ChangeLog.
+ *
+ * The recorder attaches listeners to the document, all its annotation sets,
+ * the document features and the features of all annotations, and turns
+ * every change into a changelog entry with the same commands that
+ * GateDocumentUpdater.fromChangeLog and the Python gatenlp library
+ * understand: "annotation:add", "annotation:remove", "annotations:remove",
+ * "feature:set", "feature:remove" and "features:clear". The changelog uses
+ * Java offsets, use fixupOffsets to convert it before sending it to Python.
+ * <p>
+ * GATE only reports that a feature map has changed, not how, so the
+ * recorder keeps a shallow copy of every feature map and compares it with
+ * the map after each change. Changes inside feature values, e.g. adding
+ * to a list which is already a feature value, are therefore not seen.
+ * Edits of the document text cannot be represented in a changelog: they
+ * only get flagged, see isContentEdited().
+ * <p>
+ * Recording starts when the recorder is created and stops when it is
+ * closed. Instances are not thread-safe.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class ChangeLogRecorder implements AutoCloseable {
+
+  private final Document doc;
+  private ChangeLog changeLog = new ChangeLog();
+  private boolean contentEdited = false;
+  private final FeatureTracker docFeatures;
+  /**
+   * The listener and feature trackers for each annotation set, by set name.
+   */
+  private final Map<String, SetTracker> sets = new HashMap<>();
+
+  private final DocumentListener documentListener = new DocumentListener() {
+    @Override
+    public void annotationSetAdded(DocumentEvent ev) {
+      String name = ev.getAnnotationSetName();
+      track(name == null ? "" : name);
+    }
+    @Override
+    public void annotationSetRemoved(DocumentEvent ev) {
+      String name = ev.getAnnotationSetName();
+      SetTracker tracker = sets.remove(name == null ? "" : name);
+      if(tracker != null) {
+        tracker.detach();
+        Map<String, Object> change = change("annotations:remove");
+        change.put("set", tracker.name);
+        changeLog.changes.add(change);
+      }
+    }
+    @Override
+    public void contentEdited(DocumentEvent ev) {
+      contentEdited = true;
+    }
+  };
+
+  /**
+   * Start recording the changes of the document.
+   *
+   * @param doc the GATE document
+   */
+  public ChangeLogRecorder(Document doc) {
+    this.doc = doc;
+    docFeatures = new FeatureTracker(null, null, doc.getFeatures());
+    doc.addDocumentListener(documentListener);
+    track("");
+    for(String name : doc.getAnnotationSetNames()) {
+      if(name != null && !name.isEmpty()) {
+        track(name);
+      }
+    }
+  }
+
+  /**
+   * The changes recorded since the recorder was created or since the
+   * last call of takeChangeLog().
+   *
+   * @return changelog, gets extended by further changes
+   */
+  public ChangeLog getChangeLog() {
+    return changeLog;
+  }
+
+  /**
+   * Return the changes recorded so far and continue with a new changelog.
+   *
+   * This is meant for repeated exchanges of the same document: each
+   * changelog only contains the changes since the previous one.
+   *
+   * @return changelog
+   */
+  public ChangeLog takeChangeLog() {
+    ChangeLog ret = changeLog;
+    changeLog = new ChangeLog();
+    return ret;
+  }
+
+  /**
+   * Check if the document text has been edited while recording.
+   *
+   * The changelogs can then not be used to update a copy of the document,
+   * the whole document has to be sent again.
+   *
+   * @return true if the text has been edited
+   */
+  public boolean isContentEdited() {
+    return contentEdited;
+  }
+
+  /**
+   * Stop recording and remove all listeners.
+   */
+  @Override
+  public void close() {
+    doc.removeDocumentListener(documentListener);
+    docFeatures.detach();
+    for(SetTracker tracker : sets.values()) {
+      tracker.detach();
+    }
+    sets.clear();
+  }
+
+  private void track(String name) {
+    if(sets.containsKey(name)) {
+      return;
+    }
+    AnnotationSet set = name.isEmpty() ? doc.getAnnotations() : doc.getAnnotations(name);
+    sets.put(name, new SetTracker(name, set));
+  }
+
+  private static Map<String, Object> change(String command) {
+    Map<String, Object> change = new HashMap<>();
+    change.put("command", command);
+    return change;
+  }
+
+  /**
+   * Listens to one annotation set and tracks the features of its annotations.
+   */
+  private class SetTracker implements AnnotationSetListener {
+    final String name;
+    final AnnotationSet set;
+    final Map<Integer, FeatureTracker> annotations = new HashMap<>();
+
+    SetTracker(String name, AnnotationSet set) {
+      this.name = name;
+      this.set = set;
+      for(Annotation ann : set) {
+        annotations.put(ann.getId(), new FeatureTracker(name, ann.getId(), ann.getFeatures()));
+      }
+      set.addAnnotationSetListener(this);
+    }
+
+    @Override
+    public void annotationAdded(AnnotationSetEvent ev) {
+      Annotation ann = ev.getAnnotation();
+      FeatureTracker tracker = new FeatureTracker(name, ann.getId(), ann.getFeatures());
+      annotations.put(ann.getId(), tracker);
+      Map<String, Object> change = change("annotation:add");
+      change.put("set", name);
+      change.put("id", ann.getId());
+      change.put("start", ann.getStartNode().getOffset().intValue());
+      change.put("end", ann.getEndNode().getOffset().intValue());
+      change.put("type", ann.getType());
+      change.put("features", new HashMap<>(tracker.snapshot));
+      changeLog.changes.add(change);
+    }
+
+    @Override
+    public void annotationRemoved(AnnotationSetEvent ev) {
+      Annotation ann = ev.getAnnotation();
+      FeatureTracker tracker = annotations.remove(ann.getId());
+      if(tracker != null) {
+        tracker.detach();
+      }
+      Map<String, Object> change = change("annotation:remove");
+      change.put("set", name);
+      change.put("id", ann.getId());
+      changeLog.changes.add(change);
+    }
+
+    void detach() {
+      set.removeAnnotationSetListener(this);
+      for(FeatureTracker tracker : annotations.values()) {
+        tracker.detach();
+      }
+      annotations.clear();
+    }
+  }
+
+  /**
+   * Listens to a feature map and records the differences to its last state.
+   */
+  private class FeatureTracker implements FeatureMapListener {
+    final String set;
+    final Integer id;
+    final FeatureMap fm;
+    final Map<String, Object> snapshot;
+
+    /**
+     * Track a feature map.
+     *
+     * @param set the annotation set name or null for the document features
+     * @param id the annotation id or null for the document features
+     * @param fm the feature map
+     */
+    FeatureTracker(String set, Integer id, FeatureMap fm) {
+      this.set = set;
+      this.id = id;
+      this.fm = fm;
+      snapshot = BdocUtils.featureMap2Map(fm, null);
+      fm.addFeatureMapListener(this);
+    }
+
+    @Override
+    public void featureMapUpdated() {
+      Map<String, Object> current = BdocUtils.featureMap2Map(fm, null);
+      if(current.isEmpty() && snapshot.size() > 1) {
+        changeLog.changes.add(featureChange("features:clear", null));
+      } else {
+        for(String name : snapshot.keySet()) {
+          if(!current.containsKey(name)) {
+            changeLog.changes.add(featureChange("feature:remove", name));
+          }
+        }
+        for(Map.Entry<String, Object> entry : current.entrySet()) {
+          if(!snapshot.containsKey(entry.getKey()) ||
+             !Objects.equals(snapshot.get(entry.getKey()), entry.getValue())) {
+            Map<String, Object> change = featureChange("feature:set", entry.getKey());
+            change.put("value", entry.getValue());
+            changeLog.changes.add(change);
+          }
+        }
+      }
+      snapshot.clear();
+      snapshot.putAll(current);
+    }
+
+    private Map<String, Object> featureChange(String command, String feature) {
+      Map<String, Object> change = change(command);
+      if(set != null) {
+        change.put("set", set);
+        change.put("id", id);
+      }
+      if(feature != null) {
+        change.put("feature", feature);
+      }
+      return change;
+    }
+
+    void detach() {
+      fm.removeFeatureMapListener(this);
+    }
+  }
+}
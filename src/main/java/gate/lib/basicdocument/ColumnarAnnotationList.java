@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A column oriented list of annotations.
+ * 
+ * This stores the annotations of a set as parallel primitive arrays for 
+ * the start and end offsets, ids and annotation type codes, where the 
+ * type codes refer to a per-list type dictionary. Feature maps are only
+ * stored for annotations which have features. This needs a lot less memory
+ * than a list of BdocAnnotation instances.
+ * <p>
+ * This can be used as the annotations list of a BdocAnnotationSet and 
+ * behaves like a list of BdocAnnotation instances: when an element is 
+ * accessed through the List interface, a BdocAnnotation gets created from
+ * the columns and is used as a view of the element for as long as it is 
+ * referenced from elsewhere, so get(index) returns the same instance while
+ * the caller keeps it and the per-index getters see changes of its fields.
+ * The list only references the views weakly, so they do not stay in memory
+ * once the caller is done with them. The changes of the instance returned
+ * last by get(index), add or set are written to the columns with the next
+ * access through the List interface, so e.g. get(index).start = x or 
+ * changing the elements in a loop changes the list. Changes to an instance
+ * after further accesses of the list must be stored with set(index, ann) 
+ * or the per-index setters. Code which knows about this class should use 
+ * the per-index getters and setters, which never create BdocAnnotation 
+ * instances.
+ * <p>
+ * An annotation without features has an empty feature map, as in the
+ * list representation: getFeatures(index) returns an immutable empty map 
+ * for it, the view returned by get(index) a new modifiable map.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class ColumnarAnnotationList extends AbstractList<BdocAnnotation> 
+        implements RandomAccess {
+  
+  // ids are never negative, so we use this to represent a null id
+  private static final int NO_ID = -1;
+  
+  private int size = 0;
+  private int[] starts;
+  private int[] ends;
+  private int[] ids;
+  private int[] typeCodes;
+  // only allocated once the first annotation with features gets added
+  private Map<String, Object>[] features;
+  // only allocated once the first element gets accessed as a BdocAnnotation,
+  // a view which has not been collected overrides the columns for its index
+  private View[] views;
+  private final ReferenceQueue<BdocAnnotation> collected = new ReferenceQueue<>();
+  // the view handed out last and its index, its changes get written to 
+  // the columns with the next access through the List interface
+  private BdocAnnotation recent;
+  private int recentIndex;
+  
+  private String[] types = new String[8];
+  private int ntypes = 0;
+  private final Map<String, Integer> type2code = new HashMap<>();
+  
+  /**
+   * Weak reference to a view which knows the index of its element.
+   */
+  private static final class View extends WeakReference<BdocAnnotation> {
+    int index;
+    View(BdocAnnotation ann, int index, ReferenceQueue<BdocAnnotation> queue) {
+      super(ann, queue);
+      this.index = index;
+    }
+  }
+  
+  /**
+   * Create an empty list.
+   */
+  public ColumnarAnnotationList() {
+    this(16);
+  }
+  
+  /**
+   * Create an empty list with room for the given number of annotations.
+   * 
+   * @param capacity initial capacity
+   */
+  public ColumnarAnnotationList(int capacity) {
+    capacity = Math.max(capacity, 1);
+    starts = new int[capacity];
+    ends = new int[capacity];
+    ids = new int[capacity];
+    typeCodes = new int[capacity];
+  }
+  
+  private void grow(int mincap) {
+    if(mincap <= starts.length) {
+      return;
+    }
+    int cap = Math.max(mincap, starts.length + (starts.length >> 1) + 1);
+    starts = Arrays.copyOf(starts, cap);
+    ends = Arrays.copyOf(ends, cap);
+    ids = Arrays.copyOf(ids, cap);
+    typeCodes = Arrays.copyOf(typeCodes, cap);
+    if(features != null) {
+      features = Arrays.copyOf(features, cap);
+    }
+    if(views != null) {
+      views = Arrays.copyOf(views, cap);
+    }
+  }
+  
+  private int typeCode(String type) {
+    Integer code = type2code.get(type);
+    if(code == null) {
+      if(ntypes == types.length) {
+        types = Arrays.copyOf(types, ntypes*2);
+      }
+      code = ntypes;
+      types[ntypes++] = type;
+      type2code.put(type, code);
+    }
+    return code;
+  }
+  
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void storeFeatures(int index, Map<String, Object> fm) {
+    if(fm == null || fm.isEmpty()) {
+      if(features != null) {
+        features[index] = null;
+      }
+      return;
+    }
+    if(features == null) {
+      features = new Map[starts.length];
+    }
+    features[index] = fm;
+  }
+  
+  private BdocAnnotation view(int index) {
+    if(views == null || views[index] == null) {
+      return null;
+    }
+    return views[index].get();
+  }
+  
+  private void storeView(int index, BdocAnnotation ann) {
+    if(views == null) {
+      if(ann == null) {
+        return;
+      }
+      views = new View[starts.length];
+    }
+    views[index] = ann == null ? null : new View(ann, index, collected);
+    if(ann != null) {
+      recent = ann;
+      recentIndex = index;
+    }
+  }
+  
+  private void storeColumns(int index, BdocAnnotation ann) {
+    starts[index] = ann.start;
+    ends[index] = ann.end;
+    ids[index] = (ann.id == null || ann.id < 0) ? NO_ID : ann.id;
+    typeCodes[index] = typeCode(ann.type);
+    storeFeatures(index, ann.features);
+  }
+  
+  /**
+   * Write the view handed out last to the columns and forget the 
+   * references to collected views.
+   */
+  private void flushViews() {
+    if(recent != null) {
+      storeColumns(recentIndex, recent);
+      recent = null;
+    }
+    View ref;
+    while((ref = (View)collected.poll()) != null) {
+      if(ref.index < size && views[ref.index] == ref) {
+        views[ref.index] = null;
+      }
+    }
+  }
+  
+  private void checkIndex(int index) {
+    if(index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: "+index+", size: "+size);
+    }
+  }
+  
+  /**
+   * Add an annotation given its parts.
+   * 
+   * @param id annotation id, null if the annotation has no id yet
+   * @param type annotation type
+   * @param start start offset
+   * @param end end offset
+   * @param fm feature map, may be null, if empty it is not stored
+   */
+  public void add(Integer id, String type, int start, int end, Map<String, Object> fm) {
+    if(id != null && id < 0) {
+      throw new IllegalArgumentException("Annotation id must not be negative: "+id);
+    }
+    flushViews();
+    grow(size + 1);
+    starts[size] = start;
+    ends[size] = end;
+    ids[size] = (id == null) ? NO_ID : id;
+    typeCodes[size] = typeCode(type);
+    storeFeatures(size, fm);
+    storeView(size, null);
+    size++;
+    modCount++;
+  }
+  
+  @Override
+  public boolean add(BdocAnnotation ann) {
+    add(ann.id, ann.type, ann.start, ann.end, ann.features);
+    storeView(size-1, ann);
+    return true;
+  }
+  
+  @Override
+  public BdocAnnotation get(int index) {
+    checkIndex(index);
+    flushViews();
+    BdocAnnotation ann = view(index);
+    if(ann == null) {
+      ann = new BdocAnnotation();
+      ann.start = starts[index];
+      ann.end = ends[index];
+      ann.id = ids[index] == NO_ID ? null : ids[index];
+      ann.type = types[typeCodes[index]];
+      Map<String, Object> fm = features == null ? null : features[index];
+      ann.features = fm == null ? new HashMap<>() : fm;
+      storeView(index, ann);
+    } else {
+      recent = ann;
+      recentIndex = index;
+    }
+    return ann;
+  }
+  
+  @Override
+  public BdocAnnotation set(int index, BdocAnnotation ann) {
+    BdocAnnotation old = get(index);
+    if(ann.id != null && ann.id < 0) {
+      throw new IllegalArgumentException("Annotation id must not be negative: "+ann.id);
+    }
+    flushViews();
+    storeColumns(index, ann);
+    storeView(index, ann);
+    return old;
+  }
+  
+  @Override
+  public BdocAnnotation remove(int index) {
+    BdocAnnotation old = get(index);
+    flushViews();
+    int n = size - index - 1;
+    System.arraycopy(starts, index+1, starts, index, n);
+    System.arraycopy(ends, index+1, ends, index, n);
+    System.arraycopy(ids, index+1, ids, index, n);
+    System.arraycopy(typeCodes, index+1, typeCodes, index, n);
+    if(features != null) {
+      System.arraycopy(features, index+1, features, index, n);
+      features[size-1] = null;
+    }
+    if(views != null) {
+      System.arraycopy(views, index+1, views, index, n);
+      views[size-1] = null;
+      for(int i = index; i < size-1; i++) {
+        if(views[i] != null) {
+          views[i].index = i;
+        }
+      }
+    }
+    size--;
+    modCount++;
+    return old;
+  }
+  
+  @Override
+  public void clear() {
+    recent = null;
+    if(features != null) {
+      Arrays.fill(features, 0, size, null);
+    }
+    if(views != null) {
+      Arrays.fill(views, 0, size, null);
+    }
+    size = 0;
+    modCount++;
+  }
+  
+  @Override
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * Start offset of the annotation at the index.
+   * 
+   * @param index index
+   * @return start offset
+   */
+  public int getStart(int index) {
+    checkIndex(index);
+    BdocAnnotation ann = view(index);
+    return ann == null ? starts[index] : ann.start;
+  }
+  
+  /**
+   * End offset of the annotation at the index.
+   * 
+   * @param index index
+   * @return end offset
+   */
+  public int getEnd(int index) {
+    checkIndex(index);
+    BdocAnnotation ann = view(index);
+    return ann == null ? ends[index] : ann.end;
+  }
+  
+  /**
+   * Change the offsets of the annotation at the index.
+   * 
+   * @param index index
+   * @param start new start offset
+   * @param end new end offset
+   */
+  public void setOffsets(int index, int start, int end) {
+    checkIndex(index);
+    starts[index] = start;
+    ends[index] = end;
+    BdocAnnotation ann = view(index);
+    if(ann != null) {
+      ann.start = start;
+      ann.end = end;
+    }
+  }
+  
+  /**
+   * Id of the annotation at the index.
+   * 
+   * @param index index
+   * @return id or null if the annotation does not have an id
+   */
+  public Integer getId(int index) {
+    checkIndex(index);
+    BdocAnnotation ann = view(index);
+    if(ann != null) {
+      return ann.id;
+    }
+    return ids[index] == NO_ID ? null : ids[index];
+  }
+  
+  /**
+   * Type of the annotation at the index.
+   * 
+   * @param index index
+   * @return annotation type
+   */
+  public String getType(int index) {
+    checkIndex(index);
+    BdocAnnotation ann = view(index);
+    return ann == null ? types[typeCodes[index]] : ann.type;
+  }
+  
+  /**
+   * Type code of the annotation at the index.
+   * 
+   * @param index index
+   * @return code of the type in the type dictionary of this list, or -1
+   * if the type has been changed through a view and is not in the 
+   * dictionary yet
+   */
+  public int getTypeCode(int index) {
+    checkIndex(index);
+    BdocAnnotation ann = view(index);
+    if(ann == null) {
+      return typeCodes[index];
+    }
+    Integer code = type2code.get(ann.type);
+    return code == null ? -1 : code;
+  }
+  
+  /**
+   * The annotation type for a type code.
+   * 
+   * @param code type code
+   * @return annotation type
+   */
+  public String getTypeForCode(int code) {
+    if(code < 0 || code >= ntypes) {
+      throw new IndexOutOfBoundsException("Type code: "+code+", number of types: "+ntypes);
+    }
+    return types[code];
+  }
+  
+  /**
+   * Number of different annotation types in the list.
+   * 
+   * @return number of type codes
+   */
+  public int getNumberOfTypes() {
+    return ntypes;
+  }
+  
+  /**
+   * Replace the features of the annotation at the index.
+   * 
+   * @param index index
+   * @param fm the new feature map, if null or empty, no map is stored
+   */
+  public void setFeatures(int index, Map<String, Object> fm) {
+    checkIndex(index);
+    storeFeatures(index, fm);
+    BdocAnnotation ann = view(index);
+    if(ann != null) {
+      ann.features = fm == null ? new HashMap<>() : fm;
+    }
+  }
+  
+  /**
+   * Features of the annotation at the index.
+   * 
+   * @param index index
+   * @return the feature map, an immutable empty map if the annotation has
+   * no features
+   */
+  public Map<String, Object> getFeatures(int index) {
+    checkIndex(index);
+    BdocAnnotation ann = view(index);
+    if(ann != null) {
+      return ann.features;
+    }
+    Map<String, Object> fm = features == null ? null : features[index];
+    return fm == null ? Collections.emptyMap() : fm;
+  }
+  
+}
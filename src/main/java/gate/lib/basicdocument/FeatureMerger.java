@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument;
+
+import gate.FeatureMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merges bdoc/changelog features into the features of an existing GATE
+ * annotation, for the HandleExistingAnns options of GateDocumentUpdater
+ * which keep the annotation.
+ *
+ * Bdoc feature names are strings while GATE feature maps may have keys of
+ * any type, so a bdoc feature matches a GATE feature if the name equals
+ * the string form of the key. Usually all GATE keys are strings already:
+ * then the GATE map is used directly, otherwise a name to key map gets
+ * built in a scratch map which is reused for all annotations. Where the
+ * option allows, the features get copied with a single putAll.
+ * <p>
+ * Instances keep state between calls and must not be shared between
+ * threads.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+class FeatureMerger {
+
+  private final Map<String, Object> name2key = new HashMap<>();
+
+  /**
+   * Merge the features.
+   *
+   * @param gatefm the features of the existing GATE annotation
+   * @param bdocfm the features from the bdoc or changelog
+   * @param option one of REPLACE_FEATURES, UPDATE_FEATURES or ADD_NEW_FEATURES
+   */
+  void merge(FeatureMap gatefm, Map<String, Object> bdocfm,
+          GateDocumentUpdater.HandleExistingAnns option) {
+    switch (option) {
+      case REPLACE_FEATURES:
+        gatefm.clear();
+        gatefm.putAll(bdocfm);
+        break;
+      case UPDATE_FEATURES:
+        gatefm.putAll(bdocfm);
+        break;
+      case ADD_NEW_FEATURES:
+        if (bdocfm.isEmpty()) {
+          break;
+        }
+        if (gatefm.isEmpty()) {
+          gatefm.putAll(bdocfm);
+        } else {
+          addNew(gatefm, bdocfm);
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Not a feature merge option: "+option);
+    }
+  }
+
+  private static boolean allStringKeys(FeatureMap fm) {
+    for (Object key : fm.keySet()) {
+      if (!(key instanceof String)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * ADD_NEW_FEATURES for a non-empty GATE map.
+   * 
+   * The key set of a GATE feature map is a copy, so it only gets looked
+   * at when a bdoc feature is not found directly. Null keys are ignored.
+   */
+  private void addNew(FeatureMap gatefm, Map<String, Object> bdocfm) {
+    // null until the keys have been checked
+    Boolean stringKeys = null;
+    try {
+      for (Map.Entry<String, Object> entry : bdocfm.entrySet()) {
+        if (entry.getKey() != null && gatefm.containsKey(entry.getKey())) {
+          continue;
+        }
+        if (stringKeys == null) {
+          stringKeys = allStringKeys(gatefm);
+          if (!stringKeys) {
+            for (Object key : gatefm.keySet()) {
+              if (key != null) {
+                name2key.put(key.toString(), key);
+              }
+            }
+          }
+        }
+        if (stringKeys || !name2key.containsKey(entry.getKey())) {
+          gatefm.put(entry.getKey(), entry.getValue());
+        }
+      }
+    } finally {
+      name2key.clear();
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.creole.ResourceInstantiationException;
+import gate.util.GateRuntimeException;
+import gate.util.InvalidOffsetException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Create a new GATE document from a BdocDocument.
+ *
+ * This gives the same document as GateDocumentUpdater with the default
+ * options, but makes use of the fact that the new document does not have
+ * any annotations yet: the offsets of each set get collected and converted
+ * into arrays first, then the annotations get added in start offset order
+ * with their bdoc ids, without checking if an annotation with the id 
+ * already exists, and without any of the options for existing 
+ * annotations. If an annotation set contains the same id more than once,
+ * or an annotation without an id, the whole document gets created with 
+ * GateDocumentUpdater instead.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class GateDocumentLoader {
+
+  /**
+   * Create the GATE document.
+   *
+   * @param bdoc the BdocDocument
+   * @return a new GATE document with the text, features and annotations
+   */
+  public Document load(BdocDocument bdoc) {
+    if (bdoc.annotation_sets != null) {
+      for (BdocAnnotationSet set : bdoc.annotation_sets.values()) {
+        if (!hasUniqueIds(set.annotations)) {
+          return new GateDocumentUpdater(bdoc.text).fromBdoc(bdoc);
+        }
+      }
+    }
+    Document doc;
+    try {
+      doc = Factory.newDocument(bdoc.text);
+    } catch (ResourceInstantiationException ex) {
+      throw new GateRuntimeException("Could not create GATE document from the given text", ex);
+    }
+    if (bdoc.features != null) {
+      doc.getFeatures().putAll(bdoc.features);
+    }
+    if (bdoc.annotation_sets != null) {
+      OffsetMapper om = null;
+      if ("p".equals(bdoc.offset_type)) {
+        om = new OffsetMapper(bdoc.text, OffsetMapper.Mode.LAZY);
+      }
+      for (BdocAnnotationSet set : bdoc.annotation_sets.values()) {
+        AnnotationSet gateset = set.name.isEmpty()
+                ? doc.getAnnotations()
+                : doc.getAnnotations(set.name);
+        addAnnotations(gateset, set.annotations, om);
+      }
+    }
+    return doc;
+  }
+
+  private static boolean hasUniqueIds(List<BdocAnnotation> anns) {
+    int[] ids = new int[anns.size()];
+    for (int i = 0; i < ids.length; i++) {
+      Integer id = anns instanceof ColumnarAnnotationList
+              ? ((ColumnarAnnotationList) anns).getId(i)
+              : anns.get(i).id;
+      if (id == null) {
+        return false;
+      }
+      ids[i] = id;
+    }
+    Arrays.sort(ids);
+    for (int i = 1; i < ids.length; i++) {
+      if (ids[i] == ids[i - 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void addAnnotations(AnnotationSet gateset, List<BdocAnnotation> anns, OffsetMapper om) {
+    int n = anns.size();
+    ColumnarAnnotationList columns = anns instanceof ColumnarAnnotationList
+            ? (ColumnarAnnotationList) anns : null;
+    int[] starts = new int[n];
+    int[] ends = new int[n];
+    for (int i = 0; i < n; i++) {
+      if (columns != null) {
+        starts[i] = columns.getStart(i);
+        ends[i] = columns.getEnd(i);
+      } else {
+        BdocAnnotation ann = anns.get(i);
+        starts[i] = ann.start;
+        ends[i] = ann.end;
+      }
+    }
+    if (om != null) {
+      om.convertToJava(starts, ends);
+    }
+    int[] order = offsetOrder(starts);
+    for (int k = 0; k < n; k++) {
+      int i = order == null ? k : order[k];
+      Integer id;
+      String type;
+      Map<String, Object> features;
+      if (columns != null) {
+        id = columns.getId(i);
+        type = columns.getType(i);
+        features = columns.getFeatures(i);
+      } else {
+        BdocAnnotation ann = anns.get(i);
+        id = ann.id;
+        type = ann.type;
+        features = ann.features;
+      }
+      try {
+        gateset.add(id, (long) starts[i], (long) ends[i], type, toFeatureMap(features));
+      } catch (InvalidOffsetException ex) {
+        throw new RuntimeException("Cannot add annotation", ex);
+      }
+    }
+  }
+
+  private static FeatureMap toFeatureMap(Map<String, Object> features) {
+    if (features == null) {
+      return Factory.newFeatureMap();
+    }
+    return gate.Utils.toFeatureMap(features);
+  }
+
+  /**
+   * The indices of the annotations sorted by start offset, annotations
+   * with the same start offset stay in their order.
+   * 
+   * @return the indices or null if the annotations are already sorted
+   */
+  private static int[] offsetOrder(int[] starts) {
+    int n = starts.length;
+    int i = 1;
+    while (i < n && starts[i] >= starts[i - 1]) {
+      i++;
+    }
+    if (i >= n) {
+      return null;
+    }
+    // start offset and index packed into a long
+    long[] keys = new long[n];
+    for (i = 0; i < n; i++) {
+      keys[i] = (long) starts[i] << 32 | i;
+    }
+    Arrays.sort(keys);
+    int[] order = new int[n];
+    for (i = 0; i < n; i++) {
+      order[i] = (int) keys[i];
+    }
+    return order;
+  }
+}
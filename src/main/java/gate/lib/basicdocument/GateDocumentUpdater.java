@@ -20,16 +20,27 @@
 
 package gate.lib.basicdocument;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.jr.ob.JSON;
 import gate.Annotation;
 import gate.AnnotationSet;
 import gate.Document;
 import gate.Factory;
-import gate.FeatureMap;
+import gate.corpora.DocumentImpl;
 import gate.creole.ResourceInstantiationException;
+import gate.lib.basicdocument.docformats.BdocJsonCodec;
 import gate.util.GateRuntimeException;
 import gate.util.InvalidOffsetException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -108,11 +119,22 @@ public class GateDocumentUpdater {
    * OffsetMapper for converting offsets to Java.
    * If we update from a BdocDocument of ChangeLog which does not have Java
    * offsets, we first create the offset mapper and store it here before any
-   * annotations get copied. The offset mapper is only built whenever the 
-   * first annotation actually needs to get converted.
+   * annotations get copied. Unless set with offsetMapper(OffsetMapper), 
+   * the offset mapper is only built whenever the first annotation actually
+   * needs to get converted, using the shared OffsetMapperCache.
    */
   private OffsetMapper offsetMapper = null;
 
+  /**
+   * Merges features into existing annotations, reuses its scratch map.
+   */
+  private final FeatureMerger featureMerger = new FeatureMerger();
+  
+  /**
+   * If true, changelogs get applied in batches, see batched(boolean).
+   */
+  private boolean batched = false;
+
   /**
    * Create a document updater with the default options. Initially, all
    * information from the update source except text will be used to update the
@@ -203,6 +225,20 @@ public class GateDocumentUpdater {
     return this;
   }
   
+  /**
+   * Use the given offset mapper for converting python offsets.
+   * 
+   * The mapper must have been created for the text of the document. By 
+   * default the mapper is taken from the shared OffsetMapperCache.
+   * 
+   * @param om the offset mapper to use
+   * @return modified GateDocumentUpdater
+   */
+  public GateDocumentUpdater offsetMapper(OffsetMapper om) {
+    offsetMapper = om;
+    return this;
+  }
+  
   /**
    * Specify how new annotations should be
    * handled.Default is ADD_WITH_NEW_ID.
@@ -219,6 +255,26 @@ public class GateDocumentUpdater {
   }
   
 
+  /**
+   * Apply changelogs in batches.
+   * 
+   * With this option, fromChangeLog looks up each annotation set only once
+   * and processes runs of consecutive "annotation:add" entries for the 
+   * same set together: the offsets of the run get converted in bulk and, if
+   * new annotations keep their ids, the ids of the whole run get checked 
+   * at once. If the ids are increasing and all are above the highest id
+   * used in the document, the annotations get added without looking up 
+   * each id, otherwise the run gets applied entry by entry. The result is 
+   * the same as without batching. Default is false.
+   * 
+   * @param flag true to apply changelogs in batches
+   * @return modified GateDocumentUpdater
+   */
+  public GateDocumentUpdater batched(boolean flag) {
+    batched = flag;
+    return this;
+  }
+
   /**
    * Add an annotation to the GATE annotation set.
    * This uses the information from a changelog or a bdoc document to
@@ -243,7 +299,7 @@ public class GateDocumentUpdater {
     // if necessary.
     Map<String, Object> bdoc_fm = 
             (bdocfeatures == null)
-            ? new HashMap<>()
+            ? Collections.emptyMap()
             : bdocfeatures;
     // try to get the annotation with the annotation id 
     Annotation gateann = gateset.get(bdocannid);
@@ -279,10 +335,8 @@ public class GateDocumentUpdater {
     // something with it, depending on the HandleExistingAnns flag
     } else if(gateann != null) {  // make null pointer checker happy
       // an annotation with this id already exists, choose what to do
-      // first get the existing featuremap and map string feature names
-      // to the original keys. in theory this could yield duplicates but
-      // we do not care about this for now, those features really should all
-      // have string names! null keys are ignored
+      // the feature options are handled by the FeatureMerger, which matches
+      // the bdoc feature names with the string form of the GATE keys
       
       // NOTE: the offsets we get from the bdoc/chlog should correspond to
       // the offsets of the existing annotation!
@@ -299,25 +353,11 @@ public class GateDocumentUpdater {
         );
       }
       
-      
-      FeatureMap gatefm = gateann.getFeatures();
-      Map<String, Object> name2key = new HashMap<>();
-      for (Object key : gatefm.keySet()) {
-        if (key != null) {
-          name2key.put(
-                  (key instanceof String)
-                          ? (String) key : key.toString(), key);
-        }
-      }
-      // Subsequently, when we need to figure out if a feature is in the 
-      // featuremap, use the name2key mapping
       switch (handleExistingAnns) {
         case ADD_NEW_FEATURES:
-          for (Map.Entry<String, Object> entry : bdoc_fm.entrySet()) {
-            if (!(name2key.containsKey(entry.getKey()) && gatefm.containsKey(name2key.get(entry.getKey())))) {
-              gatefm.put(entry.getKey(), entry.getValue());
-            }
-          }
+        case REPLACE_FEATURES:
+        case UPDATE_FEATURES:
+          featureMerger.merge(gateann.getFeatures(), bdoc_fm, handleExistingAnns);
           break;
         // already gets handled above!
         // case ADD_WITH_NEW_ID:            
@@ -332,18 +372,6 @@ public class GateDocumentUpdater {
             throw new RuntimeException("Cannot add annotation", ex);
           }
           break;
-        case REPLACE_FEATURES:
-          gatefm.clear();
-          for (Map.Entry<String, Object> entry : bdoc_fm.entrySet()) {
-            gatefm.put(entry.getKey(), entry.getValue());
-          }
-          break;
-        case UPDATE_FEATURES:
-          bdoc_fm.keySet().forEach((fname) -> {
-            gatefm.put(fname, bdoc_fm.get(fname));
-        });
-          break;
-
         case IGNORE:
           break;
         default:
@@ -353,13 +381,24 @@ public class GateDocumentUpdater {
 
   }
 
-  private void addAnnotationSet(BdocAnnotationSet annset, String offsetType) {
-    String setname = annset.name;
-    AnnotationSet gateset;
+  private AnnotationSet getGateSet(String setname) {
     if (setname.equals("")) {
-      gateset = gateDocument.getAnnotations();
+      return gateDocument.getAnnotations();
     } else {
-      gateset = gateDocument.getAnnotations(setname);
+      return gateDocument.getAnnotations(setname);
+    }
+  }
+
+  private void addAnnotationSet(BdocAnnotationSet annset, String offsetType) {
+    AnnotationSet gateset = getGateSet(annset.name);
+    if (annset.annotations instanceof ColumnarAnnotationList) {
+      ColumnarAnnotationList anns = (ColumnarAnnotationList)annset.annotations;
+      for (int i = 0; i < anns.size(); i++) {
+        addAnnotation(gateset,
+              anns.getId(i), anns.getStart(i), anns.getEnd(i), anns.getType(i),
+              anns.getFeatures(i), offsetType);
+      }
+      return;
     }
     annset.annotations.forEach((bdocann) -> {
       addAnnotation(gateset,
@@ -401,6 +440,183 @@ public class GateDocumentUpdater {
     return gateDocument;
   }
 
+  /**
+   * Carry out the update of the GATE document directly from bdoc JSON.
+   * 
+   * This parses the JSON representation of a BdocDocument as produced by
+   * SimpleJson and adds each annotation to the GATE document as soon as it
+   * has been parsed, without creating a BdocDocument first, so the memory
+   * needed does not depend on the number of annotations. All the options
+   * work the same way as for fromBdoc(bdoc).
+   * <p>
+   * If the offset type of the bdoc is python offsets, the "offset_type" 
+   * field must be known before the annotations can get added. BdocJsonCodec
+   * and BdocDocumentBuilder write it before the "annotation_sets" field. 
+   * For JSON from elsewhere where it only comes after the annotations and 
+   * the text contains characters outside the BMP, the annotations get 
+   * collected until the offset type is known. 
+   * 
+   * @param instream the stream to read the JSON from, gets closed
+   * @return the updated GATE document
+   */
+  public Document fromJson(InputStream instream) {
+    try (JsonParser parser = JSON.std.getStreamingFactory().createParser(instream)) {
+      fromJson(parser);
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not read bdoc JSON from input stream", ex);
+    }
+    return gateDocument;
+  }
+  
+  /**
+   * Carry out the update of the GATE document directly from bdoc JSON.
+   * 
+   * See fromJson(InputStream).
+   * 
+   * @param reader the reader to read the JSON from, gets closed
+   * @return the updated GATE document
+   */
+  public Document fromJson(Reader reader) {
+    try (JsonParser parser = JSON.std.getStreamingFactory().createParser(reader)) {
+      fromJson(parser);
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not read bdoc JSON from reader", ex);
+    }
+    return gateDocument;
+  }
+  
+  private void fromJson(JsonParser parser) throws IOException {
+    // the annotations end up in the GATE document, so intern what gets
+    // repeated a lot
+    BdocJsonCodec codec = BdocJsonCodec.getDefault().withSymbolTable(new SymbolTable());
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new GateRuntimeException("Bdoc JSON must be an object");
+    }
+    String offsetType = null;
+    // annotations we could not add yet because the offset type is not known
+    List<BdocAnnotationSet> pending = new ArrayList<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "offset_type":
+          offsetType = parser.getText();
+          for (BdocAnnotationSet annset : pending) {
+            addAnnotationSet(annset, offsetType);
+          }
+          pending.clear();
+          break;
+        case "features":
+          if (parser.currentToken() == JsonToken.START_OBJECT) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> features = (Map<String, Object>)codec.readValue(parser);
+            if (featurenames == null) {
+              gateDocument.getFeatures().putAll(features);
+            } else {
+              for (String fname : featurenames) {
+                gateDocument.getFeatures().put(fname, features.get(fname));
+              }
+            }
+          } else {
+            parser.skipChildren();
+          }
+          break;
+        case "annotation_sets":
+          if (parser.currentToken() == JsonToken.START_OBJECT) {
+            // we can add right away if the offset type is known or if
+            // there is no difference between java and python offsets.
+            String useType = offsetType;
+            if (useType == null && getOffsetMapper().isIdentity()) {
+              useType = "j";
+            }
+            readAnnotationSets(parser, useType, pending, codec);
+          } else {
+            parser.skipChildren();
+          }
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    // no offset type in the JSON: the default for BdocDocument is java 
+    for (BdocAnnotationSet annset : pending) {
+      addAnnotationSet(annset, "j");
+    }
+  }
+  
+  private void readAnnotationSets(JsonParser parser, String offsetType, 
+          List<BdocAnnotationSet> pending, BdocJsonCodec codec) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String setname = parser.getCurrentName();
+      parser.nextToken();
+      if ((annsetnames != null && !annsetnames.contains(setname)) ||
+          parser.currentToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+      BdocAnnotationSet pendingset = null;
+      if (offsetType == null) {
+        pendingset = new BdocAnnotationSet();
+        pendingset.name = setname;
+        pendingset.annotations = new ArrayList<>();
+        pending.add(pendingset);
+      }
+      AnnotationSet gateset = getGateSet(setname);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        if (!"annotations".equals(field) || 
+            parser.currentToken() != JsonToken.START_ARRAY) {
+          parser.skipChildren();
+          continue;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          BdocAnnotation ann = readAnnotation(parser, codec);
+          if (pendingset != null) {
+            pendingset.annotations.add(ann);
+          } else {
+            addAnnotation(gateset, ann.id, ann.start, ann.end, ann.type, 
+                    ann.features, offsetType);
+          }
+        }
+      }
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  private BdocAnnotation readAnnotation(JsonParser parser, BdocJsonCodec codec) 
+          throws IOException {
+    BdocAnnotation ann = new BdocAnnotation();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "start":
+          ann.start = parser.getIntValue();
+          break;
+        case "end":
+          ann.end = parser.getIntValue();
+          break;
+        case "id":
+          ann.id = parser.getIntValue();
+          break;
+        case "type":
+          ann.type = (String)codec.readValue(parser);
+          break;
+        case "features":
+          if (parser.currentToken() == JsonToken.START_OBJECT) {
+            ann.features = (Map<String, Object>)codec.readValue(parser);
+          } else {
+            parser.skipChildren();
+          }
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return ann;
+  }
+
   /**
    * Actually carry out the update of the GATE document from the Bdoc ChangeLog.
    * 
@@ -410,105 +626,313 @@ public class GateDocumentUpdater {
    * @return returns the updated GATE document 
    */
   public Document fromChangeLog(ChangeLog chlog) {
-    for (Map<String, Object> chg : chlog.changes) {
-      // features:clear
-      // feature:set, feature, value
-      // feature:remove, feature
+    return fromChangeLog(TypedChangeLog.fromChangeLog(chlog));
+  }
 
-      // features:clear, set, id
-      // feature:set, set, id, feature, value
-      // feature:remove, set, id, feature
-      // annotation:add, set, start, end, type, features, id
-      // annotation:remove, set, id
-      // annotation:clear, set
-      String cmd = (String) chg.get("command");
-      String setname = (String) chg.get("set");
+  /**
+   * Actually carry out the update of the GATE document from a typed ChangeLog.
+   * 
+   * This dispatches on the opcode of each entry and only falls back to the
+   * map representation for entries of type OTHER.
+   * 
+   * @param chlog the changelog to use for the updates
+   * @return returns the updated GATE document 
+   */
+  public Document fromChangeLog(TypedChangeLog chlog) {
+    // with batching, the annotation sets by set code of the changelog
+    AnnotationSet[] sets = batched ? new AnnotationSet[chlog.getSetCount()] : null;
+    for (int i = 0; i < chlog.size(); i++) {
+      TypedChangeLog.Op op = chlog.getOp(i);
+      if (op == TypedChangeLog.Op.OTHER) {
+        if (sets != null) {
+          // this may remove sets
+          Arrays.fill(sets, null);
+        }
+        fromChange(chlog.getMap(i), chlog.offset_type);
+        continue;
+      }
+      String setname = chlog.getSet(i);
       AnnotationSet annset = null;
       if (setname != null) {
-        annset
-                = setname.equals("")
-                ? gateDocument.getAnnotations()
-                : gateDocument.getAnnotations(setname);
+        if (sets == null) {
+          annset = getGateSet(setname);
+        } else {
+          int code = chlog.getSetCode(i);
+          if (sets[code] == null) {
+            sets[code] = getGateSet(setname);
+          }
+          annset = sets[code];
+        }
+      }
+      int id = chlog.getId(i);
+      if (sets != null && op == TypedChangeLog.Op.ANNOTATION_ADD) {
+        i = addAnnotationRun(annset, chlog, i) - 1;
+        continue;
       }
-      Integer id = (Integer) chg.get("id");
-      String feature = (String) chg.get("feature");
-      Object value = chg.get("value");
-      switch (cmd) {
-        case "features:clear":
+      switch (op) {
+        case FEATURES_CLEAR:
           if (setname == null) {
             gateDocument.getFeatures().clear();
+          } else if (id != TypedChangeLog.NONE) {
+            getAnnotation(annset, id).getFeatures().clear();
           } else {
-            if (setname.equals("")) {
-              gateDocument.getAnnotations().clear();
-            } else {
-              gateDocument.getAnnotations(setname).clear();
-            }
+            annset.clear();
           }
           break;
-        case "feature:set":
+        case FEATURE_SET:
           if (setname == null) {
-            gateDocument.getFeatures().put(feature, value);
+            gateDocument.getFeatures().put(chlog.getFeature(i), chlog.getValue(i));
           } else {
-            if (annset != null) {
-              Annotation ann = annset.get(id);
-              if (ann == null) {
-                throw new RuntimeException("Annotation does not exist with id " + id);
-              } else {
-                ann.getFeatures().put(feature, value);
-              }
-            }
+            getAnnotation(annset, id).getFeatures().put(chlog.getFeature(i), chlog.getValue(i));
           }
           break;
-        case "feature:remove":
+        case FEATURE_REMOVE:
           if (setname == null) {
-            gateDocument.getFeatures().remove(feature);
+            gateDocument.getFeatures().remove(chlog.getFeature(i));
           } else {
-            if (annset != null) {
-              Annotation ann = annset.get(id);
-              if (ann == null) {
-                throw new RuntimeException("Annotation does not exist with id " + id);
-              } else {
-                ann.getFeatures().remove(feature);
-              }
-            }
+            getAnnotation(annset, id).getFeatures().remove(chlog.getFeature(i));
           }
           break;
-        case "annotation:add":
-          int start = (Integer) chg.get("start");
-          int end = (Integer) chg.get("end");
-          String type = (String) chg.get("type");
-          @SuppressWarnings("unchecked")
-          Map<String, Object> features = (Map<String, Object>) chg.get("features");
-          addAnnotation(annset, id, start, end, type, features, chlog.offset_type);
+        case ANNOTATION_ADD:
+          addAnnotation(annset, id, chlog.getStart(i), chlog.getEnd(i), 
+                  chlog.getType(i), chlog.getFeatures(i), chlog.offset_type);
           break;
-        case "annotation:remove":
-          if (annset != null) {
-            Annotation gateann = annset.get(id);
-            annset.remove(gateann);
-          }
+        case ANNOTATION_REMOVE:
+          annset.remove(annset.get(id));
           break;
-        case "annotations:clear":
-          if (annset != null) {
-            annset.clear();
-          }
+        case ANNOTATIONS_ADD_BULK:
+          addAnnotationsBulk(annset, chlog.getMap(i), chlog.offset_type);
           break;
-        case "annotations:remove":
-          if (setname != null) {
-            if (setname.isEmpty() && annset != null) {
-              annset.clear();
-            } else {
-              gateDocument.removeAnnotationSet(setname);
+        case ANNOTATIONS_CLEAR:
+          annset.clear();
+          break;
+        case ANNOTATIONS_REMOVE:
+          if (setname.isEmpty()) {
+            annset.clear();
+          } else {
+            gateDocument.removeAnnotationSet(setname);
+            if (sets != null) {
+              sets[chlog.getSetCode(i)] = null;
             }
           }
           break;
         default:
-          throw new GateRuntimeException("Invalid action in changelog: "+cmd);
+          throw new GateRuntimeException("Invalid action in changelog: "+op);
       }
-
     }
     return gateDocument;
   }
   
+  /**
+   * Apply the run of "annotation:add" entries for the same set which 
+   * starts at the given index.
+   * 
+   * @param annset the annotation set of the run
+   * @param chlog the changelog
+   * @param from index of the first entry of the run
+   * @return index after the last entry of the run
+   */
+  private int addAnnotationRun(AnnotationSet annset, TypedChangeLog chlog, int from) {
+    int code = chlog.getSetCode(from);
+    int to = from + 1;
+    while (to < chlog.size() && chlog.getOp(to) == TypedChangeLog.Op.ANNOTATION_ADD &&
+           chlog.getSetCode(to) == code) {
+      to++;
+    }
+    int n = to - from;
+    int[] starts = new int[n];
+    int[] ends = new int[n];
+    // the ids are new if they are increasing and not below the next id 
+    // the document would use: adding with an id moves the next id past it
+    boolean newIds = handleNewAnns == HandleNewAnns.ADD_WITH_BDOC_ID &&
+            gateDocument instanceof DocumentImpl &&
+            chlog.getId(from) >= ((DocumentImpl) gateDocument).peakAtNextAnnotationId();
+    for (int k = 0; k < n; k++) {
+      starts[k] = chlog.getStart(from + k);
+      ends[k] = chlog.getEnd(from + k);
+      if (k > 0 && chlog.getId(from + k) <= chlog.getId(from + k - 1)) {
+        newIds = false;
+      }
+    }
+    if ("p".equals(chlog.offset_type)) {
+      getOffsetMapper().convertToJava(starts, ends);
+    }
+    for (int k = 0; k < n; k++) {
+      int i = from + k;
+      if (newIds) {
+        Map<String, Object> features = chlog.getFeatures(i);
+        try {
+          annset.add(chlog.getId(i), (long) starts[k], (long) ends[k], chlog.getType(i),
+                  gate.Utils.toFeatureMap(features == null ? new HashMap<>() : features));
+        } catch (InvalidOffsetException ex) {
+          throw new RuntimeException("Cannot add annotation", ex);
+        }
+      } else {
+        addAnnotation(annset, chlog.getId(i), starts[k], ends[k], 
+                chlog.getType(i), chlog.getFeatures(i), "j");
+      }
+    }
+    return to;
+  }
+  
+  private static Annotation getAnnotation(AnnotationSet annset, int id) {
+    Annotation ann = annset.get(id);
+    if (ann == null) {
+      throw new RuntimeException("Annotation does not exist with id " + id);
+    }
+    return ann;
+  }
+
+  /**
+   * Carry out a single change in the map representation.
+   * 
+   * @param chg the change
+   * @param offsetType the offset type of the changelog
+   */
+  private void fromChange(Map<String, Object> chg, String offsetType) {
+    // features:clear
+    // feature:set, feature, value
+    // feature:remove, feature
+
+    // features:clear, set, id (without id: clears the set, as before)
+    // feature:set, set, id, feature, value
+    // feature:remove, set, id, feature
+    // annotation:add, set, start, end, type, features, id
+    // annotation:remove, set, id
+    // annotation:clear, set
+    String cmd = (String) chg.get("command");
+    String setname = (String) chg.get("set");
+    AnnotationSet annset = null;
+    if (setname != null) {
+      annset
+              = setname.equals("")
+              ? gateDocument.getAnnotations()
+              : gateDocument.getAnnotations(setname);
+    }
+    Integer id = (Integer) chg.get("id");
+    String feature = (String) chg.get("feature");
+    Object value = chg.get("value");
+    switch (cmd) {
+      case "features:clear":
+        if (setname == null) {
+          gateDocument.getFeatures().clear();
+        } else if (id != null) {
+          Annotation ann = annset.get(id);
+          if (ann == null) {
+            throw new RuntimeException("Annotation does not exist with id " + id);
+          }
+          ann.getFeatures().clear();
+        } else {
+          if (setname.equals("")) {
+            gateDocument.getAnnotations().clear();
+          } else {
+            gateDocument.getAnnotations(setname).clear();
+          }
+        }
+        break;
+      case "feature:set":
+        if (setname == null) {
+          gateDocument.getFeatures().put(feature, value);
+        } else {
+          if (annset != null) {
+            Annotation ann = annset.get(id);
+            if (ann == null) {
+              throw new RuntimeException("Annotation does not exist with id " + id);
+            } else {
+              ann.getFeatures().put(feature, value);
+            }
+          }
+        }
+        break;
+      case "feature:remove":
+        if (setname == null) {
+          gateDocument.getFeatures().remove(feature);
+        } else {
+          if (annset != null) {
+            Annotation ann = annset.get(id);
+            if (ann == null) {
+              throw new RuntimeException("Annotation does not exist with id " + id);
+            } else {
+              ann.getFeatures().remove(feature);
+            }
+          }
+        }
+        break;
+      case "annotation:add":
+        int start = (Integer) chg.get("start");
+        int end = (Integer) chg.get("end");
+        String type = (String) chg.get("type");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> features = (Map<String, Object>) chg.get("features");
+        addAnnotation(annset, id, start, end, type, features, offsetType);
+        break;
+      case "annotations:add_bulk":
+        ChangeLog.checkBulk(chg);
+        addAnnotationsBulk(annset, chg, offsetType);
+        break;
+      case "annotation:remove":
+        if (annset != null) {
+          Annotation gateann = annset.get(id);
+          annset.remove(gateann);
+        }
+        break;
+      case "annotations:clear":
+        if (annset != null) {
+          annset.clear();
+        }
+        break;
+      case "annotations:remove":
+        if (setname != null) {
+          if (setname.isEmpty() && annset != null) {
+            annset.clear();
+          } else {
+            gateDocument.removeAnnotationSet(setname);
+          }
+        }
+        break;
+      default:
+        throw new GateRuntimeException("Invalid action in changelog: "+cmd);
+    }
+  }
+  
+  /**
+   * Add all annotations of an "annotations:add_bulk" entry to the set.
+   * 
+   * The offsets get converted in bulk, then each annotation gets added 
+   * with the same options as for "annotation:add".
+   * 
+   * @param annset the annotation set of the entry
+   * @param chg the entry, already checked
+   * @param offsetType the offset type of the changelog
+   */
+  @SuppressWarnings("unchecked")
+  private void addAnnotationsBulk(AnnotationSet annset, Map<String, Object> chg, String offsetType) {
+    int[] ids = ChangeLog.bulkInts(chg, "ids");
+    int[] starts = ChangeLog.bulkInts(chg, "starts");
+    int[] ends = ChangeLog.bulkInts(chg, "ends");
+    int[] codes = ChangeLog.bulkInts(chg, "type_codes");
+    List<String> types = (List<String>) chg.get("types");
+    List<Map<String, Object>> features = (List<Map<String, Object>>) chg.get("features");
+    if ("p".equals(offsetType)) {
+      starts = starts.clone();
+      ends = ends.clone();
+      getOffsetMapper().convertToJava(starts, ends);
+    }
+    for (int i = 0; i < ids.length; i++) {
+      addAnnotation(annset, ids[i], starts[i], ends[i], 
+              types.get(codes == null ? 0 : codes[i]),
+              features == null ? null : features.get(i), "j");
+    }
+  }
+  
+  private OffsetMapper getOffsetMapper() {
+    if (offsetMapper == null) {
+      offsetMapper = OffsetMapperCache.getDefault().get(
+              gateDocument.getContent().toString());
+    }
+    return offsetMapper;
+  }
+  
   /**
    * This converts the given offset from python to java, if necessary.
    * If the offsetType is python, then the offset mapper is used to convert
@@ -521,10 +945,7 @@ public class GateDocumentUpdater {
    */
   private long convertOffset(int offset, String offsetType) {
     if("p".equals(offsetType)) {
-      if(offsetMapper == null) {
-        offsetMapper = new OffsetMapper(gateDocument.getContent().toString());
-      }
-      return (long)offsetMapper.convertToJava(offset);
+      return (long)getOffsetMapper().convertToJava(offset);
     } else {
       return (long)offset;
     }
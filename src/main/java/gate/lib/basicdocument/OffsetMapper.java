@@ -22,7 +22,11 @@ package gate.lib.basicdocument;
 
 import gate.util.GateRuntimeException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * Simple class to map offsets between UTF16 and character sequences.
@@ -31,59 +35,362 @@ import java.util.List;
  * an offset mapping which can be used to map any offset between the Jav
  * representation of the string and a Unicode character sequence 
  * representation of the String. 
+ * <p>
+ * The mapper can either build full mapping tables with one entry per 
+ * UTF16 code unit/code point (mode TABLES) or just remember the 
+ * positions of the surrogate pairs in the text (mode SPARSE). In sparse
+ * mode, conversion is the identity for texts without surrogate pairs and 
+ * a binary search over the surrogate pair positions otherwise. 
+ * <p>
+ * In mode LAZY, the surrogate pair positions are only collected as far as 
+ * needed for the largest offset converted so far, so converting offsets
+ * which are all near the start of a long text never scans the whole text. 
+ * A lazy mapper keeps a reference to the text and can be used from 
+ * several threads. 
+ * <p>
+ * For very large texts, a sparse mapper can be created by scanning 
+ * chunks of the text in parallel on an executor supplied by the caller.
  * 
  * @author Johann Petrak johann.petrak@gmail.com
  */
 public class OffsetMapper {
+  
+  /**
+   * How the offset mapping is represented internally.
+   */
+  public static enum Mode {
+    /**
+     * Full mapping tables, one entry per offset. 
+     */
+    TABLES,
+    /**
+     * Only the java offsets of the surrogate pairs, sorted.
+     */
+    SPARSE,
+    /**
+     * Like SPARSE, but only scan the text up to the largest offset requested.
+     */
+    LAZY,
+  }
+  
+  private Mode mode;
+  
+  // only used in mode TABLES
   private int[] java2python;
   private int[] python2java;
+  
+  // only used in modes SPARSE and LAZY: the java offsets of the high 
+  // surrogate of each surrogate pair, in increasing order, and the number 
+  // of valid entries in that array. 
+  private int[] surrogates;
+  private int nSurrogates;
+  // length of the text in UTF16 code units
+  private int javaLength;
+  // the java offset up to which all surrogate pairs are known, this is
+  // never the offset of a low surrogate of a pair
+  private int scannedTo;
+  // only used in mode LAZY until the whole text has been scanned
+  private String text;
+  
   /**
    * Disallow no-argument constructor.
    */
   private OffsetMapper() {}
   private void cache(String str) {
-    List<Integer> java2python_list = new ArrayList<Integer>();
-    List<Integer> python2java_list = new ArrayList<Integer>();
-    
+    // Both tables are filled in a single scan. The java2python table always
+    // has one entry per UTF16 code unit plus one for the end offset, the
+    // python2java table can be shorter if there are surrogate pairs, so it
+    // gets allocated with the maximum size and trimmed at the end if needed.
+    int len = str.length();
+    int[] j2p = new int[len+1];
+    int[] p2j = new int[len+1];
     int off_p = 0;  // in this we keep track of the corresponding python off
-    for (int i=0; i<str.length(); i++) {
-      char ch = str.charAt(i);      
-      java2python_list.add(off_p);       
-      if(Character.isHighSurrogate(ch)) {
-        // first of the two, we do not increment off_p after this one
-        // however if we get the first one, we add the current java offset
-        // to the python2java table
-        python2java_list.add(i);
-      } else if(Character.isLowSurrogate(ch)) {
-        off_p += 1;
-        // do not add to python2java
-      } else {
-        off_p += 1;
-        python2java_list.add(i);
+    for (int i=0; i<len; i++) {
+      j2p[i] = off_p;
+      p2j[off_p] = i;
+      if(i+1 < len && Character.isHighSurrogate(str.charAt(i)) && 
+         Character.isLowSurrogate(str.charAt(i+1))) {
+        // the low surrogate maps to the same python offset as the high one
+        // and does not get its own python offset
+        i++;
+        j2p[i] = off_p;
       }
+      off_p += 1;
     }
     // we also need to be able to convert an end offset for the last position 
     // in the document, which is one beyond the actual document content.
-    // For this we add the previous offset plus one to the end of both lists
-    java2python_list.add(java2python_list.get(java2python_list.size()-1)+1);
-    python2java_list.add(python2java_list.get(python2java_list.size()-1)+1);
-    // System.err.println("DEBUG: j2p:"+java2python_list+" / len="+java2python_list.size());
-    // System.err.println("DEBUG: p2j:"+python2java_list+" / len="+python2java_list.size());
-    java2python = 
-            java2python_list.parallelStream().
-                    mapToInt(Integer::intValue).toArray();
-    python2java = 
-            python2java_list.parallelStream().
-                    mapToInt(Integer::intValue).toArray();
+    j2p[len] = off_p;
+    p2j[off_p] = len;
+    java2python = j2p;
+    python2java = (off_p == len) ? p2j : Arrays.copyOf(p2j, off_p+1);
+  }
+  
+  /**
+   * Collect the surrogate pairs up to at least the given java offset.
+   * 
+   * @param target java offset
+   */
+  private void scanTo(int target) {
+    String str = text;
+    int len = javaLength;
+    int[] found = surrogates;
+    int n = nSurrogates;
+    int i = scannedTo;
+    int end = Math.min(target, len);
+    while (i < end) {
+      if(i+1 < len && Character.isHighSurrogate(str.charAt(i)) && 
+         Character.isLowSurrogate(str.charAt(i+1))) {
+        if(n == found.length) {
+          found = Arrays.copyOf(found, n*2);
+        }
+        found[n++] = i;
+        i += 2;
+      } else {
+        i++;
+      }
+    }
+    surrogates = found;
+    nSurrogates = n;
+    scannedTo = i;
+    if(scannedTo >= len) {
+      // no need to keep the text any longer
+      text = null;
+    }
+  }
+  
+  /**
+   * Make sure all surrogate pairs before the java offset are known.
+   * 
+   * @param offset java offset
+   */
+  private void ensureJava(int offset) {
+    if(offset > scannedTo) {
+      scanTo(offset);
+    }
+  }
+  
+  /**
+   * Make sure all surrogate pairs before the python offset are known.
+   * 
+   * @param offset python offset
+   */
+  private void ensurePython(int offset) {
+    // the python offset of scannedTo is scannedTo - nSurrogates and 
+    // increases by at least one for every step of scanTo. 
+    while(scannedTo < javaLength && scannedTo - nSurrogates < offset) {
+      scanTo(scannedTo + (offset - (scannedTo - nSurrogates)));
+    }
   }
   
   /**
    * Create the offset mappings for the given string and cache them. 
    * 
+   * This creates the full mapping tables (mode TABLES).
+   * 
    * @param string the string to use
    */
   public OffsetMapper(String string) {
-    cache(string);
+    this(string, Mode.TABLES);
+  }
+  
+  /**
+   * Create the offset mappings for the given string using the given mode.
+   * 
+   * @param string the string to use
+   * @param mode how to represent the mapping 
+   */
+  public OffsetMapper(String string, Mode mode) {
+    this.mode = mode;
+    if(mode == Mode.TABLES) {
+      cache(string);
+    } else {
+      text = string;
+      javaLength = string.length();
+      surrogates = new int[16];
+      nSurrogates = 0;
+      scannedTo = 0;
+      if(mode == Mode.SPARSE) {
+        scanTo(javaLength);
+      }
+    }
+  }
+  
+  /**
+   * Create a sparse offset mapper by scanning chunks of the string in parallel.
+   * 
+   * The string is split into chunks of the given size and each chunk is 
+   * scanned for surrogate pairs by a task run on the executor. The 
+   * per-chunk results are then combined using the prefix sums of the 
+   * number of pairs found in each chunk. A pair which straddles a chunk
+   * boundary is found by the chunk which contains its high surrogate.
+   * This blocks until all chunks have been scanned. 
+   * <p>
+   * The result is the same as for new OffsetMapper(string, Mode.SPARSE).
+   * 
+   * @param string the string to use
+   * @param executor executor to run the chunk scans on 
+   * @param chunkSize size of each chunk in UTF16 code units, must be positive
+   */
+  public OffsetMapper(String string, Executor executor, int chunkSize) {
+    if(chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize must be at least 1");
+    }
+    this.mode = Mode.SPARSE;
+    javaLength = string.length();
+    int nchunks = (int)(((long)javaLength + chunkSize - 1) / chunkSize);
+    if(nchunks <= 1) {
+      text = string;
+      surrogates = new int[16];
+      scanTo(javaLength);
+      return;
+    }
+    int[][] found = new int[nchunks][];
+    int[] counts = new int[nchunks];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    CompletableFuture<Void>[] futures = new CompletableFuture[nchunks];
+    for(int c=0; c<nchunks; c++) {
+      final int chunk = c;
+      final int from = c*chunkSize;
+      final int to = (int)Math.min((long)from + chunkSize, javaLength);
+      futures[c] = CompletableFuture.runAsync(() -> {
+        scanChunk(string, from, to, found, counts, chunk);
+      }, executor);
+    }
+    try {
+      CompletableFuture.allOf(futures).join();
+    } catch (CompletionException ex) {
+      throw new GateRuntimeException("Could not scan text for surrogate pairs", 
+              ex.getCause());
+    }
+    // prefix sums give the position of each chunk's pairs in the result
+    int n = 0;
+    for(int c=0; c<nchunks; c++) {
+      n += counts[c];
+    }
+    surrogates = new int[Math.max(n, 16)];
+    int pos = 0;
+    for(int c=0; c<nchunks; c++) {
+      System.arraycopy(found[c], 0, surrogates, pos, counts[c]);
+      pos += counts[c];
+    }
+    nSurrogates = n;
+    scannedTo = javaLength;
+  }
+  
+  /**
+   * Find all surrogate pairs with the high surrogate in the range from..to-1.
+   * 
+   * This gives the same result as a sequential scan from the start of the
+   * string: a low surrogate at the start of the range which follows a high 
+   * surrogate belongs to a pair found by the previous chunk.
+   * 
+   * @param str the string
+   * @param from first java offset of the chunk
+   * @param to java offset after the chunk
+   * @param found where to store the found offsets for the chunk 
+   * @param counts where to store the number of found offsets for the chunk
+   * @param chunk chunk number
+   */
+  private static void scanChunk(String str, int from, int to, 
+          int[][] found, int[] counts, int chunk) {
+    int len = str.length();
+    int[] ret = new int[16];
+    int n = 0;
+    int i = from;
+    if(i > 0 && Character.isHighSurrogate(str.charAt(i-1)) && 
+       Character.isLowSurrogate(str.charAt(i))) {
+      i++;
+    }
+    while(i < to) {
+      if(i+1 < len && Character.isHighSurrogate(str.charAt(i)) && 
+         Character.isLowSurrogate(str.charAt(i+1))) {
+        if(n == ret.length) {
+          ret = Arrays.copyOf(ret, n*2);
+        }
+        ret[n++] = i;
+        i += 2;
+      } else {
+        i++;
+      }
+    }
+    found[chunk] = ret;
+    counts[chunk] = n;
+  }
+  
+  /**
+   * Approximate number of bytes used by the mapping data of this mapper.
+   * 
+   * This does not include the text the mapper was created from. 
+   * 
+   * @return approximate size in bytes
+   */
+  long estimatedBytes() {
+    if(mode != Mode.TABLES) {
+      return 64L + 4L*surrogates.length;
+    } else {
+      return 64L + 4L*java2python.length + 4L*python2java.length;
+    }
+  }
+  
+  /**
+   * Check if java and python offsets are the same for the whole text.
+   * 
+   * This is the case if the text does not contain any surrogate pairs. 
+   * For a lazy mapper this scans the rest of the text. 
+   * 
+   * @return true if the mapping is the identity
+   */
+  public boolean isIdentity() {
+    if(mode == Mode.TABLES) {
+      return java2python.length == python2java.length;
+    }
+    synchronized(this) {
+      scanTo(javaLength);
+      return nSurrogates == 0;
+    }
+  }
+  
+  /**
+   * Return the mode used by this offset mapper.
+   * 
+   * @return mode
+   */
+  public Mode getMode() {
+    return mode;
+  }
+  
+  /**
+   * Number of surrogate pairs with a java offset smaller than the given one.
+   * 
+   * @param offset java offset
+   * @return number of surrogate pairs before the offset
+   */
+  private int surrogatesBeforeJava(int offset) {
+    int idx = Arrays.binarySearch(surrogates, 0, nSurrogates, offset);
+    return idx >= 0 ? idx : -(idx+1);
+  }
+  
+  /**
+   * Number of surrogate pairs with a python offset smaller than the given one.
+   * 
+   * The python offset of the k-th pair is surrogates[k]-k which is strictly
+   * increasing with k.
+   * 
+   * @param offset python offset
+   * @return number of surrogate pairs before the offset
+   */
+  private int surrogatesBeforePython(int offset) {
+    int lo = 0;
+    int hi = nSurrogates;
+    while(lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if(surrogates[mid] - mid < offset) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
   }
   
   /**
@@ -93,7 +400,18 @@ public class OffsetMapper {
    * @return  python offset
    */
   public int convertToPython(int offset) {
-    if(offset >= 0 && offset <= java2python.length) {
+    if(mode == Mode.LAZY) {
+      return convertToPythonLazy(offset);
+    }
+    if(mode == Mode.SPARSE) {
+      if(offset >= 0 && offset <= javaLength) {
+        return offset - surrogatesBeforeJava(offset);
+      } else {
+        throw new GateRuntimeException("Attempt to find python offset outside of range: "+
+              offset+" java length is "+javaLength);
+      }
+    }
+    if(offset >= 0 && offset < java2python.length) {
       return java2python[offset];
     } else {
       throw new GateRuntimeException("Attempt to find python offset outside of range: "+
@@ -108,7 +426,18 @@ public class OffsetMapper {
    * @return java offset
    */
   public int convertToJava(int offset) {
-    if(offset >= 0 && offset <= python2java.length) {
+    if(mode == Mode.LAZY) {
+      return convertToJavaLazy(offset);
+    }
+    if(mode == Mode.SPARSE) {
+      if(offset >= 0 && offset <= javaLength - nSurrogates) {
+        return offset + surrogatesBeforePython(offset);
+      } else {
+        throw new GateRuntimeException("Attempt to find java offset outside of range: "+
+              offset+" python length is "+(javaLength - nSurrogates));
+      }
+    }
+    if(offset >= 0 && offset < python2java.length) {
       return python2java[offset];
     } else {
       throw new GateRuntimeException("Attempt to find java offset outside of range: "+
@@ -116,14 +445,165 @@ public class OffsetMapper {
     }
   }
   
+  private synchronized int convertToPythonLazy(int offset) {
+    if(offset >= 0 && offset <= javaLength) {
+      ensureJava(offset);
+      return offset - surrogatesBeforeJava(offset);
+    } else {
+      throw new GateRuntimeException("Attempt to find python offset outside of range: "+
+            offset+" java length is "+javaLength);
+    }
+  }
+  
+  private synchronized int convertToJavaLazy(int offset) {
+    if(offset >= 0) {
+      ensurePython(offset);
+    }
+    if(offset >= 0 && offset <= scannedTo - nSurrogates) {
+      return offset + surrogatesBeforePython(offset);
+    } else {
+      // if the offset is not within what we have scanned, we must have 
+      // reached the end of the text
+      throw new GateRuntimeException("Attempt to find java offset outside of range: "+
+            offset+" python length is "+(javaLength - nSurrogates));
+    }
+  }
+  
+  /**
+   * Convert all the given offsets from Java to Python, in place.
+   * 
+   * No mapping tables are needed: an array whose offsets are non-decreasing,
+   * e.g. the start offsets of annotations in document order, gets converted 
+   * in one merge walk over the surrogate pair positions, the offsets of 
+   * any other array get converted one by one with a binary search. No
+   * additional memory is allocated.
+   * 
+   * @param starts array of java offsets, e.g. annotation start offsets
+   * @param ends another array of java offsets, e.g. annotation end offsets, 
+   * may be null
+   */
+  public void convertToPython(int[] starts, int[] ends) {
+    convertBulk(starts, ends, true);
+  }
+  
+  /**
+   * Convert all the given offsets from Python to Java, in place.
+   * 
+   * See convertToPython(int[], int[]).
+   * 
+   * @param starts array of python offsets, e.g. annotation start offsets
+   * @param ends another array of python offsets, e.g. annotation end offsets, 
+   * may be null
+   */
+  public void convertToJava(int[] starts, int[] ends) {
+    convertBulk(starts, ends, false);
+  }
+  
+  private void convertBulk(int[] starts, int[] ends, boolean toPython) {
+    if(mode == Mode.TABLES) {
+      for(int i=0; i<starts.length; i++) {
+        starts[i] = toPython ? convertToPython(starts[i]) : convertToJava(starts[i]);
+      }
+      if(ends != null) {
+        for(int i=0; i<ends.length; i++) {
+          ends[i] = toPython ? convertToPython(ends[i]) : convertToJava(ends[i]);
+        }
+      }
+      return;
+    }
+    int max = Math.max(maxOffset(starts), ends == null ? -1 : maxOffset(ends));
+    if(max < 0) {
+      return;
+    }
+    synchronized(this) {
+      if(toPython) {
+        ensureJava(max);
+        if(max > javaLength) {
+          throw new GateRuntimeException("Attempt to find python offset outside of range: "+
+                  max+" java length is "+javaLength);
+        }
+      } else {
+        ensurePython(max);
+        if(max > scannedTo - nSurrogates) {
+          throw new GateRuntimeException("Attempt to find java offset outside of range: "+
+                  max+" python length is "+(javaLength - nSurrogates));
+        }
+      }
+      if(nSurrogates == 0) {
+        // identity mapping
+        return;
+      }
+      convertArray(starts, toPython);
+      if(ends != null) {
+        convertArray(ends, toPython);
+      }
+    }
+  }
+  
+  /**
+   * The largest offset in the array, -1 for an empty array.
+   */
+  private static int maxOffset(int[] offsets) {
+    int max = -1;
+    for(int offset : offsets) {
+      if(offset < 0) {
+        throw new GateRuntimeException("Attempt to convert negative offset: "+offset);
+      }
+      if(offset > max) {
+        max = offset;
+      }
+    }
+    return max;
+  }
+  
+  private static boolean isSorted(int[] offsets) {
+    for(int i=1; i<offsets.length; i++) {
+      if(offsets[i] < offsets[i-1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Convert the offsets of one array, all surrogate pairs up to the largest
+   * offset must already be known.
+   */
+  private void convertArray(int[] offsets, boolean toPython) {
+    if(!isSorted(offsets)) {
+      for(int i=0; i<offsets.length; i++) {
+        offsets[i] = toPython 
+                ? offsets[i] - surrogatesBeforeJava(offsets[i])
+                : offsets[i] + surrogatesBeforePython(offsets[i]);
+      }
+      return;
+    }
+    int k = 0;
+    for(int i=0; i<offsets.length; i++) {
+      int offset = offsets[i];
+      if(toPython) {
+        while(k < nSurrogates && surrogates[k] < offset) {
+          k++;
+        }
+        offsets[i] = offset - k;
+      } else {
+        while(k < nSurrogates && surrogates[k] - k < offset) {
+          k++;
+        }
+        offsets[i] = offset + k;
+      }
+    }
+  }
+  
   /**
    * Return the java to python mapping as a List of Integers.
    * 
    * @return the mapping as a list
    */
   public List<Integer> getJava2PythonList() {
-    List<Integer> ret = new ArrayList<>(java2python.length);
-    for(int val : java2python) {
+    int[] table = getJava2PythonArray();
+    List<Integer> ret = new ArrayList<>(table.length);
+    for(int val : table) {
       ret.add(val);
     }
     return ret;
@@ -135,8 +615,9 @@ public class OffsetMapper {
    * @return the mapping as a list
    */
   public List<Integer> getPython2JavaList() {
-    List<Integer> ret = new ArrayList<>(python2java.length);
-    for(int val : python2java) {
+    int[] table = getPython2JavaArray();
+    List<Integer> ret = new ArrayList<>(table.length);
+    for(int val : table) {
       ret.add(val);
     }
     return ret;
@@ -148,15 +629,44 @@ public class OffsetMapper {
    * @return the mapping as an array
    */
   public int[] getJava2PythonArray() {
+    if(mode != Mode.TABLES) {
+      synchronized(this) {
+        scanTo(javaLength);
+      }
+      int[] ret = new int[javaLength+1];
+      int k = 0;
+      for(int i=0; i<=javaLength; i++) {
+        while(k < nSurrogates && surrogates[k] < i) {
+          k++;
+        }
+        ret[i] = i - k;
+      }
+      return ret;
+    }
     return java2python.clone();
   }
 
   /**
-   * Return the java to python mapping as am array of ints.
+   * Return the python to java mapping as am array of ints.
    * 
    * @return the mapping as an array
    */
   public int[] getPython2JavaArray() {
+    if(mode != Mode.TABLES) {
+      synchronized(this) {
+        scanTo(javaLength);
+      }
+      int pythonLength = javaLength - nSurrogates;
+      int[] ret = new int[pythonLength+1];
+      int k = 0;
+      for(int i=0; i<=pythonLength; i++) {
+        while(k < nSurrogates && surrogates[k] - k < i) {
+          k++;
+        }
+        ret[i] = i + k;
+      }
+      return ret;
+    }
     return python2java.clone();
   }
   
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gate.lib.basicdocument;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache of offset mappers.
+ * 
+ * Offset mappers are cached by the text instance they were created for:
+ * the text is looked up by identity, so a lookup takes constant time 
+ * whatever the length of the text, but an equal text in a different String
+ * instance gets its own mapper. The content of a GATE document always 
+ * returns the same String instance. Code which converts offsets of the 
+ * same text several times can also hold on to the mapper and pass it on,
+ * e.g. to ChangeLog.fixupOffsets(OffsetMapper, String), 
+ * BdocDocument.fixupOffsets(OffsetMapper, String) or 
+ * GateDocumentUpdater.offsetMapper(OffsetMapper).
+ * <p>
+ * The cache evicts the least recently used mappers once it has more than 
+ * the maximum number of entries or the estimated size of all the cached 
+ * mappers and their texts exceeds the maximum number of bytes. Since a
+ * cached mapper keeps its text alive, the default limits are small. 
+ * <p>
+ * The cached mappers use mode LAZY, so a text only gets scanned as far as 
+ * the largest offset converted by any user of the mapper. Since the 
+ * surrogate pair positions of a lazy mapper grow after it has been added,
+ * the size of an entry is estimated from the text length only, which is 
+ * what dominates for all but very unusual texts.
+ * <p>
+ * The process-wide default instance returned by getDefault() is only used
+ * for the content of GATE documents, by BdocDocumentBuilder and 
+ * GateDocumentUpdater, so converting a GATE document back and forth only
+ * scans its text once. BdocDocument, ChangeLog and GateDocumentLoader 
+ * create a new mapper for texts which are usually converted only once, 
+ * unless a mapper gets passed to them.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class OffsetMapperCache {
+  
+  /**
+   * Default maximum number of cached mappers.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 16;
+  
+  /**
+   * Default maximum estimated size of the cached mappers and texts in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 16L*1024L*1024L;
+  
+  private static final OffsetMapperCache DEFAULT = 
+          new OffsetMapperCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+  
+  /**
+   * Key for a text: uses the identity hash and compares by identity, so 
+   * the content of the text never gets looked at.
+   */
+  private static final class Key {
+    final String text;
+    Key(String text) {
+      this.text = text;
+    }
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(text);
+    }
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key && ((Key)other).text == text;
+    }
+  }
+  
+  private static final class Entry {
+    final OffsetMapper mapper;
+    final long bytes;
+    Entry(OffsetMapper mapper, long bytes) {
+      this.mapper = mapper;
+      this.bytes = bytes;
+    }
+  }
+  
+  private final int maxEntries;
+  private final long maxBytes;
+  
+  // access ordered, all access synchronized on this
+  private final LinkedHashMap<Key, Entry> entries = 
+          new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0L;
+  private long hits = 0L;
+  private long misses = 0L;
+  private long evictions = 0L;
+  
+  /**
+   * Create a cache with the given limits.
+   * 
+   * @param maxEntries maximum number of mappers to keep, must be at least 1
+   * @param maxBytes maximum estimated size of mappers and texts in bytes
+   */
+  public OffsetMapperCache(int maxEntries, long maxBytes) {
+    if(maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be at least 1");
+    }
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+  
+  /**
+   * Return the process-wide default cache.
+   * 
+   * @return default cache
+   */
+  public static OffsetMapperCache getDefault() {
+    return DEFAULT;
+  }
+  
+  /**
+   * Get the offset mapper for the text, creating it if necessary.
+   * 
+   * The mapper is created outside of the cache lock so that creating 
+   * the mapper for a large text does not block other threads. If two threads
+   * create a mapper for the same text at the same time, both will get the
+   * mapper which got added to the cache first. 
+   * 
+   * @param text the text 
+   * @return offset mapper for the text
+   */
+  public OffsetMapper get(String text) {
+    Key key = new Key(text);
+    synchronized(this) {
+      Entry entry = entries.get(key);
+      if(entry != null) {
+        hits++;
+        return entry.mapper;
+      }
+      misses++;
+    }
+    OffsetMapper mapper = new OffsetMapper(text, OffsetMapper.Mode.LAZY);
+    long size = mapper.estimatedBytes() + 2L*text.length();
+    if(size > maxBytes) {
+      // too big to ever get cached
+      return mapper;
+    }
+    synchronized(this) {
+      Entry entry = entries.get(key);
+      if(entry != null) {
+        return entry.mapper;
+      }
+      entries.put(key, new Entry(mapper, size));
+      bytes += size;
+      evict();
+    }
+    return mapper;
+  }
+  
+  /**
+   * Remove least recently used entries until the limits are satisfied.
+   * Must be called while holding the lock.
+   */
+  private void evict() {
+    Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+    while(it.hasNext() && (entries.size() > maxEntries || bytes > maxBytes)) {
+      Entry entry = it.next().getValue();
+      bytes -= entry.bytes;
+      evictions++;
+      it.remove();
+    }
+  }
+  
+  /**
+   * Remove all cached mappers.
+   * The hit/miss/eviction counters are not reset. 
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0L;
+  }
+  
+  /**
+   * Number of cached mappers.
+   * 
+   * @return number of mappers
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+  
+  /**
+   * Estimated size of the cached mappers and texts in bytes.
+   * 
+   * @return number of bytes
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+  
+  /**
+   * Number of lookups which found a cached mapper.
+   * 
+   * @return number of hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+  
+  /**
+   * Number of lookups which had to create a mapper.
+   * 
+   * @return number of misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+  
+  /**
+   * Number of mappers removed to satisfy the limits.
+   * 
+   * @return number of evictions
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+  
+}
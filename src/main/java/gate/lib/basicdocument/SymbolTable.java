@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded table of canonical string instances.
+ * 
+ * Deserialising a document creates a new String instance for every 
+ * occurrence of an annotation type, feature name or feature value, 
+ * even though most of them are repeated many times, e.g. the type "Token"
+ * or the feature name "category". Passing them through a symbol table 
+ * makes all equal strings share one instance, so that only the canonical
+ * instances stay on the heap. 
+ * <p>
+ * The table only keeps strings up to a maximum length and stops adding 
+ * new strings once it has reached the maximum number of entries, strings
+ * which are not already in the table are then returned unchanged. 
+ * The table can be used from several threads, so a single table can be 
+ * shared by all documents read by a reader. 
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class SymbolTable {
+  
+  /**
+   * Default maximum number of strings kept.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 65536;
+  
+  /**
+   * Default maximum length of strings kept.
+   */
+  public static final int DEFAULT_MAX_LENGTH = 32;
+  
+  private final ConcurrentHashMap<String, String> symbols = new ConcurrentHashMap<>();
+  private final int maxEntries;
+  private final int maxLength;
+  
+  /**
+   * Create a symbol table with the default limits.
+   */
+  public SymbolTable() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_LENGTH);
+  }
+  
+  /**
+   * Create a symbol table with the given limits.
+   * 
+   * @param maxEntries maximum number of strings to keep
+   * @param maxLength strings longer than this are never interned
+   */
+  public SymbolTable(int maxEntries, int maxLength) {
+    this.maxEntries = maxEntries;
+    this.maxLength = maxLength;
+  }
+  
+  /**
+   * Return the canonical instance for the string.
+   * 
+   * @param str the string, may be null
+   * @return the canonical instance or the string itself
+   */
+  public String intern(String str) {
+    if(str == null || str.length() > maxLength) {
+      return str;
+    }
+    String canonical = symbols.get(str);
+    if(canonical != null) {
+      return canonical;
+    }
+    if(symbols.size() >= maxEntries) {
+      return str;
+    }
+    canonical = symbols.putIfAbsent(str, str);
+    return canonical == null ? str : canonical;
+  }
+  
+  /**
+   * Number of strings in the table.
+   * 
+   * @return number of strings
+   */
+  public int size() {
+    return symbols.size();
+  }
+  
+}
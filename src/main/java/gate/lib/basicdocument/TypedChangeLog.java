@@ -0,0 +1,699 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument;
+
+import gate.util.GateRuntimeException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A column oriented changelog with typed entries.
+ *
+ * Each entry has an opcode and, depending on the opcode, an annotation
+ * set, annotation id, offsets, a feature name or annotation type and a
+ * value or feature map. These are stored in parallel arrays, with the
+ * set names in a per-log dictionary, so a changelog with many entries
+ * needs a lot less memory than the list of maps in ChangeLog and can be
+ * processed without any map lookups.
+ * <p>
+ * The conversion from and to ChangeLog is lossless: entries which do not
+ * fit the typed model exactly, e.g. with an unknown command, additional
+ * keys or values of unexpected types, are kept as their map with opcode
+ * OTHER. Converting back gives maps equal to the original ones.
+ * "annotations:add_bulk" entries are checked and kept as their map, 
+ * already holding their annotations in arrays.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class TypedChangeLog {
+
+  /**
+   * The kinds of changelog entries.
+   */
+  public static enum Op {
+    /**
+     * Set a document or annotation feature.
+     */
+    FEATURE_SET("feature:set"),
+    /**
+     * Remove a document or annotation feature.
+     */
+    FEATURE_REMOVE("feature:remove"),
+    /**
+     * Remove all document or annotation features.
+     */
+    FEATURES_CLEAR("features:clear"),
+    /**
+     * Add an annotation.
+     */
+    ANNOTATION_ADD("annotation:add"),
+    /**
+     * Remove an annotation.
+     */
+    ANNOTATION_REMOVE("annotation:remove"),
+    /**
+     * Remove all annotations from a set.
+     */
+    ANNOTATIONS_CLEAR("annotations:clear"),
+    /**
+     * Remove an annotation set.
+     */
+    ANNOTATIONS_REMOVE("annotations:remove"),
+    /**
+     * Add several annotations to a set, kept as a map.
+     */
+    ANNOTATIONS_ADD_BULK(ChangeLog.BULK_ADD),
+    /**
+     * Any other entry, kept as a map.
+     */
+    OTHER(null);
+
+    private static final Map<String, Op> COMMANDS = new HashMap<>();
+    static {
+      for(Op op : values()) {
+        if(op.command != null) {
+          COMMANDS.put(op.command, op);
+        }
+      }
+    }
+
+    private final String command;
+
+    Op(String command) {
+      this.command = command;
+    }
+
+    /**
+     * The command of the map representation.
+     *
+     * @return command or null for OTHER
+     */
+    public String getCommand() {
+      return command;
+    }
+
+    /**
+     * The opcode for a command.
+     *
+     * @param command the command of the map representation
+     * @return opcode or null if the command is not known
+     */
+    public static Op forCommand(String command) {
+      return COMMANDS.get(command);
+    }
+  }
+
+  /**
+   * The value of the int fields for entries which do not have them.
+   */
+  public static final int NONE = Integer.MIN_VALUE;
+
+  private static final Op[] OPS = Op.values();
+
+  /**
+   * The offset type, "j" for Java and "p" for Python.
+   */
+  public String offset_type = "j";
+
+  private int size = 0;
+  private byte[] ops;
+  private int[] sets;
+  private int[] ids;
+  private int[] starts;
+  private int[] ends;
+  // the feature name, or the annotation type for ANNOTATION_ADD
+  private String[] names;
+  // the feature value, the features of ANNOTATION_ADD or the map for OTHER
+  private Object[] values;
+
+  private String[] setNames = new String[8];
+  private int nsets = 0;
+  private final Map<String, Integer> set2code = new HashMap<>();
+
+  /**
+   * Create an empty changelog.
+   */
+  public TypedChangeLog() {
+    this(16);
+  }
+
+  /**
+   * Create an empty changelog with room for the given number of entries.
+   *
+   * @param capacity initial capacity
+   */
+  public TypedChangeLog(int capacity) {
+    capacity = Math.max(capacity, 1);
+    ops = new byte[capacity];
+    sets = new int[capacity];
+    ids = new int[capacity];
+    starts = new int[capacity];
+    ends = new int[capacity];
+    names = new String[capacity];
+    values = new Object[capacity];
+  }
+
+  private void grow(int mincap) {
+    if(mincap <= ops.length) {
+      return;
+    }
+    int cap = Math.max(mincap, ops.length + (ops.length >> 1) + 1);
+    ops = Arrays.copyOf(ops, cap);
+    sets = Arrays.copyOf(sets, cap);
+    ids = Arrays.copyOf(ids, cap);
+    starts = Arrays.copyOf(starts, cap);
+    ends = Arrays.copyOf(ends, cap);
+    names = Arrays.copyOf(names, cap);
+    values = Arrays.copyOf(values, cap);
+  }
+
+  private int setCode(String set) {
+    if(set == null) {
+      return -1;
+    }
+    Integer code = set2code.get(set);
+    if(code == null) {
+      if(nsets == setNames.length) {
+        setNames = Arrays.copyOf(setNames, nsets*2);
+      }
+      code = nsets;
+      setNames[nsets++] = set;
+      set2code.put(set, code);
+    }
+    return code;
+  }
+
+  private void append(Op op, String set, int id, int start, int end,
+          String name, Object value) {
+    grow(size + 1);
+    ops[size] = (byte)op.ordinal();
+    sets[size] = setCode(set);
+    ids[size] = id;
+    starts[size] = start;
+    ends[size] = end;
+    names[size] = name;
+    values[size] = value;
+    size++;
+  }
+
+  // 1) Adding entries
+
+  /**
+   * Add a feature:set entry.
+   *
+   * @param set the annotation set name, null for a document feature
+   * @param id the annotation id, NONE for a document feature
+   * @param feature feature name
+   * @param value feature value
+   */
+  public void featureSet(String set, int id, String feature, Object value) {
+    append(Op.FEATURE_SET, set, id, NONE, NONE, feature, value);
+  }
+
+  /**
+   * Add a feature:remove entry.
+   *
+   * @param set the annotation set name, null for a document feature
+   * @param id the annotation id, NONE for a document feature
+   * @param feature feature name
+   */
+  public void featureRemove(String set, int id, String feature) {
+    append(Op.FEATURE_REMOVE, set, id, NONE, NONE, feature, null);
+  }
+
+  /**
+   * Add a features:clear entry.
+   *
+   * @param set the annotation set name, null for the document features
+   * @param id the annotation id, NONE for the document features
+   */
+  public void featuresClear(String set, int id) {
+    append(Op.FEATURES_CLEAR, set, id, NONE, NONE, null, null);
+  }
+
+  /**
+   * Add an annotation:add entry.
+   *
+   * @param set the annotation set name
+   * @param id the annotation id
+   * @param start start offset
+   * @param end end offset
+   * @param type annotation type
+   * @param features the features, may be null
+   */
+  public void annotationAdd(String set, int id, int start, int end,
+          String type, Map<String, Object> features) {
+    append(Op.ANNOTATION_ADD, set, id, start, end, type, features);
+  }
+
+  /**
+   * Add an annotation:remove entry.
+   *
+   * @param set the annotation set name
+   * @param id the annotation id
+   */
+  public void annotationRemove(String set, int id) {
+    append(Op.ANNOTATION_REMOVE, set, id, NONE, NONE, null, null);
+  }
+
+  /**
+   * Add an annotations:clear entry.
+   *
+   * @param set the annotation set name
+   */
+  public void annotationsClear(String set) {
+    append(Op.ANNOTATIONS_CLEAR, set, NONE, NONE, NONE, null, null);
+  }
+
+  /**
+   * Add an annotations:remove entry.
+   *
+   * @param set the annotation set name
+   */
+  public void annotationsRemove(String set) {
+    append(Op.ANNOTATIONS_REMOVE, set, NONE, NONE, NONE, null, null);
+  }
+
+  /**
+   * Add an entry in the map representation.
+   *
+   * The entry gets stored typed if it fits the typed model exactly,
+   * otherwise the map is stored as it is, with opcode OTHER.
+   *
+   * @param change the map representation of the entry
+   */
+  @SuppressWarnings("unchecked")
+  public void add(Map<String, Object> change) {
+    Object cmd = change.get("command");
+    Op op = cmd instanceof String ? Op.forCommand((String)cmd) : null;
+    if(op != null) {
+      // the number of keys we know, must be all keys of the map
+      int known = 1;
+      String set = null;
+      int id = NONE;
+      Object v = change.get("set");
+      if(v instanceof String) {
+        set = (String)v;
+        known++;
+      }
+      v = change.get("id");
+      if(v instanceof Integer) {
+        id = (Integer)v;
+        known++;
+      }
+      boolean fits;
+      switch(op) {
+        case FEATURE_SET:
+        case FEATURE_REMOVE:
+          v = change.get("feature");
+          fits = v instanceof String && (set == null) == (id == NONE);
+          known++;
+          if(op == Op.FEATURE_SET) {
+            fits = fits && change.containsKey("value");
+            known++;
+          }
+          if(fits && known == change.size()) {
+            append(op, set, id, NONE, NONE, (String)v, change.get("value"));
+            return;
+          }
+          break;
+        case FEATURES_CLEAR:
+          if((set != null || id == NONE) && known == change.size()) {
+            append(op, set, id, NONE, NONE, null, null);
+            return;
+          }
+          break;
+        case ANNOTATION_ADD:
+          Object start = change.get("start");
+          Object end = change.get("end");
+          Object type = change.get("type");
+          Object features = change.get("features");
+          if(features instanceof Map) {
+            known++;
+          }
+          if(set != null && id != NONE && start instanceof Integer &&
+                  end instanceof Integer && type instanceof String &&
+                  known + 3 == change.size()) {
+            append(op, set, id, (Integer)start, (Integer)end, (String)type,
+                    (Map<String, Object>)features);
+            return;
+          }
+          break;
+        case ANNOTATION_REMOVE:
+          if(set != null && id != NONE && known == change.size()) {
+            append(op, set, id, NONE, NONE, null, null);
+            return;
+          }
+          break;
+        case ANNOTATIONS_ADD_BULK:
+          if(set != null && id == NONE) {
+            ChangeLog.checkBulk(change);
+            append(op, set, NONE, NONE, NONE, null, change);
+            return;
+          }
+          break;
+        default:
+          if(set != null && id == NONE && known == change.size()) {
+            append(op, set, NONE, NONE, NONE, null, null);
+            return;
+          }
+      }
+    }
+    append(Op.OTHER, null, NONE, NONE, NONE, null, change);
+  }
+
+  // 2) Conversion
+
+  /**
+   * Convert a changelog to the typed representation.
+   *
+   * The maps of the entries are not copied: feature maps of annotations
+   * and OTHER entries are shared with the changelog.
+   *
+   * @param clog the changelog
+   * @return typed changelog
+   */
+  public static TypedChangeLog fromChangeLog(ChangeLog clog) {
+    TypedChangeLog ret = new TypedChangeLog(clog.changes.size());
+    ret.offset_type = clog.offset_type;
+    for(Map<String, Object> change : clog.changes) {
+      ret.add(change);
+    }
+    return ret;
+  }
+
+  /**
+   * Convert to the map representation.
+   *
+   * @return changelog
+   */
+  public ChangeLog toChangeLog() {
+    ChangeLog ret = new ChangeLog();
+    ret.offset_type = offset_type;
+    for(int i = 0; i < size; i++) {
+      ret.changes.add(toMap(i));
+    }
+    return ret;
+  }
+
+  /**
+   * The map representation of an entry.
+   *
+   * @param index index of the entry
+   * @return a new map, or the stored map for OTHER and ANNOTATIONS_ADD_BULK
+   */
+  @SuppressWarnings("unchecked")
+  public Map<String, Object> toMap(int index) {
+    Op op = getOp(index);
+    if(op == Op.OTHER || op == Op.ANNOTATIONS_ADD_BULK) {
+      return (Map<String, Object>)values[index];
+    }
+    Map<String, Object> change = new HashMap<>();
+    change.put("command", op.command);
+    if(sets[index] >= 0) {
+      change.put("set", setNames[sets[index]]);
+    }
+    if(ids[index] != NONE) {
+      change.put("id", ids[index]);
+    }
+    switch(op) {
+      case FEATURE_SET:
+        change.put("value", values[index]);
+        change.put("feature", names[index]);
+        break;
+      case FEATURE_REMOVE:
+        change.put("feature", names[index]);
+        break;
+      case ANNOTATION_ADD:
+        change.put("start", starts[index]);
+        change.put("end", ends[index]);
+        change.put("type", names[index]);
+        if(values[index] != null) {
+          change.put("features", values[index]);
+        }
+        break;
+      default:
+    }
+    return change;
+  }
+
+  // 3) Access
+
+  /**
+   * Number of entries.
+   *
+   * @return size
+   */
+  public int size() {
+    return size;
+  }
+
+  private void checkIndex(int index) {
+    if(index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: "+index+", size: "+size);
+    }
+  }
+
+  /**
+   * The opcode of an entry.
+   *
+   * @param index index of the entry
+   * @return opcode
+   */
+  public Op getOp(int index) {
+    checkIndex(index);
+    return OPS[ops[index]];
+  }
+
+  /**
+   * The annotation set name of an entry.
+   *
+   * @param index index of the entry
+   * @return set name or null for document features and OTHER
+   */
+  public String getSet(int index) {
+    checkIndex(index);
+    return sets[index] < 0 ? null : setNames[sets[index]];
+  }
+
+  /**
+   * The code of the annotation set name of an entry.
+   *
+   * @param index index of the entry
+   * @return code between 0 and getSetCount()-1, or -1 if there is no set
+   */
+  int getSetCode(int index) {
+    checkIndex(index);
+    return sets[index];
+  }
+
+  /**
+   * The number of distinct annotation set names.
+   *
+   * @return number of set codes
+   */
+  int getSetCount() {
+    return nsets;
+  }
+
+  /**
+   * The annotation id of an entry.
+   *
+   * @param index index of the entry
+   * @return id or NONE
+   */
+  public int getId(int index) {
+    checkIndex(index);
+    return ids[index];
+  }
+
+  /**
+   * The start offset of an ANNOTATION_ADD entry.
+   *
+   * @param index index of the entry
+   * @return offset or NONE
+   */
+  public int getStart(int index) {
+    checkIndex(index);
+    return starts[index];
+  }
+
+  /**
+   * The end offset of an ANNOTATION_ADD entry.
+   *
+   * @param index index of the entry
+   * @return offset or NONE
+   */
+  public int getEnd(int index) {
+    checkIndex(index);
+    return ends[index];
+  }
+
+  /**
+   * The annotation type of an ANNOTATION_ADD entry.
+   *
+   * @param index index of the entry
+   * @return type or null
+   */
+  public String getType(int index) {
+    checkIndex(index);
+    return ops[index] == Op.ANNOTATION_ADD.ordinal() ? names[index] : null;
+  }
+
+  /**
+   * The feature name of a FEATURE_SET or FEATURE_REMOVE entry.
+   *
+   * @param index index of the entry
+   * @return feature name or null
+   */
+  public String getFeature(int index) {
+    checkIndex(index);
+    return ops[index] == Op.ANNOTATION_ADD.ordinal() ? null : names[index];
+  }
+
+  /**
+   * The value of a FEATURE_SET entry.
+   *
+   * @param index index of the entry
+   * @return value or null
+   */
+  public Object getValue(int index) {
+    checkIndex(index);
+    return ops[index] == Op.FEATURE_SET.ordinal() ? values[index] : null;
+  }
+
+  /**
+   * The features of an ANNOTATION_ADD entry.
+   *
+   * @param index index of the entry
+   * @return features or null
+   */
+  @SuppressWarnings("unchecked")
+  public Map<String, Object> getFeatures(int index) {
+    checkIndex(index);
+    return ops[index] == Op.ANNOTATION_ADD.ordinal() ? (Map<String, Object>)values[index] : null;
+  }
+
+  /**
+   * The map of an OTHER or ANNOTATIONS_ADD_BULK entry.
+   *
+   * @param index index of the entry
+   * @return map or null
+   */
+  @SuppressWarnings("unchecked")
+  public Map<String, Object> getMap(int index) {
+    checkIndex(index);
+    return ops[index] == Op.OTHER.ordinal() || ops[index] == Op.ANNOTATIONS_ADD_BULK.ordinal()
+            ? (Map<String, Object>)values[index] : null;
+  }
+
+  // 4) Offsets
+
+  /**
+   * In-place updating of the offsets to the desired new type.
+   *
+   * Same as ChangeLog.fixupOffsets(om, newtype): the offsets of typed
+   * entries are converted in the primitive arrays, those of OTHER and
+   * bulk entries in copies of their maps, so the maps shared with the
+   * ChangeLog this was created from do not change.
+   *
+   * @param om the offset mapper to use
+   * @param newtype  the desired new offset type
+   */
+  public void fixupOffsets(OffsetMapper om, String newtype) {
+    if(!newtype.equals("j") && !newtype.equals("p")) {
+      throw new GateRuntimeException("Offset type must be 'j' or 'p'");
+    }
+    if(offset_type.equals(newtype)) {
+      return;
+    }
+    int n = 0;
+    for(int i = 0; i < size; i++) {
+      if(starts[i] != NONE) {
+        n++;
+      }
+      if(ends[i] != NONE) {
+        n++;
+      }
+      if(ops[i] == Op.OTHER.ordinal()) {
+        n += getMap(i).containsKey("start") ? 1 : 0;
+        n += getMap(i).containsKey("end") ? 1 : 0;
+      }
+    }
+    int[] offsets = new int[n];
+    int k = 0;
+    for(int i = 0; i < size; i++) {
+      if(ops[i] == Op.OTHER.ordinal()) {
+        Map<String, Object> map = getMap(i);
+        if(map.containsKey("start")) {
+          offsets[k++] = ((Number)map.get("start")).intValue();
+        }
+        if(map.containsKey("end")) {
+          offsets[k++] = ((Number)map.get("end")).intValue();
+        }
+      } else {
+        if(starts[i] != NONE) {
+          offsets[k++] = starts[i];
+        }
+        if(ends[i] != NONE) {
+          offsets[k++] = ends[i];
+        }
+      }
+    }
+    if(newtype.equals("j")) {
+      om.convertToJava(offsets, null);
+    } else {
+      om.convertToPython(offsets, null);
+    }
+    k = 0;
+    for(int i = 0; i < size; i++) {
+      if(ops[i] == Op.OTHER.ordinal()) {
+        Map<String, Object> map = getMap(i);
+        if(map.containsKey("start") || map.containsKey("end")) {
+          // the map may be shared with the ChangeLog this was created from
+          map = new HashMap<>(map);
+          values[i] = map;
+        }
+        if(map.containsKey("start")) {
+          map.put("start", offsets[k++]);
+        }
+        if(map.containsKey("end")) {
+          map.put("end", offsets[k++]);
+        }
+      } else {
+        if(starts[i] != NONE) {
+          starts[i] = offsets[k++];
+        }
+        if(ends[i] != NONE) {
+          ends[i] = offsets[k++];
+        }
+      }
+    }
+    for(int i = 0; i < size; i++) {
+      if(ops[i] == Op.ANNOTATIONS_ADD_BULK.ordinal()) {
+        Map<String, Object> map = new HashMap<>(getMap(i));
+        values[i] = map;
+        ChangeLog.fixupBulkOffsets(map, om, newtype);
+      }
+    }
+    offset_type = newtype;
+  }
+}
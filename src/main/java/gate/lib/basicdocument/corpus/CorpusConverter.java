@@ -0,0 +1,635 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.corpus;
+
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import gate.creole.ResourceInstantiationException;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.BdocDocumentBuilder;
+import gate.lib.basicdocument.GateDocumentUpdater;
+import gate.lib.basicdocument.docformats.BdocJsonCodec;
+import gate.lib.basicdocument.docformats.SimpleBinary;
+import gate.util.GateException;
+import gate.util.GateRuntimeException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.apache.log4j.Logger;
+
+/**
+ * Convert all documents in a directory between GATE XML and the bdoc formats.
+ * 
+ * The converter walks the input directory and converts every file with a 
+ * known extension (see Format) to the output format, writing the result
+ * to the same relative path in the output directory with the extension of
+ * the output format. The conversions run on a pool of worker threads. At 
+ * most queueSize documents are submitted but not yet finished at any time,
+ * and the directory tree is walked lazily, in no particular order, so the
+ * memory needed does not depend on the size of the corpus.
+ * <p>
+ * A document which cannot be converted is logged and recorded as a Failure, 
+ * and no incomplete output file is left behind for it; all 
+ * other documents still get converted. The counters in Metrics
+ * can be read at any time while the conversion runs, and a progress 
+ * listener can be called after every n documents.
+ * <p>
+ * GATE gets initialised once, when run() is called for the first time, 
+ * if it is not already initialised.
+ * <p>
+ * The converter can also be run from the command line, see main(args).
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class CorpusConverter {
+  
+  private static final Logger LOGGER = 
+          Logger.getLogger(CorpusConverter.class.getName());
+  
+  /**
+   * The document formats supported by the converter.
+   */
+  public static enum Format {
+    /**
+     * GATE XML, extension ".xml".
+     */
+    GATEXML(".xml"),
+    /**
+     * Bdoc JSON as written by SimpleJson, extension ".bdocjs".
+     */
+    JSON(".bdocjs"),
+    /**
+     * Bdoc binary as written by SimpleBinary, extension ".bdocbin".
+     */
+    BINARY(".bdocbin");
+    
+    private final String extension;
+    
+    Format(String extension) {
+      this.extension = extension;
+    }
+    
+    /**
+     * The file name extension of the format, including the dot.
+     * 
+     * @return extension
+     */
+    public String getExtension() {
+      return extension;
+    }
+    
+    /**
+     * Find the format of a file from its name.
+     * 
+     * @param name file name
+     * @return the format or null if the extension is not known
+     */
+    public static Format forFileName(String name) {
+      for(Format format : values()) {
+        if(name.endsWith(format.extension)) {
+          return format;
+        }
+      }
+      return null;
+    }
+  }
+  
+  /**
+   * A document which could not be converted.
+   */
+  public static class Failure {
+    
+    /**
+     * The input file.
+     */
+    public final File file;
+    
+    /**
+     * What went wrong.
+     */
+    public final Throwable error;
+    
+    Failure(File file, Throwable error) {
+      this.file = file;
+      this.error = error;
+    }
+    
+    @Override
+    public String toString() {
+      return file + ": " + error;
+    }
+  }
+  
+  /**
+   * Counters of the conversion.
+   * 
+   * The fields are updated while the conversion runs and can be read from
+   * any thread.
+   */
+  public static class Metrics {
+    
+    /**
+     * Number of documents submitted for conversion.
+     */
+    public final AtomicLong submitted = new AtomicLong();
+    
+    /**
+     * Number of documents converted successfully.
+     */
+    public final AtomicLong converted = new AtomicLong();
+    
+    /**
+     * Number of documents which could not be converted.
+     */
+    public final AtomicLong failed = new AtomicLong();
+    
+    /**
+     * Number of files skipped because their extension is not known.
+     */
+    public final AtomicLong skipped = new AtomicLong();
+    
+    /**
+     * Total size of the input files converted, in bytes.
+     */
+    public final AtomicLong bytesRead = new AtomicLong();
+    
+    /**
+     * Total size of the output files written, in bytes.
+     */
+    public final AtomicLong bytesWritten = new AtomicLong();
+    
+    private final AtomicLong finished = new AtomicLong();
+    private volatile long startNanos = System.nanoTime();
+    private volatile long endNanos = 0;
+    
+    /**
+     * Number of documents finished, converted or failed.
+     * 
+     * @return number of documents
+     */
+    public long getFinished() {
+      return finished.get();
+    }
+    
+    /**
+     * Seconds since the conversion started, up to the end if finished.
+     * 
+     * @return elapsed seconds
+     */
+    public double getElapsedSeconds() {
+      long end = endNanos == 0 ? System.nanoTime() : endNanos;
+      return (end - startNanos) / 1e9;
+    }
+    
+    /**
+     * Documents finished per second so far.
+     * 
+     * @return documents per second
+     */
+    public double getDocumentsPerSecond() {
+      double secs = getElapsedSeconds();
+      return secs > 0 ? getFinished() / secs : 0.0;
+    }
+    
+    /**
+     * Megabytes (2^20 bytes) of input converted per second so far.
+     * 
+     * @return MB per second
+     */
+    public double getMegabytesPerSecond() {
+      double secs = getElapsedSeconds();
+      return secs > 0 ? bytesRead.get() / 1048576.0 / secs : 0.0;
+    }
+    
+    @Override
+    public String toString() {
+      return String.format("%d converted, %d failed, %d skipped, %.1f docs/s, %.2f MB/s",
+              converted.get(), failed.get(), skipped.get(), 
+              getDocumentsPerSecond(), getMegabytesPerSecond());
+    }
+  }
+  
+  private File inputDir;
+  private File outputDir;
+  private Format outputFormat = Format.JSON;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int queueSize = 0;
+  private String offsetType = "j";
+  private int progressEvery = 0;
+  private Consumer<Metrics> progressListener = null;
+  private volatile Metrics metrics = new Metrics();
+  private final List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+  
+  /**
+   * Create a converter from the documents in inputDir to outputDir.
+   * 
+   * @param inputDir directory to read the documents from, recursively
+   * @param outputDir directory to write the converted documents to, gets
+   * created if necessary
+   */
+  public CorpusConverter(File inputDir, File outputDir) {
+    this.inputDir = inputDir;
+    this.outputDir = outputDir;
+  }
+  
+  /**
+   * Set the format to write, JSON by default.
+   * 
+   * @param format output format
+   * @return modified converter
+   */
+  public CorpusConverter outputFormat(Format format) {
+    this.outputFormat = format;
+    return this;
+  }
+  
+  /**
+   * Set the number of worker threads, by default the number of processors.
+   * 
+   * @param threads number of threads, must be positive
+   * @return modified converter
+   */
+  public CorpusConverter threads(int threads) {
+    if(threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1");
+    }
+    this.threads = threads;
+    return this;
+  }
+  
+  /**
+   * Set the maximum number of documents submitted but not yet finished,
+   * by default twice the number of threads.
+   * 
+   * @param queueSize maximum number of documents in flight, must be positive
+   * @return modified converter
+   */
+  public CorpusConverter queueSize(int queueSize) {
+    if(queueSize < 1) {
+      throw new IllegalArgumentException("queueSize must be at least 1");
+    }
+    this.queueSize = queueSize;
+    return this;
+  }
+  
+  /**
+   * Write bdoc output with python offsets.
+   * 
+   * @return modified converter
+   */
+  public CorpusConverter pythonOffsets() {
+    this.offsetType = "p";
+    return this;
+  }
+  
+  /**
+   * Call the listener after every n finished documents and at the end.
+   * 
+   * The listener gets called from the worker threads, but never 
+   * concurrently.
+   * 
+   * @param n number of documents between calls
+   * @param listener the listener
+   * @return modified converter
+   */
+  public CorpusConverter progress(int n, Consumer<Metrics> listener) {
+    this.progressEvery = n;
+    this.progressListener = listener;
+    return this;
+  }
+  
+  /**
+   * The counters of the current or last run.
+   * 
+   * @return metrics
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * The documents which could not be converted in the last run.
+   * 
+   * @return list of failures
+   */
+  public List<Failure> getFailures() {
+    synchronized(failures) {
+      return new ArrayList<>(failures);
+    }
+  }
+  
+  /**
+   * Initialise GATE if this has not been done yet.
+   */
+  private static synchronized void initGate() {
+    if(!Gate.isInitialised()) {
+      try {
+        Gate.init();
+      } catch (GateException ex) {
+        throw new GateRuntimeException("Could not initialise GATE", ex);
+      }
+    }
+  }
+  
+  /**
+   * Convert all documents. 
+   * 
+   * This blocks until all documents have been converted or have failed.
+   * 
+   * @return the metrics of this run
+   */
+  public Metrics run() {
+    initGate();
+    metrics = new Metrics();
+    failures.clear();
+    if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new GateRuntimeException("Could not create output directory "+outputDir);
+    }
+    Semaphore inFlight = new Semaphore(queueSize > 0 ? queueSize : 2 * threads);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    Path inputPath = inputDir.toPath();
+    try (Stream<Path> paths = Files.walk(inputPath)) {
+      // the walk is consumed lazily, so the paths never all get held in memory
+      Iterator<Path> files = paths.filter(Files::isRegularFile).iterator();
+      while(files.hasNext()) {
+        Path path = files.next();
+        Format inFormat = Format.forFileName(path.getFileName().toString());
+        if(inFormat == null) {
+          metrics.skipped.incrementAndGet();
+          continue;
+        }
+        inFlight.acquire();
+        metrics.submitted.incrementAndGet();
+        pool.execute(() -> {
+          try {
+            convert(inputPath, path, inFormat);
+            metrics.converted.incrementAndGet();
+          } catch (Exception ex) {
+            LOGGER.error("Could not convert "+path, ex);
+            failures.add(new Failure(path.toFile(), ex));
+            metrics.failed.incrementAndGet();
+          } finally {
+            long n = metrics.finished.incrementAndGet();
+            inFlight.release();
+            if(progressEvery > 0 && n % progressEvery == 0) {
+              reportProgress();
+            }
+          }
+        });
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not list the documents in "+inputDir, ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new GateRuntimeException("Interrupted while converting", ex);
+    } finally {
+      pool.shutdown();
+      try {
+        while(!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+          // keep waiting for the documents in flight
+        }
+      } catch (InterruptedException ex) {
+        pool.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      metrics.endNanos = System.nanoTime();
+    }
+    reportProgress();
+    return metrics;
+  }
+  
+  private void reportProgress() {
+    if(progressListener != null) {
+      synchronized(progressListener) {
+        progressListener.accept(metrics);
+      }
+    }
+  }
+  
+  /**
+   * Convert a single document.
+   * 
+   * @param inputPath the input directory
+   * @param path the input file
+   * @param inFormat the format of the input file
+   * @throws IOException if reading or writing fails
+   * @throws ResourceInstantiationException if a GATE document cannot be created
+   */
+  private void convert(Path inputPath, Path path, Format inFormat) 
+          throws IOException, ResourceInstantiationException {
+    String relative = inputPath.relativize(path).toString();
+    relative = relative.substring(0, relative.length() - inFormat.getExtension().length());
+    File outFile = new File(outputDir, relative + outputFormat.getExtension());
+    File parent = outFile.getParentFile();
+    if(!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create directory "+parent);
+    }
+    metrics.bytesRead.addAndGet(Files.size(path));
+    if(inFormat == Format.GATEXML) {
+      Document doc = loadGateXml(path.toFile());
+      boolean complete = false;
+      try {
+        BdocDocumentBuilder builder = new BdocDocumentBuilder().fromGate(doc);
+        if("p".equals(offsetType)) {
+          builder.pythonOffsets();
+        }
+        switch(outputFormat) {
+          case GATEXML:
+            writeGateXml(doc, outFile);
+            break;
+          case JSON:
+            // write directly from the GATE document
+            builder.streaming().dump(outFile);
+            break;
+          case BINARY:
+            new SimpleBinary().dump(builder.buildBdoc(), outFile);
+            break;
+        }
+        complete = true;
+      } finally {
+        Factory.deleteResource(doc);
+        if(!complete) {
+          deleteIncomplete(outFile);
+        }
+      }
+    } else {
+      BdocDocument bdoc;
+      try (InputStream in = new BufferedInputStream(new FileInputStream(path.toFile()))) {
+        if(inFormat == Format.JSON) {
+          bdoc = BdocJsonCodec.getDefault().load_doc(in);
+        } else {
+          bdoc = new SimpleBinary().load_doc(in);
+        }
+      }
+      boolean complete = false;
+      try {
+        switch(outputFormat) {
+          case GATEXML:
+            Document doc = new GateDocumentUpdater(bdoc.text).fromBdoc(bdoc);
+            try {
+              writeGateXml(doc, outFile);
+            } finally {
+              Factory.deleteResource(doc);
+            }
+            break;
+          case JSON:
+            bdoc.fixupOffsets(offsetType);
+            BdocJsonCodec.getDefault().dump(bdoc, outFile);
+            break;
+          case BINARY:
+            bdoc.fixupOffsets(offsetType);
+            new SimpleBinary().dump(bdoc, outFile);
+            break;
+        }
+        complete = true;
+      } finally {
+        if(!complete) {
+          deleteIncomplete(outFile);
+        }
+      }
+    }
+    metrics.bytesWritten.addAndGet(outFile.length());
+  }
+  
+  /**
+   * Remove the output file of a failed conversion, so no truncated file is
+   * left behind. The original exception is more useful than any failure 
+   * to delete, so that only gets logged.
+   */
+  private static void deleteIncomplete(File outFile) {
+    if(outFile.exists() && !outFile.delete()) {
+      LOGGER.warn("Could not delete incomplete output file "+outFile);
+    }
+  }
+  
+  private static Document loadGateXml(File file) throws ResourceInstantiationException {
+    try {
+      return Factory.newDocument(file.toURI().toURL(), "UTF-8");
+    } catch (MalformedURLException ex) {
+      throw new ResourceInstantiationException("Invalid file name "+file, ex);
+    }
+  }
+  
+  private static void writeGateXml(Document doc, File file) throws IOException {
+    try (Writer writer = new OutputStreamWriter(
+            Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+      writer.write(doc.toXml());
+    }
+  }
+  
+  private static void usage() {
+    System.err.println("Usage: CorpusConverter [options] inputDir outputDir");
+    System.err.println("  -f json|binary|xml  output format (default json)");
+    System.err.println("  -t n                number of worker threads (default: number of processors)");
+    System.err.println("  -q n                maximum number of documents in flight (default: 2 * threads)");
+    System.err.println("  -p                  write python offsets");
+    System.err.println("  -r n                report progress every n documents (default 1000)");
+  }
+  
+  /**
+   * Convert a corpus from the command line.
+   * 
+   * Exits with status 1 if any document could not be converted and 
+   * with status 2 for invalid arguments.
+   * 
+   * @param args options, input directory and output directory
+   */
+  public static void main(String[] args) {
+    List<String> positional = new ArrayList<>();
+    Format format = Format.JSON;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int queue = 0;
+    int every = 1000;
+    boolean python = false;
+    try {
+      for(int i = 0; i < args.length; i++) {
+        switch(args[i]) {
+          case "-f":
+            switch(args[++i]) {
+              case "json": format = Format.JSON; break;
+              case "binary": format = Format.BINARY; break;
+              case "xml": format = Format.GATEXML; break;
+              default: throw new IllegalArgumentException("Unknown format "+args[i]);
+            }
+            break;
+          case "-t":
+            threads = Integer.parseInt(args[++i]);
+            break;
+          case "-q":
+            queue = Integer.parseInt(args[++i]);
+            break;
+          case "-r":
+            every = Integer.parseInt(args[++i]);
+            break;
+          case "-p":
+            python = true;
+            break;
+          default:
+            if(args[i].startsWith("-")) {
+              throw new IllegalArgumentException("Unknown option "+args[i]);
+            }
+            positional.add(args[i]);
+        }
+      }
+      if(positional.size() != 2) {
+        throw new IllegalArgumentException("Need input and output directory");
+      }
+    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+      System.err.println("Error: "+ex.getMessage());
+      usage();
+      System.exit(2);
+    }
+    CorpusConverter converter = new CorpusConverter(
+            new File(positional.get(0)), new File(positional.get(1))).
+            outputFormat(format).threads(threads).
+            progress(every, (m) -> System.err.println(m));
+    if(queue > 0) {
+      converter.queueSize(queue);
+    }
+    if(python) {
+      converter.pythonOffsets();
+    }
+    Metrics metrics = converter.run();
+    for(Failure failure : converter.getFailures()) {
+      System.err.println("FAILED: "+failure);
+    }
+    System.exit(metrics.failed.get() > 0 ? 1 : 0);
+  }
+}
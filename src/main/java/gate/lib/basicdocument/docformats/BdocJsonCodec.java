@@ -0,0 +1,924 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.jr.ob.JSON;
+import gate.lib.basicdocument.BdocAnnotation;
+import gate.lib.basicdocument.BdocAnnotationSet;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.ColumnarAnnotationList;
+import gate.lib.basicdocument.SymbolTable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialize and deserialize BdocDocument and ChangeLog instances as JSON 
+ * without bean introspection.
+ * 
+ * The Bdoc classes are written and read field by field with the jackson 
+ * streaming generator and parser, so there is no introspection cost on 
+ * first use and no reflective field access. The JSON is the same as what 
+ * jackson-jr writes for these classes: the fields in alphabetical order and
+ * null fields omitted unless WRITE_NULL_PROPERTIES is enabled. The only 
+ * exception is the "offset_type" of a document, which is written first so 
+ * that a streaming reader knows how to interpret the annotation offsets 
+ * before it gets to them.
+ * <p>
+ * Instances are immutable and can be shared by any number of threads: all
+ * the configuration methods return a new codec. The JSON features set with
+ * with/without are used for the generator and parser; PRETTY_PRINT_OUTPUT, 
+ * WRITE_NULL_PROPERTIES and USE_BIG_DECIMAL_FOR_FLOATS are also honoured 
+ * by the codec itself. Feature values of types other than strings, numbers,
+ * booleans, maps, collections and object arrays are written by jackson-jr
+ * with the same features.
+ * <p>
+ * When loading, annotation types, feature names and short string values
+ * are interned through a SymbolTable, by default a new one for each 
+ * document or changelog. Like jackson-jr, the load methods close the 
+ * stream or reader and the dump methods close the destination.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public final class BdocJsonCodec {
+  
+  private static final BdocJsonCodec DEFAULT = new BdocJsonCodec();
+  
+  private final JSON json;
+  private final boolean prettyPrint;
+  private final boolean writeNulls;
+  private final boolean bigDecimals;
+  private final boolean interning;
+  private final SymbolTable symbolTable;
+  private final boolean columnar;
+  
+  /**
+   * Create a codec with the default configuration.
+   */
+  public BdocJsonCodec() {
+    this(JSON.std, true, null, false);
+  }
+  
+  private BdocJsonCodec(JSON json, boolean interning, SymbolTable symbolTable,
+          boolean columnar) {
+    // we do not want to flush after each feature value we write
+    this.json = json.without(JSON.Feature.FLUSH_AFTER_WRITE_VALUE);
+    this.prettyPrint = json.isEnabled(JSON.Feature.PRETTY_PRINT_OUTPUT);
+    this.writeNulls = json.isEnabled(JSON.Feature.WRITE_NULL_PROPERTIES);
+    this.bigDecimals = json.isEnabled(JSON.Feature.USE_BIG_DECIMAL_FOR_FLOATS);
+    this.interning = interning;
+    this.symbolTable = symbolTable;
+    this.columnar = columnar;
+  }
+  
+  /**
+   * Return the shared codec with the default configuration.
+   * 
+   * @return default codec
+   */
+  public static BdocJsonCodec getDefault() {
+    return DEFAULT;
+  }
+  
+  /**
+   * Return a codec which has the given JSON features enabled.
+   * 
+   * @param features features to enable
+   * @return new codec
+   */
+  public BdocJsonCodec with(JSON.Feature... features) {
+    return new BdocJsonCodec(json.with(features), interning, symbolTable, columnar);
+  }
+  
+  /**
+   * Return a codec which has the given JSON features disabled.
+   * 
+   * @param features features to disable
+   * @return new codec
+   */
+  public BdocJsonCodec without(JSON.Feature... features) {
+    return new BdocJsonCodec(json.without(features), interning, symbolTable, columnar);
+  }
+  
+  /**
+   * Return a codec which does not intern any strings when loading.
+   * 
+   * @return new codec
+   */
+  public BdocJsonCodec noInterning() {
+    return new BdocJsonCodec(json, false, null, columnar);
+  }
+  
+  /**
+   * Return a codec which interns strings using the given table.
+   * 
+   * @param table the symbol table to share, if null use a new table for 
+   * each document or changelog
+   * @return new codec
+   */
+  public BdocJsonCodec withSymbolTable(SymbolTable table) {
+    return new BdocJsonCodec(json, true, table, columnar);
+  }
+  
+  /**
+   * Return a codec which loads annotations into ColumnarAnnotationList 
+   * instances or not.
+   * 
+   * @param flag if true, use ColumnarAnnotationList for loaded sets
+   * @return new codec
+   */
+  public BdocJsonCodec columnar(boolean flag) {
+    return new BdocJsonCodec(json, interning, symbolTable, flag);
+  }
+  
+  /**
+   * The jackson-jr JSON instance with the features of this codec.
+   * 
+   * @return JSON instance
+   */
+  public JSON getJSON() {
+    return json;
+  }
+  
+  private JsonFactory factory() {
+    return json.getStreamingFactory();
+  }
+  
+  private JsonGenerator config(JsonGenerator gen) {
+    if(prettyPrint) {
+      gen.useDefaultPrettyPrinter();
+    }
+    return gen;
+  }
+  
+  private SymbolTable newSymbols() {
+    if(!interning) {
+      return null;
+    }
+    return symbolTable == null ? new SymbolTable() : symbolTable;
+  }
+  
+  // 1) Writing
+  
+  /**
+   * Write a document to the generator. 
+   * 
+   * The generator is not closed or flushed.
+   * 
+   * @param bdoc the document
+   * @param gen the generator
+   * @throws IOException if writing fails
+   */
+  public void write(BdocDocument bdoc, JsonGenerator gen) throws IOException {
+    gen.writeStartObject();
+    // the offset type goes first so streaming readers can convert offsets
+    // while reading the annotations
+    writeStringField("offset_type", bdoc.offset_type, gen);
+    if(bdoc.annotation_sets != null) {
+      gen.writeObjectFieldStart("annotation_sets");
+      for(Map.Entry<String, BdocAnnotationSet> entry : bdoc.annotation_sets.entrySet()) {
+        gen.writeFieldName(entry.getKey());
+        writeSet(entry.getValue(), gen);
+      }
+      gen.writeEndObject();
+    } else if(writeNulls) {
+      gen.writeNullField("annotation_sets");
+    }
+    writeMapField("features", bdoc.features, gen);
+    writeStringField("gatenlp_type", bdoc.gatenlp_type, gen);
+    writeStringField("text", bdoc.text, gen);
+    gen.writeEndObject();
+  }
+  
+  private void writeSet(BdocAnnotationSet annset, JsonGenerator gen) throws IOException {
+    if(annset == null) {
+      gen.writeNull();
+      return;
+    }
+    gen.writeStartObject();
+    if(annset.annotations instanceof ColumnarAnnotationList) {
+      ColumnarAnnotationList anns = (ColumnarAnnotationList)annset.annotations;
+      gen.writeArrayFieldStart("annotations");
+      for(int i = 0; i < anns.size(); i++) {
+        writeAnnotation(anns.getId(i), anns.getType(i), anns.getStart(i), 
+                anns.getEnd(i), anns.getFeatures(i), "Annotation", gen);
+      }
+      gen.writeEndArray();
+    } else if(annset.annotations != null) {
+      gen.writeArrayFieldStart("annotations");
+      for(BdocAnnotation ann : annset.annotations) {
+        if(ann == null) {
+          gen.writeNull();
+        } else {
+          writeAnnotation(ann.id, ann.type, ann.start, ann.end, ann.features, 
+                  ann.gatenlp_type, gen);
+        }
+      }
+      gen.writeEndArray();
+    } else if(writeNulls) {
+      gen.writeNullField("annotations");
+    }
+    writeStringField("gatenlp_type", annset.gatenlp_type, gen);
+    writeStringField("name", annset.name, gen);
+    if(annset.next_annid != null) {
+      gen.writeNumberField("next_annid", annset.next_annid);
+    } else if(writeNulls) {
+      gen.writeNullField("next_annid");
+    }
+    gen.writeEndObject();
+  }
+  
+  private void writeAnnotation(Integer id, String type, int start, int end,
+          Map<String, Object> features, String gatenlpType, JsonGenerator gen) 
+          throws IOException {
+    gen.writeStartObject();
+    gen.writeNumberField("end", end);
+    writeMapField("features", features, gen);
+    writeStringField("gatenlp_type", gatenlpType, gen);
+    if(id != null) {
+      gen.writeNumberField("id", id);
+    } else if(writeNulls) {
+      gen.writeNullField("id");
+    }
+    gen.writeNumberField("start", start);
+    writeStringField("type", type, gen);
+    gen.writeEndObject();
+  }
+  
+  /**
+   * Write a changelog to the generator. 
+   * 
+   * The generator is not closed or flushed.
+   * 
+   * @param clog the changelog
+   * @param gen the generator
+   * @throws IOException if writing fails
+   */
+  public void write(ChangeLog clog, JsonGenerator gen) throws IOException {
+    gen.writeStartObject();
+    if(clog.changes != null) {
+      gen.writeArrayFieldStart("changes");
+      for(Map<String, Object> change : clog.changes) {
+        writeValue(change, gen);
+      }
+      gen.writeEndArray();
+    } else if(writeNulls) {
+      gen.writeNullField("changes");
+    }
+    writeStringField("gatenlp_type", clog.gatenlp_type, gen);
+    writeStringField("offset_type", clog.offset_type, gen);
+    gen.writeEndObject();
+  }
+  
+  private void writeStringField(String name, String value, JsonGenerator gen) 
+          throws IOException {
+    if(value != null) {
+      gen.writeStringField(name, value);
+    } else if(writeNulls) {
+      gen.writeNullField(name);
+    }
+  }
+  
+  private void writeMapField(String name, Map<String, Object> value, JsonGenerator gen) 
+          throws IOException {
+    if(value != null) {
+      gen.writeFieldName(name);
+      writeValue(value, gen);
+    } else if(writeNulls) {
+      gen.writeNullField(name);
+    }
+  }
+  
+  /**
+   * Write a feature value to the generator.
+   * 
+   * Map entries with a null key are ignored and, unless WRITE_NULL_PROPERTIES
+   * is enabled, map entries with a null value are omitted, like jackson-jr
+   * does.
+   * 
+   * @param value the value
+   * @param gen the generator
+   * @throws IOException if writing fails
+   */
+  public void writeValue(Object value, JsonGenerator gen) throws IOException {
+    if(value == null) {
+      gen.writeNull();
+    } else if(value instanceof String) {
+      gen.writeString((String)value);
+    } else if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      gen.writeNumber(((Number)value).intValue());
+    } else if(value instanceof Long) {
+      gen.writeNumber((Long)value);
+    } else if(value instanceof Double) {
+      gen.writeNumber((Double)value);
+    } else if(value instanceof Float) {
+      gen.writeNumber((Float)value);
+    } else if(value instanceof Boolean) {
+      gen.writeBoolean((Boolean)value);
+    } else if(value instanceof BigInteger) {
+      gen.writeNumber((BigInteger)value);
+    } else if(value instanceof BigDecimal) {
+      gen.writeNumber((BigDecimal)value);
+    } else if(value instanceof Map) {
+      gen.writeStartObject();
+      for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+        if(entry.getKey() == null || (entry.getValue() == null && !writeNulls)) {
+          continue;
+        }
+        gen.writeFieldName(entry.getKey().toString());
+        writeValue(entry.getValue(), gen);
+      }
+      gen.writeEndObject();
+    } else if(value instanceof Collection) {
+      gen.writeStartArray();
+      for(Object element : (Collection<?>)value) {
+        writeValue(element, gen);
+      }
+      gen.writeEndArray();
+    } else if(value instanceof Object[]) {
+      gen.writeStartArray();
+      for(Object element : (Object[])value) {
+        writeValue(element, gen);
+      }
+      gen.writeEndArray();
+    } else if(value instanceof int[]) {
+      int[] arr = (int[])value;
+      gen.writeArray(arr, 0, arr.length);
+    } else {
+      json.write(value, gen);
+    }
+  }
+  
+  /**
+   * Serialise a BdocDocument to a file. 
+   * 
+   * @param bdoc Bdoc document
+   * @param path the file path where to write to, will get overwritten, 
+   * compressed with BlockGzipOutputStream if the name ends with ".gz"
+   */
+  public void dump(BdocDocument bdoc, File path) {
+    try (OutputStream ostream = BlockGzipOutputStream.open(path);
+         JsonGenerator gen = config(factory().createGenerator(ostream, JsonEncoding.UTF8))) {
+      write(bdoc, gen);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not build and save JSON to "+path, ex);
+    }
+  }
+  
+  /**
+   * Serialise a ChangeLog to a file. 
+   * 
+   * @param clog ChangeLog instance
+   * @param path the file path where to write to, will get overwritten, 
+   * compressed with BlockGzipOutputStream if the name ends with ".gz"
+   */
+  public void dump(ChangeLog clog, File path) {
+    try (OutputStream ostream = BlockGzipOutputStream.open(path);
+         JsonGenerator gen = config(factory().createGenerator(ostream, JsonEncoding.UTF8))) {
+      write(clog, gen);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not build and save JSON to "+path, ex);
+    }
+  }
+  
+  /**
+   * Serialise a BdocDocument to a Writer.
+   * 
+   * @param bdoc BdocDocument instance
+   * @param writer writer to serialise to
+   */
+  public void dump(BdocDocument bdoc, Writer writer) {
+    try (JsonGenerator gen = config(factory().createGenerator(writer))) {
+      write(bdoc, gen);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not build and save JSON to writer", ex);
+    }
+  }
+  
+  /**
+   * Serialise a ChangeLog to a Writer.
+   * 
+   * @param clog ChangeLog instance
+   * @param writer writer to serialise to
+   */
+  public void dump(ChangeLog clog, Writer writer) {
+    try (JsonGenerator gen = config(factory().createGenerator(writer))) {
+      write(clog, gen);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not build and save JSON to writer", ex);
+    }
+  }
+  
+  /**
+   * Serialise a BdocDocument to an OutputStream.
+   * 
+   * @param bdoc BdocDocument instance
+   * @param ostream output stream to serialise to
+   */
+  public void dump(BdocDocument bdoc, OutputStream ostream) {
+    try (JsonGenerator gen = config(factory().createGenerator(ostream, JsonEncoding.UTF8))) {
+      write(bdoc, gen);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not build and save JSON to output stream", ex);
+    }
+  }
+  
+  /**
+   * Serialise a ChangeLog to an OutputStream.
+   * 
+   * @param clog ChangeLog instance
+   * @param ostream output stream to serialise to
+   */
+  public void dump(ChangeLog clog, OutputStream ostream) {
+    try (JsonGenerator gen = config(factory().createGenerator(ostream, JsonEncoding.UTF8))) {
+      write(clog, gen);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not build and save JSON to output stream", ex);
+    }
+  }
+  
+  /**
+   * Serialise a BdocDocument as a String.
+   * 
+   * @param bdoc Bdoc document
+   * @return the generated JSON string
+   */
+  public String dumps(BdocDocument bdoc) {
+    // same as what jackson-jr uses, avoids copying when the buffer grows
+    SegmentedStringWriter writer = new SegmentedStringWriter(factory()._getBufferRecycler());
+    try (JsonGenerator gen = config(factory().createGenerator(writer))) {
+      write(bdoc, gen);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not build JSON String from BdocDocument", ex);
+    }
+    return writer.getAndClear();
+  }
+  
+  /**
+   * Serialise a ChangeLog as a String.
+   * 
+   * @param clog ChangeLog instance
+   * @return the generated JSON string
+   */
+  public String dumps(ChangeLog clog) {
+    SegmentedStringWriter writer = new SegmentedStringWriter(factory()._getBufferRecycler());
+    try (JsonGenerator gen = config(factory().createGenerator(writer))) {
+      write(clog, gen);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not build JSON String from ChangeLog", ex);
+    }
+    return writer.getAndClear();
+  }
+  
+  // 2) Reading
+  
+  /**
+   * Read a document from the parser.
+   * 
+   * The parser must either be positioned before the start of the 
+   * document object or on its START_OBJECT token. When this returns, 
+   * the parser is positioned on the END_OBJECT token of the document.
+   * Unknown fields are ignored.
+   * 
+   * @param parser the parser
+   * @return the document
+   * @throws IOException if reading fails or the JSON is not a document
+   */
+  public BdocDocument readDocument(JsonParser parser) throws IOException {
+    SymbolTable symbols = newSymbols();
+    startObject(parser);
+    BdocDocument bdoc = new BdocDocument();
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      switch(field) {
+        case "annotation_sets":
+          if(token == JsonToken.VALUE_NULL) {
+            bdoc.annotation_sets = null;
+          } else {
+            expect(token, JsonToken.START_OBJECT, parser);
+            bdoc.annotation_sets = new HashMap<>();
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+              String name = parser.getCurrentName();
+              bdoc.annotation_sets.put(name, readSet(parser, parser.nextToken(), symbols));
+            }
+          }
+          break;
+        case "features":
+          bdoc.features = readMap(parser, token, symbols);
+          break;
+        case "gatenlp_type":
+          bdoc.gatenlp_type = constant(parser, "Document");
+          break;
+        case "offset_type":
+          bdoc.offset_type = offsetType(parser);
+          break;
+        case "text":
+          bdoc.text = token == JsonToken.VALUE_NULL ? null : parser.getText();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return bdoc;
+  }
+  
+  private BdocAnnotationSet readSet(JsonParser parser, JsonToken token, 
+          SymbolTable symbols) throws IOException {
+    if(token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    expect(token, JsonToken.START_OBJECT, parser);
+    BdocAnnotationSet annset = new BdocAnnotationSet();
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      token = parser.nextToken();
+      switch(field) {
+        case "annotations":
+          if(token == JsonToken.VALUE_NULL) {
+            annset.annotations = null;
+          } else {
+            expect(token, JsonToken.START_ARRAY, parser);
+            annset.annotations = readAnnotations(parser, symbols);
+          }
+          break;
+        case "gatenlp_type":
+          annset.gatenlp_type = constant(parser, "AnnotationSet");
+          break;
+        case "name":
+          annset.name = token == JsonToken.VALUE_NULL ? null : intern(parser.getText(), symbols);
+          break;
+        case "next_annid":
+          annset.next_annid = token == JsonToken.VALUE_NULL ? null : parser.getIntValue();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return annset;
+  }
+  
+  private List<BdocAnnotation> readAnnotations(JsonParser parser, SymbolTable symbols) 
+          throws IOException {
+    if(columnar) {
+      ColumnarAnnotationList anns = new ColumnarAnnotationList();
+      JsonToken token;
+      while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+        BdocAnnotation ann = readAnnotation(parser, token, symbols);
+        anns.add(ann.id, ann.type, ann.start, ann.end, ann.features);
+      }
+      return anns;
+    } 
+    List<BdocAnnotation> anns = new ArrayList<>();
+    JsonToken token;
+    while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      anns.add(readAnnotation(parser, token, symbols));
+    }
+    return anns;
+  }
+  
+  private BdocAnnotation readAnnotation(JsonParser parser, JsonToken token, 
+          SymbolTable symbols) throws IOException {
+    if(token == JsonToken.VALUE_NULL) {
+      if(columnar) {
+        throw new IOException("Null annotation at "+parser.getCurrentLocation());
+      }
+      return null;
+    }
+    expect(token, JsonToken.START_OBJECT, parser);
+    BdocAnnotation ann = new BdocAnnotation();
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      token = parser.nextToken();
+      switch(field) {
+        case "end":
+          ann.end = parser.getIntValue();
+          break;
+        case "features":
+          ann.features = readMap(parser, token, symbols);
+          break;
+        case "gatenlp_type":
+          ann.gatenlp_type = constant(parser, "Annotation");
+          break;
+        case "id":
+          ann.id = token == JsonToken.VALUE_NULL ? null : parser.getIntValue();
+          break;
+        case "start":
+          ann.start = parser.getIntValue();
+          break;
+        case "type":
+          ann.type = token == JsonToken.VALUE_NULL ? null : intern(parser.getText(), symbols);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return ann;
+  }
+  
+  /**
+   * Read a changelog from the parser.
+   * 
+   * The parser must either be positioned before the start of the 
+   * changelog object or on its START_OBJECT token. When this returns, 
+   * the parser is positioned on the END_OBJECT token of the changelog.
+   * Unknown fields are ignored.
+   * 
+   * @param parser the parser
+   * @return the changelog
+   * @throws IOException if reading fails or the JSON is not a changelog
+   */
+  public ChangeLog readChangeLog(JsonParser parser) throws IOException {
+    SymbolTable symbols = newSymbols();
+    startObject(parser);
+    ChangeLog clog = new ChangeLog();
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      switch(field) {
+        case "changes":
+          if(token == JsonToken.VALUE_NULL) {
+            clog.changes = null;
+          } else {
+            expect(token, JsonToken.START_ARRAY, parser);
+            clog.changes = new ArrayList<>();
+            while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+              clog.changes.add(readMap(parser, token, symbols));
+            }
+          }
+          break;
+        case "gatenlp_type":
+          clog.gatenlp_type = constant(parser, "ChangeLog");
+          break;
+        case "offset_type":
+          clog.offset_type = offsetType(parser);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return clog;
+  }
+  
+  /**
+   * Read a feature value from the parser.
+   * 
+   * The parser must be positioned on the first token of the value. 
+   * Objects are returned as LinkedHashMap, arrays as ArrayList, integers
+   * as Integer, Long or BigInteger depending on their size and floating 
+   * point numbers as Double, or BigDecimal if USE_BIG_DECIMAL_FOR_FLOATS
+   * is enabled, like jackson-jr does. 
+   * 
+   * @param parser the parser
+   * @return the value
+   * @throws IOException if reading fails
+   */
+  public Object readValue(JsonParser parser) throws IOException {
+    return readValue(parser, parser.currentToken(), newSymbols());
+  }
+  
+  private Object readValue(JsonParser parser, JsonToken token, SymbolTable symbols) 
+          throws IOException {
+    if(token == null) {
+      throw new IOException("Unexpected end of input");
+    }
+    switch(token) {
+      case VALUE_STRING:
+        return intern(parser.getText(), symbols);
+      case VALUE_NUMBER_INT:
+        switch(parser.getNumberType()) {
+          case INT:
+            return parser.getIntValue();
+          case LONG:
+            return parser.getLongValue();
+          default:
+            return parser.getBigIntegerValue();
+        }
+      case VALUE_NUMBER_FLOAT:
+        if(bigDecimals) {
+          return parser.getDecimalValue();
+        }
+        return parser.getDoubleValue();
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return null;
+      case START_OBJECT:
+        return readMap(parser, token, symbols);
+      case START_ARRAY:
+        List<Object> list = new ArrayList<>();
+        while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+          list.add(readValue(parser, token, symbols));
+        }
+        return list;
+      case VALUE_EMBEDDED_OBJECT:
+        return parser.getEmbeddedObject();
+      default:
+        throw new IOException("Unexpected token "+token+" at "+
+                parser.getCurrentLocation());
+    }
+  }
+  
+  private LinkedHashMap<String, Object> readMap(JsonParser parser, JsonToken token,
+          SymbolTable symbols) throws IOException {
+    if(token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    expect(token, JsonToken.START_OBJECT, parser);
+    LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      String key = intern(parser.getCurrentName(), symbols);
+      map.put(key, readValue(parser, parser.nextToken(), symbols));
+    }
+    return map;
+  }
+  
+  private static String intern(String str, SymbolTable symbols) {
+    return symbols == null ? str : symbols.intern(str);
+  }
+  
+  private static String constant(JsonParser parser, String expected) 
+          throws IOException {
+    if(parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    String str = parser.getText();
+    return expected.equals(str) ? expected : str;
+  }
+  
+  private static String offsetType(JsonParser parser) throws IOException {
+    if(parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    String str = parser.getText();
+    return "j".equals(str) ? "j" : "p".equals(str) ? "p" : str;
+  }
+  
+  private static void startObject(JsonParser parser) throws IOException {
+    JsonToken token = parser.currentToken();
+    if(token == null) {
+      token = parser.nextToken();
+    }
+    expect(token, JsonToken.START_OBJECT, parser);
+  }
+  
+  private static void expect(JsonToken token, JsonToken expected, JsonParser parser) 
+          throws IOException {
+    if(token != expected) {
+      throw new IOException("Expected "+expected+" but got "+token+" at "+
+              parser.getCurrentLocation());
+    }
+  }
+  
+  /**
+   * Load JSON from stream.
+   * 
+   * @param instream open stream to load from
+   * @return bdoc document instance
+   */
+  public BdocDocument load_doc(InputStream instream) {
+    try (JsonParser parser = factory().createParser(instream)) {
+      return readDocument(parser);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read BdocDocument from input stream", ex);
+    }
+  }
+  
+  /**
+   * Load JSON from reader.
+   * 
+   * @param reader the open reader to load from
+   * @return bdoc document instance
+   */
+  public BdocDocument load_doc(Reader reader) {
+    try (JsonParser parser = factory().createParser(reader)) {
+      return readDocument(parser);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read BdocDocument from reader", ex);
+    }
+  }
+  
+  /**
+   * Load JSON from String.
+   * 
+   * @param json json string
+   * @return bdoc document instance
+   */
+  public BdocDocument loads_doc(String json) {
+    try (JsonParser parser = factory().createParser(json)) {
+      return readDocument(parser);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read BdocDocument from String", ex);
+    }
+  }
+  
+  /**
+   * Load JSON from a file.
+   * 
+   * @param path the file, decompressed if the name ends with ".gz"
+   * @return bdoc document instance
+   */
+  public BdocDocument load_doc(File path) {
+    try (InputStream instream = BlockGzipInputStream.open(path);
+         JsonParser parser = factory().createParser(instream)) {
+      return readDocument(parser);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read BdocDocument from "+path, ex);
+    }
+  }
+  
+  /**
+   * Load JSON changelog representation from a file.
+   * 
+   * @param path the file, decompressed if the name ends with ".gz"
+   * @return changelog instance
+   */
+  public ChangeLog load_log(File path) {
+    try (InputStream instream = BlockGzipInputStream.open(path);
+         JsonParser parser = factory().createParser(instream)) {
+      return readChangeLog(parser);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read BdocChangeLog from "+path, ex);
+    }
+  }
+  
+  /**
+   * Load JSON changelog representation from stream.
+   * 
+   * @param instream open stream
+   * @return changelog instance
+   */
+  public ChangeLog load_log(InputStream instream) {
+    try (JsonParser parser = factory().createParser(instream)) {
+      return readChangeLog(parser);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read BdocChangeLog from input stream", ex);
+    }
+  }
+  
+  /**
+   * Load JSON changelog representation from reader.
+   * 
+   * @param reader open reader
+   * @return changelog instance
+   */
+  public ChangeLog load_log(Reader reader) {
+    try (JsonParser parser = factory().createParser(reader)) {
+      return readChangeLog(parser);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read BdocChangeLog from reader", ex);
+    }
+  }
+  
+  /**
+   * Load JSON changelog representation from string.
+   * 
+   * @param json string
+   * @return changelog instance
+   */
+  public ChangeLog loads_log(String json) {
+    try (JsonParser parser = factory().createParser(json)) {
+      return readChangeLog(parser);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read BdocChangeLog from String", ex);
+    }
+  }
+  
+}
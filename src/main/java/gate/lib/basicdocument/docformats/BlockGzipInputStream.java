@@ -0,0 +1,446 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import static gate.lib.basicdocument.docformats.BlockGzipOutputStream.HEADER_SIZE;
+import static gate.lib.basicdocument.docformats.BlockGzipOutputStream.TRAILER_SIZE;
+import static gate.lib.basicdocument.docformats.BlockGzipOutputStream.getInt;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read gzip data written by BlockGzipOutputStream, decompressing blocks
+ * in parallel.
+ *
+ * The block boundaries are taken from the extra field of each gzip member,
+ * so the compressed members can be read ahead and decompressed by tasks on
+ * the executor while the data of earlier blocks gets consumed. Gzip data
+ * without these extra fields, e.g. written by GZIPOutputStream, is read
+ * with a GZIPInputStream instead.
+ * <p>
+ * When reading from a file, seek() moves to any uncompressed position by
+ * decompressing only the block containing it. The block index for this is
+ * created from the member headers when seek() or length() is first called.
+ * The inflaters used for the blocks are reset for every block and released
+ * when the stream is closed. Instances are not thread-safe.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class BlockGzipInputStream extends InputStream {
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final FileChannel channel;
+  private final Executor executor;
+  private final int maxPending;
+  private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+  private final byte[] header = new byte[HEADER_SIZE];
+  private final BlockGzipSupport.CoderPool<Inflater> inflaters = 
+          new BlockGzipSupport.CoderPool<>(() -> new Inflater(true), Inflater::end);
+  private InputStream in;
+  private InputStream plain;
+  private boolean eof = false;
+  private byte[] current = EMPTY;
+  private int pos = 0;
+  // block index, only for files
+  private long[] memberOffsets;
+  private long[] blockStarts;
+
+  /**
+   * Read from a stream, decompressing on the default executor.
+   *
+   * The default executor is a pool of daemon threads, one per available
+   * processor, shared by all block gzip streams created without an 
+   * executor.
+   *
+   * @param in the compressed stream, gets closed when this stream is closed
+   * @throws IOException if the start of the stream cannot be read
+   */
+  public BlockGzipInputStream(InputStream in) throws IOException {
+    this(in, BlockGzipSupport.defaultExecutor());
+  }
+
+  /**
+   * Read from a stream, decompressing with the given executor.
+   *
+   * At most two blocks per available processor are read ahead.
+   *
+   * @param in the compressed stream, gets closed when this stream is closed
+   * @param executor the executor which runs the decompression tasks
+   * @throws IOException if the start of the stream cannot be read
+   */
+  public BlockGzipInputStream(InputStream in, Executor executor) throws IOException {
+    this.channel = null;
+    this.executor = executor;
+    this.maxPending = 2 * Runtime.getRuntime().availableProcessors();
+    PushbackInputStream pin = new PushbackInputStream(in, HEADER_SIZE);
+    int n = 0;
+    while(n < HEADER_SIZE) {
+      int k = pin.read(header, n, HEADER_SIZE - n);
+      if(k < 0) {
+        break;
+      }
+      n += k;
+    }
+    pin.unread(header, 0, n);
+    if(n == HEADER_SIZE && isBlockHeader(header)) {
+      this.in = pin;
+    } else {
+      plain = new GZIPInputStream(pin, 1 << 16);
+    }
+  }
+
+  /**
+   * Read from a file, decompressing with the given executor.
+   *
+   * The file must have been written by BlockGzipOutputStream.
+   *
+   * @param file the compressed file
+   * @param executor the executor which runs the decompression tasks
+   * @throws IOException if the file cannot be opened or is not in the block format
+   */
+  public BlockGzipInputStream(File file, Executor executor) throws IOException {
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    this.executor = executor;
+    this.maxPending = 2 * Runtime.getRuntime().availableProcessors();
+    ByteBuffer buf = ByteBuffer.wrap(header);
+    while(buf.hasRemaining() && channel.read(buf) >= 0) {
+      // read the first header
+    }
+    if(buf.hasRemaining() || !isBlockHeader(header)) {
+      channel.close();
+      throw new IOException("Not a block gzip file: "+file);
+    }
+    reposition(0);
+  }
+
+  /**
+   * Open a file for reading, decompressed if the name ends with ".gz".
+   *
+   * Gzip files in the block format get decompressed in parallel on the
+   * default executor, other gzip files with GZIPInputStream.
+   *
+   * @param path the file
+   * @return stream to read from, must be closed
+   * @throws IOException if the file cannot be opened
+   */
+  public static InputStream open(File path) throws IOException {
+    return open(path, BlockGzipSupport.defaultExecutor());
+  }
+
+  /**
+   * Open a file for reading, decompressed if the name ends with ".gz".
+   *
+   * Gzip files in the block format get decompressed in parallel with the
+   * given executor, other gzip files with GZIPInputStream.
+   *
+   * @param path the file
+   * @param executor the executor which runs the decompression tasks
+   * @return stream to read from, must be closed
+   * @throws IOException if the file cannot be opened
+   */
+  public static InputStream open(File path, Executor executor) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(path), 1 << 16);
+    if(path.getName().endsWith(".gz")) {
+      try {
+        return new BlockGzipInputStream(in, executor);
+      } catch (IOException ex) {
+        in.close();
+        throw ex;
+      }
+    }
+    return in;
+  }
+
+  private static boolean isBlockHeader(byte[] h) {
+    return (h[0] & 0xff) == 0x1f && (h[1] & 0xff) == 0x8b && h[2] == 8 && h[3] == 4 &&
+            h[10] == 12 && h[11] == 0 && h[12] == 'B' && h[13] == 'D' &&
+            h[14] == 8 && h[15] == 0;
+  }
+
+  private void reposition(long offset) throws IOException {
+    pending.clear();
+    channel.position(offset);
+    in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+    eof = false;
+    current = EMPTY;
+    pos = 0;
+  }
+
+  /**
+   * Read the next compressed member, or return null at the end.
+   */
+  private byte[] readMember() throws IOException {
+    int n = 0;
+    while(n < HEADER_SIZE) {
+      int k = in.read(header, n, HEADER_SIZE - n);
+      if(k < 0) {
+        if(n == 0) {
+          return null;
+        }
+        throw new EOFException("Truncated gzip member header");
+      }
+      n += k;
+    }
+    if(!isBlockHeader(header)) {
+      throw new ZipException("Gzip member is not in the block format");
+    }
+    int size = getInt(header, 16);
+    if(size < HEADER_SIZE + TRAILER_SIZE) {
+      throw new ZipException("Invalid gzip member size "+size);
+    }
+    byte[] member = Arrays.copyOf(header, size);
+    while(n < size) {
+      int k = in.read(member, n, size - n);
+      if(k < 0) {
+        throw new EOFException("Truncated gzip member");
+      }
+      n += k;
+    }
+    return member;
+  }
+
+  /**
+   * Decompress a member and check its CRC and size.
+   *
+   * @param inflater an inflater for raw deflate data which has been reset
+   * @param member the complete gzip member
+   * @return the uncompressed block
+   */
+  static byte[] decompress(Inflater inflater, byte[] member) {
+    int size = member.length;
+    int usize = getInt(member, 20);
+    byte[] data = new byte[usize];
+    inflater.setInput(member, HEADER_SIZE, size - HEADER_SIZE - TRAILER_SIZE);
+    try {
+      int n = 0;
+      while(n < usize) {
+        int k = inflater.inflate(data, n, usize - n);
+        if(k == 0 && (inflater.finished() || inflater.needsInput())) {
+          break;
+        }
+        n += k;
+      }
+      if(n < usize || !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+        throw new ZipException("Gzip block size does not match its header");
+      }
+    } catch (DataFormatException | ZipException ex) {
+      throw new UncheckedIOException(new ZipException("Corrupt gzip block: "+ex.getMessage()));
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, usize);
+    if(getInt(member, size - TRAILER_SIZE) != (int)crc.getValue() ||
+            getInt(member, size - TRAILER_SIZE + 4) != usize) {
+      throw new UncheckedIOException(new ZipException("Corrupt gzip block: CRC or size mismatch"));
+    }
+    return data;
+  }
+
+  private byte[] decompress(byte[] member) {
+    Inflater inflater = inflaters.get();
+    try {
+      return decompress(inflater, member);
+    } finally {
+      inflater.reset();
+      inflaters.release(inflater);
+    }
+  }
+
+  private boolean nextBlock() throws IOException {
+    while(!eof && pending.size() < maxPending) {
+      byte[] member = readMember();
+      if(member == null) {
+        eof = true;
+      } else {
+        pending.add(CompletableFuture.supplyAsync(() -> decompress(member), executor));
+      }
+    }
+    if(pending.isEmpty()) {
+      return false;
+    }
+    try {
+      current = pending.poll().join();
+    } catch (CompletionException ex) {
+      if(ex.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException)ex.getCause()).getCause();
+      }
+      throw new IOException("Could not decompress block", ex.getCause());
+    }
+    pos = 0;
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if(plain != null) {
+      return plain.read();
+    }
+    while(pos == current.length) {
+      if(!nextBlock()) {
+        return -1;
+      }
+    }
+    return current[pos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if(plain != null) {
+      return plain.read(b, off, len);
+    }
+    if(len == 0) {
+      return 0;
+    }
+    while(pos == current.length) {
+      if(!nextBlock()) {
+        return -1;
+      }
+    }
+    int n = Math.min(len, current.length - pos);
+    System.arraycopy(current, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if(plain != null) {
+      return plain.available();
+    }
+    return current.length - pos;
+  }
+
+  private void buildIndex() throws IOException {
+    if(channel == null) {
+      throw new UnsupportedOperationException("Seeking is only supported for files");
+    }
+    if(memberOffsets != null) {
+      return;
+    }
+    long[] offsets = new long[64];
+    long[] starts = new long[65];
+    int n = 0;
+    long offset = 0;
+    long start = 0;
+    long end = channel.size();
+    byte[] h = new byte[HEADER_SIZE];
+    while(offset < end) {
+      ByteBuffer buf = ByteBuffer.wrap(h);
+      while(buf.hasRemaining()) {
+        if(channel.read(buf, offset + buf.position()) < 0) {
+          throw new EOFException("Truncated gzip member header");
+        }
+      }
+      if(!isBlockHeader(h)) {
+        throw new ZipException("Gzip member is not in the block format");
+      }
+      if(n == offsets.length) {
+        offsets = Arrays.copyOf(offsets, n * 2);
+        starts = Arrays.copyOf(starts, n * 2 + 1);
+      }
+      offsets[n] = offset;
+      starts[n] = start;
+      n++;
+      offset += getInt(h, 16);
+      start += getInt(h, 20) & 0xffffffffL;
+    }
+    starts[n] = start;
+    memberOffsets = Arrays.copyOf(offsets, n);
+    blockStarts = Arrays.copyOf(starts, n + 1);
+  }
+
+  /**
+   * The total number of uncompressed bytes in the file.
+   *
+   * @return uncompressed length
+   * @throws IOException if the block index cannot be created
+   */
+  public long length() throws IOException {
+    buildIndex();
+    return blockStarts[blockStarts.length - 1];
+  }
+
+  /**
+   * Move to a position in the uncompressed data of the file.
+   *
+   * @param position the uncompressed position, at most length()
+   * @throws IOException if the block index cannot be created or read
+   */
+  public void seek(long position) throws IOException {
+    buildIndex();
+    if(position < 0 || position > length()) {
+      throw new IOException("Position "+position+" not in 0 to "+length());
+    }
+    int k = Arrays.binarySearch(blockStarts, position);
+    if(k < 0) {
+      k = -k - 2;
+    }
+    if(k >= memberOffsets.length) {
+      reposition(channel.size());
+      return;
+    }
+    // empty blocks share their start with the next block
+    while(k + 1 < memberOffsets.length && blockStarts[k + 1] == position) {
+      k++;
+    }
+    reposition(memberOffsets[k]);
+    if(nextBlock()) {
+      pos = (int)(position - blockStarts[k]);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    pending.clear();
+    // blocks which are still being decompressed end their inflater
+    inflaters.close();
+    try {
+      if(plain != null) {
+        plain.close();
+      } else {
+        in.close();
+      }
+    } finally {
+      if(channel != null) {
+        channel.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression of independent blocks on several threads.
+ *
+ * The data is cut into blocks of a fixed size and each block is compressed
+ * into a complete gzip member by a task on the executor, while the members
+ * are written in order. A concatenation of gzip members is a standard gzip
+ * file, so the output can be read by any gzip reader, e.g. GZIPInputStream.
+ * <p>
+ * Each member has a gzip extra field (subfield "BD") with the compressed
+ * size of the member and the uncompressed size of its block, both as
+ * 4 byte little-endian numbers. This lets BlockGzipInputStream find the
+ * block boundaries without decompressing, decompress several blocks in
+ * parallel and seek.
+ * <p>
+ * flush() ends the current block early. The deflaters used for the blocks
+ * are reset for every block and released when the stream is closed. 
+ * Instances are not thread-safe.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class BlockGzipOutputStream extends OutputStream {
+
+  /**
+   * Default number of uncompressed bytes per block.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+
+  static final int HEADER_SIZE = 24;
+  static final int TRAILER_SIZE = 8;
+
+  private final OutputStream out;
+  private final Executor executor;
+  private final int blockSize;
+  private final int level;
+  private final int maxPending;
+  private final ArrayDeque<Block> pending = new ArrayDeque<>();
+  private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+  private final BlockGzipSupport.CoderPool<Deflater> deflaters = new BlockGzipSupport.CoderPool<>(
+          () -> new Deflater(Deflater.DEFAULT_COMPRESSION, true), Deflater::end);
+  private byte[] block;
+  private int len = 0;
+  private long members = 0;
+  private boolean closed = false;
+
+  /**
+   * A block which is being compressed.
+   */
+  private static class Block {
+    final byte[] data;
+    final CompletableFuture<byte[]> member;
+    Block(byte[] data, CompletableFuture<byte[]> member) {
+      this.data = data;
+      this.member = member;
+    }
+  }
+
+  /**
+   * Compress with the default block size and level on the default executor.
+   *
+   * The default executor is a pool of daemon threads, one per available
+   * processor, shared by all block gzip streams created without an 
+   * executor.
+   *
+   * @param out the stream to write the compressed data to
+   */
+  public BlockGzipOutputStream(OutputStream out) {
+    this(out, BlockGzipSupport.defaultExecutor(), DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Compress with the given executor, block size and level.
+   *
+   * At most two blocks per available processor are compressed or waiting
+   * to be written at any time.
+   *
+   * @param out the stream to write the compressed data to
+   * @param executor the executor which runs the compression tasks
+   * @param blockSize number of uncompressed bytes per block
+   * @param level the deflate compression level, 0 to 9 or -1 for the default
+   */
+  public BlockGzipOutputStream(OutputStream out, Executor executor, int blockSize, int level) {
+    if(blockSize < 1 || blockSize > 1 << 30) {
+      throw new IllegalArgumentException("Block size must be between 1 and 2^30 but is "+blockSize);
+    }
+    if(level < -1 || level > 9) {
+      throw new IllegalArgumentException("Compression level must be between -1 and 9 but is "+level);
+    }
+    this.out = out;
+    this.executor = executor;
+    this.blockSize = blockSize;
+    this.level = level;
+    this.maxPending = 2 * Runtime.getRuntime().availableProcessors();
+    this.block = new byte[blockSize];
+  }
+
+  /**
+   * Open a file for writing, compressed on the default executor if the 
+   * name ends with ".gz".
+   *
+   * @param path the file, gets overwritten
+   * @return stream to write to, must be closed
+   * @throws IOException if the file cannot be opened
+   */
+  public static OutputStream open(File path) throws IOException {
+    return open(path, BlockGzipSupport.defaultExecutor());
+  }
+
+  /**
+   * Open a file for writing, compressed with the given executor if the 
+   * name ends with ".gz".
+   *
+   * @param path the file, gets overwritten
+   * @param executor the executor which runs the compression tasks
+   * @return stream to write to, must be closed
+   * @throws IOException if the file cannot be opened
+   */
+  public static OutputStream open(File path, Executor executor) throws IOException {
+    if(path.getName().endsWith(".gz")) {
+      return new BlockGzipOutputStream(
+              new BufferedOutputStream(new FileOutputStream(path), 1 << 16),
+              executor, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+    return new FileOutputStream(path);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if(len == blockSize) {
+      submit();
+    }
+    block[len++] = (byte)b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int n) throws IOException {
+    while(n > 0) {
+      if(len == blockSize) {
+        submit();
+      }
+      int k = Math.min(n, blockSize - len);
+      System.arraycopy(b, off, block, len, k);
+      len += k;
+      off += k;
+      n -= k;
+    }
+  }
+
+  private void submit() throws IOException {
+    if(closed) {
+      throw new IOException("Stream closed");
+    }
+    final byte[] data = block;
+    final int n = len;
+    pending.add(new Block(data, 
+            CompletableFuture.supplyAsync(() -> compress(data, n), executor)));
+    members++;
+    // reuse the buffers of blocks which have been written
+    block = free.isEmpty() ? new byte[blockSize] : free.pop();
+    len = 0;
+    while(pending.size() > maxPending) {
+      writeNext();
+    }
+  }
+
+  private void writeNext() throws IOException {
+    Block next = pending.poll();
+    byte[] member;
+    try {
+      member = next.member.join();
+    } catch (CompletionException ex) {
+      throw new IOException("Could not compress block", ex.getCause());
+    }
+    out.write(member, 0, getInt(member, 16));
+    free.push(next.data);
+  }
+
+  private void drain() throws IOException {
+    while(!pending.isEmpty()) {
+      writeNext();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if(len > 0) {
+      submit();
+    }
+    drain();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(closed) {
+      return;
+    }
+    // an empty stream still gets one member, so the output is valid gzip
+    if(len > 0 || members == 0) {
+      submit();
+    }
+    closed = true;
+    try {
+      drain();
+    } finally {
+      deflaters.close();
+      out.close();
+    }
+  }
+
+  private byte[] compress(byte[] data, int n) {
+    Deflater deflater = deflaters.get();
+    try {
+      return compress(deflater, data, n, level);
+    } finally {
+      deflater.reset();
+      deflaters.release(deflater);
+    }
+  }
+
+  /**
+   * Compress a block into a complete gzip member.
+   *
+   * @param deflater a deflater for raw deflate data which has been reset
+   * @param data the uncompressed data
+   * @param n number of bytes to use from data
+   * @param level the compression level
+   * @return the member at the start of the array, its size is in the header
+   */
+  static byte[] compress(Deflater deflater, byte[] data, int n, int level) {
+    deflater.setLevel(level);
+    deflater.setInput(data, 0, n);
+    deflater.finish();
+    byte[] buf = new byte[HEADER_SIZE + n + (n >> 4) + 64 + TRAILER_SIZE];
+    int pos = HEADER_SIZE;
+    while(!deflater.finished()) {
+      if(pos == buf.length - TRAILER_SIZE) {
+        buf = Arrays.copyOf(buf, buf.length * 2);
+      }
+      pos += deflater.deflate(buf, pos, buf.length - TRAILER_SIZE - pos);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, n);
+    int size = pos + TRAILER_SIZE;
+    // fixed header: magic, deflate, FEXTRA, no mtime, unknown OS
+    buf[0] = 0x1f;
+    buf[1] = (byte)0x8b;
+    buf[2] = 8;
+    buf[3] = 4;
+    buf[4] = buf[5] = buf[6] = buf[7] = 0;
+    buf[8] = 0;
+    buf[9] = (byte)255;
+    putShort(buf, 10, 12);
+    buf[12] = 'B';
+    buf[13] = 'D';
+    putShort(buf, 14, 8);
+    putInt(buf, 16, size);
+    putInt(buf, 20, n);
+    putInt(buf, pos, (int)crc.getValue());
+    putInt(buf, pos + 4, n);
+    return buf;
+  }
+
+  static int getInt(byte[] buf, int pos) {
+    return (buf[pos] & 0xff) | (buf[pos+1] & 0xff) << 8 | 
+            (buf[pos+2] & 0xff) << 16 | (buf[pos+3] & 0xff) << 24;
+  }
+
+  private static void putShort(byte[] buf, int pos, int v) {
+    buf[pos] = (byte)v;
+    buf[pos+1] = (byte)(v >>> 8);
+  }
+
+  private static void putInt(byte[] buf, int pos, int v) {
+    buf[pos] = (byte)v;
+    buf[pos+1] = (byte)(v >>> 8);
+    buf[pos+2] = (byte)(v >>> 16);
+    buf[pos+3] = (byte)(v >>> 24);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * What BlockGzipOutputStream and BlockGzipInputStream share: the default
+ * executor and the pool of deflaters or inflaters of a stream.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+final class BlockGzipSupport {
+
+  private BlockGzipSupport() {
+  }
+
+  /**
+   * Holder for the default executor, so the threads only get created
+   * when a block gzip stream without an executor is first used.
+   */
+  private static final class DefaultExecutor {
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    static final ThreadPoolExecutor POOL;
+    static {
+      int n = Runtime.getRuntime().availableProcessors();
+      POOL = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "bdoc-gzip-" + THREADS.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              });
+      POOL.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  /**
+   * The executor used by the block gzip streams if none is given.
+   *
+   * This is a pool of at most one daemon thread per available processor,
+   * which end after being idle for 30 seconds. Unlike the common pool, it
+   * does not compete with parallel streams and fork/join tasks of the
+   * application.
+   *
+   * @return the default executor
+   */
+  static Executor defaultExecutor() {
+    return DefaultExecutor.POOL;
+  }
+
+  /**
+   * The deflaters or inflaters of one stream.
+   *
+   * The tasks of the stream take an instance, reset it and give it back,
+   * so there are at most as many instances as tasks running at the same
+   * time. close() ends the instances which are not in use, any that are
+   * given back afterwards get ended right away, so the native memory is
+   * released without waiting for the tasks.
+   *
+   * @param <T> Deflater or Inflater
+   */
+  static final class CoderPool<T> {
+    private final ArrayDeque<T> free = new ArrayDeque<>();
+    private final Supplier<T> factory;
+    private final Consumer<T> end;
+    private boolean closed = false;
+
+    CoderPool(Supplier<T> factory, Consumer<T> end) {
+      this.factory = factory;
+      this.end = end;
+    }
+
+    synchronized T get() {
+      T coder = free.poll();
+      return coder == null ? factory.get() : coder;
+    }
+
+    synchronized void release(T coder) {
+      if(closed) {
+        end.accept(coder);
+      } else {
+        free.push(coder);
+      }
+    }
+
+    synchronized void close() {
+      closed = true;
+      for(T coder : free) {
+        end.accept(coder);
+      }
+      free.clear();
+    }
+  }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import com.fasterxml.jackson.core.JsonParser;
+import gate.lib.basicdocument.BdocDocument;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * Random access to the documents of an indexed corpus file.
+ *
+ * An indexed corpus is a data file which contains the encoded documents
+ * one after the other, and a sidecar index file with the byte offset and
+ * length of each document. With the JSON encoding the data file is a
+ * JSON Lines file as written by JsonLinesWriter, with the binary encoding
+ * it contains the SimpleBinary representations of the documents.
+ * Documents are identified by their number in the corpus, starting with 0.
+ * <p>
+ * The data file and the index get memory-mapped, so fetching a document
+ * only slices the mapped buffer at the offset from the index and decodes
+ * the slice. Files larger than 2G get mapped in overlapping segments, so
+ * that every document is inside one segment. Instances are thread-safe.
+ * <p>
+ * The index file has a header of 32 bytes: the magic bytes "BDIX", the
+ * version byte 1, the encoding byte 'J' or 'B', two reserved bytes,
+ * the number of documents (long), the maximum document length (int),
+ * four reserved bytes and the number of bytes of the data file covered
+ * by the index (long). Each document then has an entry of 12 bytes:
+ * the offset (long) and length (int) in the data file. All numbers are
+ * big-endian. Writers create the index together with the data file,
+ * for existing files or after a crash the index can be recreated with
+ * rebuildIndex, also from the command line, see main(args).
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class IndexedCorpus implements Closeable {
+
+  /**
+   * The encoding of the documents in an indexed corpus.
+   */
+  public static enum Encoding {
+    /**
+     * Compact bdoc JSON, one document per line.
+     */
+    JSON('J'),
+    /**
+     * Bdoc binary as written by SimpleBinary.
+     */
+    BINARY('B');
+
+    private final byte code;
+
+    Encoding(char code) {
+      this.code = (byte)code;
+    }
+
+    static Encoding forCode(int code) throws IOException {
+      for(Encoding encoding : values()) {
+        if(encoding.code == code) {
+          return encoding;
+        }
+      }
+      throw new IOException("Unknown encoding in corpus index: "+code);
+    }
+  }
+
+  static final int HEADER_SIZE = 32;
+  static final int ENTRY_SIZE = 12;
+  private static final byte[] MAGIC = { 0x42, 0x44, 0x49, 0x58 };
+  private static final int VERSION = 1;
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  /**
+   * The fields of the index header.
+   */
+  static class Header {
+    Encoding encoding;
+    long count;
+    int maxLength;
+    long dataLength;
+  }
+
+  private final File file;
+  private final BdocJsonCodec codec;
+  private final SimpleBinary binary = new SimpleBinary();
+  private final Header header;
+  private final FileChannel channel;
+  private final MappedByteBuffer index;
+  private final MappedByteBuffer[] segments;
+  private final long overlap;
+
+  /**
+   * Open the corpus, using the default JSON codec.
+   *
+   * @param file the data file, the index must be at indexFile(file)
+   * @throws IOException if the files cannot be opened or do not match
+   */
+  public IndexedCorpus(File file) throws IOException {
+    this(file, BdocJsonCodec.getDefault());
+  }
+
+  /**
+   * Open the corpus.
+   *
+   * @param file the data file, the index must be at indexFile(file)
+   * @param codec the codec to use for JSON documents
+   * @throws IOException if the files cannot be opened or do not match
+   */
+  public IndexedCorpus(File file, BdocJsonCodec codec) throws IOException {
+    this.file = file;
+    this.codec = codec;
+    File indexFile = indexFile(file);
+    header = readHeader(indexFile);
+    if(header.dataLength > file.length()) {
+      throw new IOException("Index "+indexFile+" covers more than "+file+
+              ", rebuild the index");
+    }
+    try (FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      long size = HEADER_SIZE + header.count * ENTRY_SIZE;
+      if(indexChannel.size() < size) {
+        throw new IOException("Index "+indexFile+" is truncated, rebuild the index");
+      }
+      if(size > Integer.MAX_VALUE) {
+        throw new IOException("Too many documents in "+indexFile);
+      }
+      index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    overlap = Math.min(header.maxLength, Integer.MAX_VALUE - SEGMENT_SIZE);
+    segments = new MappedByteBuffer[(int)((header.dataLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+  }
+
+  /**
+   * The index file for a data file: the same name with ".idx" appended.
+   *
+   * @param file the data file
+   * @return index file
+   */
+  public static File indexFile(File file) {
+    return new File(file.getPath() + ".idx");
+  }
+
+  /**
+   * Number of documents in the corpus.
+   *
+   * @return number of documents
+   */
+  public long size() {
+    return header.count;
+  }
+
+  /**
+   * The encoding of the documents.
+   *
+   * @return encoding
+   */
+  public Encoding getEncoding() {
+    return header.encoding;
+  }
+
+  /**
+   * The encoded bytes of a document.
+   *
+   * The returned buffer is a read-only view of the mapped data file.
+   *
+   * @param n the number of the document
+   * @return buffer with the bytes of the document between position and limit
+   */
+  public ByteBuffer getBytes(long n) {
+    if(n < 0 || n >= header.count) {
+      throw new IndexOutOfBoundsException("Document "+n+" not in corpus of size "+header.count);
+    }
+    int entry = (int)(HEADER_SIZE + n * ENTRY_SIZE);
+    long offset = index.getLong(entry);
+    int length = index.getInt(entry + 8);
+    try {
+      if(length > overlap) {
+        // larger than the overlap of the segments, map on its own
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asReadOnlyBuffer();
+      }
+      int k = (int)(offset / SEGMENT_SIZE);
+      ByteBuffer buf = segment(k).asReadOnlyBuffer();
+      int start = (int)(offset - k * SEGMENT_SIZE);
+      buf.position(start);
+      buf.limit(start + length);
+      return buf.slice();
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Could not map document "+n+" of "+file, ex);
+    }
+  }
+
+  /**
+   * Fetch a document.
+   *
+   * @param n the number of the document
+   * @return document
+   */
+  public BdocDocument get(long n) {
+    InputStream in = new ByteBufferInputStream(getBytes(n));
+    if(header.encoding == Encoding.BINARY) {
+      return binary.load_doc(in);
+    }
+    try (JsonParser parser = codec.getJSON().getStreamingFactory().createParser(in)) {
+      return codec.readDocument(parser);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Could not read document "+n+" of "+file, ex);
+    }
+  }
+
+  private synchronized MappedByteBuffer segment(int k) throws IOException {
+    if(segments[k] == null) {
+      long start = k * SEGMENT_SIZE;
+      long size = Math.min(SEGMENT_SIZE + overlap, header.dataLength - start);
+      segments[k] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+    return segments[k];
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  static Header readHeader(File indexFile) throws IOException {
+    Header header = new Header();
+    try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+      byte[] magic = new byte[MAGIC.length];
+      raf.readFully(magic);
+      for(int i = 0; i < MAGIC.length; i++) {
+        if(magic[i] != MAGIC[i]) {
+          throw new IOException("Not a corpus index: "+indexFile);
+        }
+      }
+      int version = raf.readUnsignedByte();
+      if(version != VERSION) {
+        throw new IOException("Unsupported corpus index version "+version+" in "+indexFile);
+      }
+      header.encoding = Encoding.forCode(raf.readUnsignedByte());
+      raf.readShort();
+      header.count = raf.readLong();
+      header.maxLength = raf.readInt();
+      raf.readInt();
+      header.dataLength = raf.readLong();
+    }
+    return header;
+  }
+
+  static void writeHeader(File indexFile, Encoding encoding, long count,
+          int maxLength, long dataLength) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+      raf.write(MAGIC);
+      raf.writeByte(VERSION);
+      raf.writeByte(encoding.code);
+      raf.writeShort(0);
+      raf.writeLong(count);
+      raf.writeInt(maxLength);
+      raf.writeInt(0);
+      raf.writeLong(dataLength);
+    }
+  }
+
+  /**
+   * Create the index for an existing data file.
+   *
+   * For JSON, every non-empty line is a document. For binary, the documents
+   * get decoded one after the other to find where each one ends. An
+   * existing index gets replaced.
+   *
+   * @param file the data file
+   * @param encoding the encoding of the documents
+   * @return number of documents found
+   * @throws IOException if the data file cannot be read
+   */
+  public static long rebuildIndex(File file, Encoding encoding) throws IOException {
+    File indexFile = indexFile(file);
+    File tmpFile = new File(indexFile.getPath() + ".tmp");
+    long count = 0;
+    int maxLength = 0;
+    long dataLength = file.length();
+    writeHeader(tmpFile, encoding, 0, 0, 0);
+    try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmpFile, true), 1 << 16));
+         CountingInputStream in = new CountingInputStream(
+                 new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      if(encoding == Encoding.JSON) {
+        // a document spans from the first to the last non-blank byte of a line
+        byte[] buf = new byte[1 << 16];
+        long pos = 0;
+        long first = -1;
+        long last = -1;
+        int n;
+        while((n = in.read(buf)) >= 0) {
+          for(int i = 0; i < n; i++, pos++) {
+            byte b = buf[i];
+            if(b == '\n') {
+              if(first >= 0) {
+                maxLength = writeEntry(out, first, last + 1 - first, maxLength);
+                count++;
+              }
+              first = -1;
+            } else if(b != ' ' && b != '\t' && b != '\r') {
+              if(first < 0) {
+                first = pos;
+              }
+              last = pos;
+            }
+          }
+        }
+        if(first >= 0) {
+          maxLength = writeEntry(out, first, last + 1 - first, maxLength);
+          count++;
+        }
+      } else {
+        SimpleBinary binary = new SimpleBinary();
+        while(in.getByteCount() < dataLength) {
+          long start = in.getByteCount();
+          binary.load_doc(in);
+          maxLength = writeEntry(out, start, in.getByteCount() - start, maxLength);
+          count++;
+        }
+      }
+    }
+    writeHeader(tmpFile, encoding, count, maxLength, dataLength);
+    Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return count;
+  }
+
+  private static int writeEntry(DataOutputStream out, long offset, long length,
+          int maxLength) throws IOException {
+    if(length > Integer.MAX_VALUE) {
+      throw new IOException("Document too large for an indexed corpus: "+length+" bytes");
+    }
+    out.writeLong(offset);
+    out.writeInt((int)length);
+    return Math.max(maxLength, (int)length);
+  }
+
+  /**
+   * Minimal input stream over a byte buffer, without copying.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+    ByteBufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+    @Override
+    public int read() {
+      return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+    }
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if(len == 0) {
+        return 0;
+      }
+      if(!buf.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buf.remaining());
+      buf.get(b, off, n);
+      return n;
+    }
+    @Override
+    public int available() {
+      return buf.remaining();
+    }
+  }
+
+  /**
+   * Rebuild the index of a corpus file from the command line.
+   *
+   * Usage: IndexedCorpus [-f json|binary] dataFile ... The encoding defaults
+   * to binary for files ending in ".bdocbin" and JSON otherwise.
+   *
+   * @param args command line arguments
+   */
+  public static void main(String[] args) {
+    Encoding encoding = null;
+    int nfiles = 0;
+    try {
+      for(int i = 0; i < args.length; i++) {
+        if(args[i].equals("-f")) {
+          switch(args[++i]) {
+            case "json": encoding = Encoding.JSON; break;
+            case "binary": encoding = Encoding.BINARY; break;
+            default: throw new IllegalArgumentException("Unknown format "+args[i]);
+          }
+        } else if(args[i].startsWith("-")) {
+          throw new IllegalArgumentException("Unknown option "+args[i]);
+        } else {
+          nfiles++;
+        }
+      }
+      if(nfiles == 0) {
+        throw new IllegalArgumentException("Need at least one data file");
+      }
+    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+      System.err.println("Error: "+ex.getMessage());
+      System.err.println("Usage: IndexedCorpus [-f json|binary] dataFile ...");
+      System.exit(2);
+    }
+    int status = 0;
+    for(int i = 0; i < args.length; i++) {
+      if(args[i].equals("-f")) {
+        i++;
+        continue;
+      }
+      File file = new File(args[i]);
+      Encoding enc = encoding;
+      if(enc == null) {
+        enc = file.getName().endsWith(".bdocbin") ? Encoding.BINARY : Encoding.JSON;
+      }
+      try {
+        long n = rebuildIndex(file, enc);
+        System.err.println(file+": "+n+" documents indexed");
+      } catch (IOException | RuntimeException ex) {
+        System.err.println("FAILED: "+file+": "+ex.getMessage());
+        status = 1;
+      }
+    }
+    System.exit(status);
+  }
+}
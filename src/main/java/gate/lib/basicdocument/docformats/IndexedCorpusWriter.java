@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.docformats.IndexedCorpus.Encoding;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Append documents to an indexed corpus file and its index.
+ *
+ * The documents get appended to the data file and one entry per document
+ * gets appended to the index file. The document count in the index header
+ * is only updated when the writer is closed: if the writer does not get
+ * closed, the index can be recreated with IndexedCorpus.rebuildIndex.
+ * <p>
+ * If the data file already exists, its index must exist, use the same
+ * encoding and cover the whole data file. Instances are not thread-safe.
+ *
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class IndexedCorpusWriter implements Closeable {
+
+  private final File indexFile;
+  private final Encoding encoding;
+  private final CountingOutputStream data;
+  private final DataOutputStream index;
+  private final JsonLinesWriter jsonWriter;
+  private final SimpleBinary binary;
+  private final long startOffset;
+  private long count;
+  private int maxLength;
+
+  /**
+   * Create a writer which uses the default JSON codec.
+   *
+   * @param file the data file, the index is written to IndexedCorpus.indexFile(file)
+   * @param encoding the encoding of the documents
+   * @throws IOException if the files cannot be opened or do not match
+   */
+  public IndexedCorpusWriter(File file, Encoding encoding) throws IOException {
+    this(file, encoding, BdocJsonCodec.getDefault());
+  }
+
+  /**
+   * Create a writer.
+   *
+   * @param file the data file, the index is written to IndexedCorpus.indexFile(file)
+   * @param encoding the encoding of the documents
+   * @param codec the codec to use for JSON, pretty printing gets disabled
+   * @throws IOException if the files cannot be opened or do not match
+   */
+  public IndexedCorpusWriter(File file, Encoding encoding, BdocJsonCodec codec)
+          throws IOException {
+    this.encoding = encoding;
+    indexFile = IndexedCorpus.indexFile(file);
+    if(file.exists() && file.length() > 0) {
+      IndexedCorpus.Header header = IndexedCorpus.readHeader(indexFile);
+      if(header.encoding != encoding) {
+        throw new IOException("Corpus "+file+" uses encoding "+header.encoding);
+      }
+      if(header.dataLength != file.length()) {
+        throw new IOException("Index "+indexFile+" does not cover "+file+
+                ", rebuild the index first");
+      }
+      count = header.count;
+      maxLength = header.maxLength;
+      // drop entries beyond the count, left over by a writer which was not closed
+      try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+        raf.setLength(IndexedCorpus.HEADER_SIZE + count * IndexedCorpus.ENTRY_SIZE);
+      }
+    } else {
+      Files.deleteIfExists(indexFile.toPath());
+      IndexedCorpus.writeHeader(indexFile, encoding, 0, 0, 0);
+    }
+    startOffset = file.exists() ? file.length() : 0;
+    data = new CountingOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+    index = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(indexFile, true), 1 << 16));
+    if(encoding == Encoding.JSON) {
+      jsonWriter = new JsonLinesWriter(data, codec);
+      binary = null;
+    } else {
+      jsonWriter = null;
+      binary = new SimpleBinary();
+    }
+  }
+
+  /**
+   * Append a document.
+   *
+   * @param bdoc the document
+   * @return the number of the document in the corpus
+   * @throws IOException if writing fails
+   */
+  public long write(BdocDocument bdoc) throws IOException {
+    long offset = startOffset + data.getByteCount();
+    if(encoding == Encoding.JSON) {
+      jsonWriter.write(bdoc);
+    } else {
+      binary.dump(bdoc, data);
+    }
+    long length = startOffset + data.getByteCount() - offset;
+    if(encoding == Encoding.JSON) {
+      length--; // the newline is not part of the document
+    }
+    if(length > Integer.MAX_VALUE) {
+      throw new IOException("Document too large for an indexed corpus: "+length+" bytes");
+    }
+    index.writeLong(offset);
+    index.writeInt((int)length);
+    maxLength = Math.max(maxLength, (int)length);
+    return count++;
+  }
+
+  /**
+   * Number of documents in the corpus, including those already there.
+   *
+   * @return number of documents
+   */
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    data.close();
+    index.close();
+    IndexedCorpus.writeHeader(indexFile, encoding, count, maxLength,
+            startOffset + data.getByteCount());
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import gate.lib.basicdocument.BdocDocument;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Read and write many documents in one JSON Lines file.
+ * 
+ * A JSON Lines corpus contains one bdoc JSON document, as written by 
+ * SimpleJson without pretty printing, per line. Empty lines are ignored. 
+ * Documents get appended with a JsonLinesWriter and read back one at a 
+ * time with an iterator or a stream. Streams over a file can be 
+ * parallel: the file then gets split into byte ranges which are read 
+ * independently, see JsonLinesSpliterator.
+ * <p>
+ * All documents are written and read with the codec given to the 
+ * constructor, e.g. one with a shared SymbolTable for a whole corpus.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class JsonLines {
+  
+  private final BdocJsonCodec codec;
+  
+  /**
+   * Use the default codec.
+   */
+  public JsonLines() {
+    this(BdocJsonCodec.getDefault());
+  }
+  
+  /**
+   * Use the given codec.
+   * 
+   * @param codec the codec to use
+   */
+  public JsonLines(BdocJsonCodec codec) {
+    this.codec = codec;
+  }
+  
+  /**
+   * Open a writer which appends to the file, or creates it.
+   * 
+   * @param file the file
+   * @return writer, must be closed
+   */
+  public JsonLinesWriter writer(File file) {
+    try {
+      return new JsonLinesWriter(file, codec);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not open "+file+" for appending", ex);
+    }
+  }
+  
+  /**
+   * Create a writer which writes to the stream.
+   * 
+   * @param ostream the stream, gets closed when the writer is closed
+   * @return writer
+   */
+  public JsonLinesWriter writer(OutputStream ostream) {
+    return new JsonLinesWriter(ostream, codec);
+  }
+  
+  /**
+   * Iterate over the documents in the stream.
+   * 
+   * Documents are parsed one at a time when next() is called. The stream
+   * is closed when the end has been reached.
+   * 
+   * @param instream the stream to read from
+   * @return iterator
+   */
+  public Iterator<BdocDocument> iterator(InputStream instream) {
+    final JsonParser parser;
+    try {
+      parser = codec.getJSON().getStreamingFactory().createParser(instream);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Could not read JSON Lines", ex);
+    }
+    return new Iterator<BdocDocument>() {
+      private JsonToken next = null;
+      private boolean done = false;
+      
+      @Override
+      public boolean hasNext() {
+        if(done) {
+          return false;
+        }
+        if(next == null) {
+          try {
+            next = parser.nextToken();
+            if(next == null) {
+              done = true;
+              parser.close();
+            }
+          } catch (IOException ex) {
+            throw new UncheckedIOException("Could not read JSON Lines", ex);
+          }
+        }
+        return !done;
+      }
+      
+      @Override
+      public BdocDocument next() {
+        if(!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        next = null;
+        try {
+          return codec.readDocument(parser);
+        } catch (IOException ex) {
+          throw new UncheckedIOException("Could not read JSON Lines", ex);
+        }
+      }
+    };
+  }
+  
+  /**
+   * Stream the documents in the file.
+   * 
+   * The stream should be closed, e.g. with try-with-resources, if it
+   * does not get consumed completely.
+   * 
+   * @param file the JSON Lines file
+   * @param parallel if true, return a parallel stream
+   * @return stream of documents
+   */
+  public Stream<BdocDocument> stream(File file, boolean parallel) {
+    JsonLinesSpliterator spliterator = new JsonLinesSpliterator(file, codec);
+    return StreamSupport.stream(spliterator, parallel).onClose(spliterator::close);
+  }
+  
+  /**
+   * Stream the documents in the byte range of the file.
+   * 
+   * @param file the JSON Lines file
+   * @param start first byte of the range
+   * @param end byte after the range
+   * @param minSplitSize the minimum size of the ranges for parallel streams
+   * @param parallel if true, return a parallel stream
+   * @return stream of documents
+   */
+  public Stream<BdocDocument> stream(File file, long start, long end, 
+          long minSplitSize, boolean parallel) {
+    JsonLinesSpliterator spliterator = 
+            new JsonLinesSpliterator(file, start, end, codec, minSplitSize);
+    return StreamSupport.stream(spliterator, parallel).onClose(spliterator::close);
+  }
+}
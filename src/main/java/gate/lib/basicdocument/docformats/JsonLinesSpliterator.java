@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import com.fasterxml.jackson.core.JsonParser;
+import gate.lib.basicdocument.BdocDocument;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over the documents of a byte range of a JSON Lines file.
+ * 
+ * A line belongs to the range if its first byte is inside the range, so 
+ * the ranges can be split at any byte offset: the spliterator for a range
+ * which starts inside a line skips to the next line, and the line is read
+ * by the spliterator of the previous range instead, beyond the end of its
+ * range if necessary. trySplit() splits the remaining range in the middle 
+ * as long as it is larger than the minimum split size.
+ * <p>
+ * Each spliterator opens its own channel on the file when it first reads
+ * and closes it when it has reached the end of its range. Closing any of
+ * the spliterators, e.g. when a stream is closed early, closes the 
+ * channels of all spliterators split from the same original one.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class JsonLinesSpliterator implements Spliterator<BdocDocument>, Closeable {
+  
+  /**
+   * Default minimum number of bytes in a range created by trySplit().
+   */
+  public static final long DEFAULT_MIN_SPLIT_SIZE = 1 << 20;
+  
+  private final File file;
+  private final BdocJsonCodec codec;
+  private final Queue<JsonLinesSpliterator> opened;
+  private final long minSplitSize;
+  private long start;
+  private final long end;
+  private FileChannel channel = null;
+  private ByteBuffer buffer = null;
+  private long pos;
+  private byte[] line = new byte[1024];
+  private volatile boolean finished = false;
+  
+  /**
+   * Create a spliterator over the documents in the byte range of the file.
+   * 
+   * @param file the JSON Lines file
+   * @param start first byte of the range
+   * @param end byte after the range
+   * @param codec codec to read the documents
+   * @param minSplitSize minimum size of the ranges created by splitting
+   */
+  public JsonLinesSpliterator(File file, long start, long end, BdocJsonCodec codec,
+          long minSplitSize) {
+    this(file, start, end, codec, minSplitSize, new ConcurrentLinkedQueue<>());
+  }
+  
+  private JsonLinesSpliterator(File file, long start, long end, BdocJsonCodec codec,
+          long minSplitSize, Queue<JsonLinesSpliterator> opened) {
+    this.opened = opened;
+    this.file = file;
+    this.start = start;
+    this.end = end;
+    this.codec = codec;
+    this.minSplitSize = Math.max(1, minSplitSize);
+  }
+  
+  /**
+   * Create a spliterator over all documents in the file.
+   * 
+   * @param file the JSON Lines file
+   * @param codec codec to read the documents
+   */
+  public JsonLinesSpliterator(File file, BdocJsonCodec codec) {
+    this(file, 0, file.length(), codec, DEFAULT_MIN_SPLIT_SIZE);
+  }
+  
+  private void open() throws IOException {
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    opened.add(this);
+    buffer = ByteBuffer.allocate(1 << 16);
+    buffer.flip();
+    if(start == 0) {
+      pos = 0;
+      return;
+    }
+    // the range starts with a line only if the previous byte is a newline
+    pos = start - 1;
+    channel.position(pos);
+    readLine();
+  }
+  
+  /**
+   * Read the next line into the line buffer.
+   * 
+   * @return the length of the line without the newline or -1 at the end of
+   * the file
+   * @throws IOException if reading fails
+   */
+  private int readLine() throws IOException {
+    int len = 0;
+    boolean any = false;
+    while(true) {
+      if(!buffer.hasRemaining()) {
+        buffer.clear();
+        int n = channel.read(buffer);
+        buffer.flip();
+        if(n <= 0) {
+          return any ? len : -1;
+        }
+      }
+      any = true;
+      byte[] bytes = buffer.array();
+      int from = buffer.position();
+      int limit = buffer.limit();
+      int i = from;
+      while(i < limit && bytes[i] != '\n') {
+        i++;
+      }
+      int n = i - from;
+      if(len + n > line.length) {
+        line = Arrays.copyOf(line, Math.max(line.length * 2, len + n));
+      }
+      System.arraycopy(bytes, from, line, len, n);
+      len += n;
+      if(i < limit) {
+        buffer.position(i + 1);
+        pos += n + 1;
+        return len;
+      }
+      buffer.position(limit);
+      pos += n;
+    }
+  }
+  
+  private static boolean isBlank(byte[] bytes, int len) {
+    for(int i = 0; i < len; i++) {
+      byte b = bytes[i];
+      if(b != ' ' && b != '\t' && b != '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  @Override
+  public boolean tryAdvance(Consumer<? super BdocDocument> action) {
+    if(finished) {
+      return false;
+    }
+    try {
+      if(channel == null) {
+        open();
+      }
+      while(pos < end) {
+        int len = readLine();
+        if(len < 0) {
+          break;
+        }
+        if(isBlank(line, len)) {
+          continue;
+        }
+        BdocDocument bdoc;
+        try (JsonParser parser = codec.getJSON().getStreamingFactory().
+                createParser(line, 0, len)) {
+          bdoc = codec.readDocument(parser);
+        }
+        action.accept(bdoc);
+        return true;
+      }
+      release();
+      return false;
+    } catch (IOException ex) {
+      release();
+      throw new UncheckedIOException("Could not read JSON Lines from "+file, ex);
+    }
+  }
+  
+  @Override
+  public Spliterator<BdocDocument> trySplit() {
+    if(channel != null || end - start < 2 * minSplitSize) {
+      return null;
+    }
+    long mid = start + (end - start) / 2;
+    JsonLinesSpliterator prefix = 
+            new JsonLinesSpliterator(file, start, mid, codec, minSplitSize, opened);
+    start = mid;
+    return prefix;
+  }
+  
+  @Override
+  public long estimateSize() {
+    return finished ? 0 : end - (channel == null ? start : pos);
+  }
+  
+  @Override
+  public int characteristics() {
+    return ORDERED | NONNULL;
+  }
+  
+  private synchronized void release() {
+    finished = true;
+    if(channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        // ignore, we only read
+      }
+    }
+  }
+  
+  /**
+   * Close the channels of this spliterator and of all spliterators split 
+   * from it or from which it was split.
+   */
+  @Override
+  public void close() {
+    release();
+    for(JsonLinesSpliterator other : opened) {
+      other.release();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.docformats;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.jr.ob.JSON;
+import gate.lib.basicdocument.BdocDocument;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Append documents to a JSON Lines file, one bdoc JSON document per line.
+ * 
+ * Each document is written in the compact form, which never contains a
+ * newline, followed by a single newline. A file which is opened for 
+ * appending can therefore be extended by any number of writers one after
+ * the other. Instances are not thread-safe.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class JsonLinesWriter implements Closeable, Flushable {
+  
+  private final OutputStream out;
+  private final BdocJsonCodec codec;
+  private long count = 0;
+  
+  /**
+   * Create a writer which appends to the file or creates it.
+   * 
+   * @param file the file to append to
+   * @param codec the codec to use, pretty printing gets disabled
+   * @throws IOException if the file cannot be opened
+   */
+  public JsonLinesWriter(File file, BdocJsonCodec codec) throws IOException {
+    this(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16), codec);
+  }
+  
+  /**
+   * Create a writer which writes to the stream. 
+   * 
+   * The stream gets closed when the writer is closed.
+   * 
+   * @param out the stream to write to
+   * @param codec the codec to use, pretty printing gets disabled
+   */
+  public JsonLinesWriter(OutputStream out, BdocJsonCodec codec) {
+    this.out = out;
+    this.codec = codec.without(JSON.Feature.PRETTY_PRINT_OUTPUT);
+  }
+  
+  /**
+   * Append a document as a new line.
+   * 
+   * @param bdoc the document
+   * @throws IOException if writing fails
+   */
+  public void write(BdocDocument bdoc) throws IOException {
+    try (JsonGenerator gen = codec.getJSON().getStreamingFactory().createGenerator(out)) {
+      gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      gen.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+      codec.write(bdoc, gen);
+    }
+    out.write('\n');
+    count++;
+  }
+  
+  /**
+   * Number of documents written by this writer.
+   * 
+   * @return number of documents
+   */
+  public long getCount() {
+    return count;
+  }
+  
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+  
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,791 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gate.lib.basicdocument.docformats;
+
+import gate.lib.basicdocument.BdocAnnotation;
+import gate.lib.basicdocument.BdocAnnotationSet;
+import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.ColumnarAnnotationList;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialize and deserialize BdocDocument and ChangeLog instances in a 
+ * compact binary format.
+ * 
+ * The format carries the same information as the JSON written by SimpleJson
+ * but uses a per-document string table for annotation types, feature names
+ * and short string values, variable length integers for offsets and ids 
+ * and typed feature values. The layout and the few differences to the JSON
+ * representation are described in docs/bdoc-binary.md.
+ * <p>
+ * Other than with SimpleJson, the streams passed to the dump and load 
+ * methods are not closed, and the load methods never read beyond the end
+ * of the document or changelog, so several of them can be written to 
+ * and read from the same stream one after the other. 
+ * <p>
+ * Annotation sets which use a ColumnarAnnotationList are written directly
+ * from the columns. With columnar(true), documents get read into 
+ * ColumnarAnnotationList instances.
+ * 
+ * @author Johann Petrak johann.petrak@gmail.com
+ */
+public class SimpleBinary {
+  
+  private static final byte[] MAGIC = { 0x42, 0x44, 0x4F, 0x43 };
+  private static final int VERSION = 1;
+  private static final int KIND_DOCUMENT = 'D';
+  private static final int KIND_CHANGELOG = 'C';
+  
+  // value tags
+  private static final int TAG_NULL = 0;
+  private static final int TAG_FALSE = 1;
+  private static final int TAG_TRUE = 2;
+  private static final int TAG_INT = 3;
+  private static final int TAG_DOUBLE = 4;
+  private static final int TAG_STRING = 5;
+  private static final int TAG_LIST = 6;
+  private static final int TAG_MAP = 7;
+  private static final int TAG_STRREF = 8;
+  private static final int TAG_BIGINT = 9;
+  private static final int TAG_DECIMAL = 10;
+  
+  /**
+   * String values up to this length get interned in the string table.
+   */
+  private static final int MAX_INTERN_LENGTH = 16;
+  
+  /**
+   * Counts read from the data are only trusted up to this many elements 
+   * for the initial capacity, so corrupt data cannot make the reader 
+   * allocate more than the data actually contains.
+   */
+  private static final int MAX_INITIAL_CAPACITY = 1024;
+  
+  /**
+   * Strings are read in chunks of at least this many bytes.
+   */
+  private static final int STRING_CHUNK = 1 << 16;
+  
+  private boolean columnar = false;
+  
+  /**
+   * Choose whether annotations are read into ColumnarAnnotationList instances.
+   * 
+   * @param flag if true, use ColumnarAnnotationList for reading documents
+   * @return this codec
+   */
+  public SimpleBinary columnar(boolean flag) {
+    columnar = flag;
+    return this;
+  }
+  
+  // 1) Writing 
+  
+  /**
+   * Growable byte buffer with the primitive encodings. 
+   * 
+   * The string table gets collected while the body is written, so the 
+   * body is written to one of these first and then copied after the table.
+   */
+  private static class Out {
+    byte[] buf = new byte[1024];
+    int len = 0;
+    Map<String, Integer> strings = new HashMap<>();
+    List<String> table = new ArrayList<>();
+    
+    void ensure(int n) {
+      if(len + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length*2, len+n));
+      }
+    }
+    void u8(int b) {
+      ensure(1);
+      buf[len++] = (byte)b;
+    }
+    void uvarint(long v) {
+      ensure(10);
+      while((v & ~0x7FL) != 0) {
+        buf[len++] = (byte)((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buf[len++] = (byte)v;
+    }
+    void svarint(long v) {
+      uvarint((v << 1) ^ (v >> 63));
+    }
+    void nint(Integer v) {
+      if(v != null && v < 0) {
+        throw new IllegalArgumentException("Negative id not supported: "+v);
+      }
+      uvarint(v == null ? 0 : (long)v + 1);
+    }
+    void bytes(byte[] b) {
+      ensure(b.length);
+      System.arraycopy(b, 0, buf, len, b.length);
+      len += b.length;
+    }
+    void string(String s) {
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      uvarint(b.length);
+      bytes(b);
+    }
+    void nstring(String s) {
+      if(s == null) {
+        uvarint(0);
+      } else {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        uvarint(b.length + 1);
+        bytes(b);
+      }
+    }
+    void sref(String s) {
+      Integer idx = strings.get(s);
+      if(idx == null) {
+        idx = table.size();
+        strings.put(s, idx);
+        table.add(s);
+      }
+      uvarint(idx);
+    }
+    void type(String type) {
+      if(type == null) {
+        throw new IllegalArgumentException("Null annotation type not supported");
+      }
+      sref(type);
+    }
+    void map(Map<?, ?> map) {
+      if(map == null) {
+        uvarint(0);
+        return;
+      }
+      // entries with a null key are ignored, like in the JSON representation
+      int n = map.size();
+      if(n > 0 && hasNullKey(map)) {
+        n--;
+      }
+      uvarint(n + 1L);
+      for(Map.Entry<?, ?> entry : map.entrySet()) {
+        if(entry.getKey() == null) {
+          continue;
+        }
+        sref(entry.getKey().toString());
+        value(entry.getValue());
+      }
+    }
+    private static boolean hasNullKey(Map<?, ?> map) {
+      try {
+        return map.containsKey(null);
+      } catch (NullPointerException | ClassCastException ex) {
+        // maps which do not support null keys cannot have one
+        return false;
+      }
+    }
+    void value(Object value) {
+      if(value == null) {
+        u8(TAG_NULL);
+      } else if(value instanceof String) {
+        String s = (String)value;
+        if(s.length() <= MAX_INTERN_LENGTH) {
+          u8(TAG_STRREF);
+          sref(s);
+        } else {
+          u8(TAG_STRING);
+          string(s);
+        }
+      } else if(value instanceof Boolean) {
+        u8((Boolean)value ? TAG_TRUE : TAG_FALSE);
+      } else if(value instanceof Integer || value instanceof Long || 
+              value instanceof Short || value instanceof Byte) {
+        u8(TAG_INT);
+        svarint(((Number)value).longValue());
+      } else if(value instanceof BigInteger) {
+        BigInteger big = (BigInteger)value;
+        if(big.bitLength() < 64) {
+          u8(TAG_INT);
+          svarint(big.longValue());
+        } else {
+          u8(TAG_BIGINT);
+          string(big.toString());
+        }
+      } else if(value instanceof BigDecimal) {
+        u8(TAG_DECIMAL);
+        string(value.toString());
+      } else if(value instanceof Double || value instanceof Float) {
+        u8(TAG_DOUBLE);
+        long bits = Double.doubleToLongBits(((Number)value).doubleValue());
+        ensure(8);
+        for(int shift = 56; shift >= 0; shift -= 8) {
+          buf[len++] = (byte)(bits >>> shift);
+        }
+      } else if(value instanceof Map) {
+        u8(TAG_MAP);
+        map((Map<?, ?>)value);
+      } else if(value instanceof Collection) {
+        Collection<?> coll = (Collection<?>)value;
+        u8(TAG_LIST);
+        uvarint(coll.size());
+        for(Object item : coll) {
+          value(item);
+        }
+      } else if(value instanceof Object[]) {
+        Object[] arr = (Object[])value;
+        u8(TAG_LIST);
+        uvarint(arr.length);
+        for(Object item : arr) {
+          value(item);
+        }
+      } else if(value instanceof int[]) {
+        int[] arr = (int[])value;
+        u8(TAG_LIST);
+        uvarint(arr.length);
+        for(int item : arr) {
+          u8(TAG_INT);
+          svarint(item);
+        }
+      } else {
+        u8(TAG_STRING);
+        string(value.toString());
+      }
+    }
+    
+    /**
+     * Write header, string table and the body collected so far.
+     * The stream is not flushed, that is left to the caller, so that e.g. a
+     * BlockGzipOutputStream does not end a block after every document.
+     */
+    void writeTo(OutputStream ostream, int kind) throws IOException {
+      Out head = new Out();
+      head.bytes(MAGIC);
+      head.u8(VERSION);
+      head.u8(kind);
+      head.uvarint(table.size());
+      for(String s : table) {
+        head.string(s);
+      }
+      ostream.write(head.buf, 0, head.len);
+      ostream.write(buf, 0, len);
+    }
+  }
+  
+  private static void offsetType(Out out, String offset_type) {
+    out.u8("p".equals(offset_type) ? 'p' : 'j');
+  }
+  
+  private static Out encode(BdocDocument bdoc) {
+    Out out = new Out();
+    offsetType(out, bdoc.offset_type);
+    out.nstring(bdoc.text);
+    out.map(bdoc.features);
+    if(bdoc.annotation_sets == null) {
+      out.uvarint(0);
+      return out;
+    }
+    out.uvarint(bdoc.annotation_sets.size());
+    for(Map.Entry<String, BdocAnnotationSet> entry : bdoc.annotation_sets.entrySet()) {
+      BdocAnnotationSet annset = entry.getValue();
+      out.string(entry.getKey());
+      out.nint(annset.next_annid);
+      List<BdocAnnotation> anns = annset.annotations;
+      if(anns == null) {
+        out.uvarint(0);
+        continue;
+      }
+      out.uvarint(anns.size());
+      int prevStart = 0;
+      if(anns instanceof ColumnarAnnotationList) {
+        ColumnarAnnotationList cols = (ColumnarAnnotationList)anns;
+        for(int i = 0; i < cols.size(); i++) {
+          int start = cols.getStart(i);
+          out.nint(cols.getId(i));
+          out.type(cols.getType(i));
+          out.svarint((long)start - prevStart);
+          out.svarint((long)cols.getEnd(i) - start);
+          out.map(cols.getFeatures(i));
+          prevStart = start;
+        }
+        continue;
+      }
+      for(BdocAnnotation ann : anns) {
+        out.nint(ann.id);
+        out.type(ann.type);
+        out.svarint((long)ann.start - prevStart);
+        out.svarint((long)ann.end - ann.start);
+        out.map(ann.features);
+        prevStart = ann.start;
+      }
+    }
+    return out;
+  }
+  
+  private static Out encode(ChangeLog clog) {
+    Out out = new Out();
+    offsetType(out, clog.offset_type);
+    out.uvarint(clog.changes.size());
+    for(Map<String, Object> change : clog.changes) {
+      out.map(change);
+    }
+    return out;
+  }
+  
+  /**
+   * Serialise a BdocDocument to a file. 
+   * 
+   * @param bdoc Bdoc document
+   * @param path the file path where to write to, will get overwritten, 
+   * compressed with BlockGzipOutputStream if the name ends with ".gz"
+   */
+  public void dump(BdocDocument bdoc, File path) {
+    try (OutputStream ostream = BlockGzipOutputStream.open(path)) {
+      encode(bdoc).writeTo(ostream, KIND_DOCUMENT);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not save binary bdoc to "+path, ex);
+    }
+  }
+  
+  /**
+   * Serialise a ChangeLog to a file. 
+   * 
+   * @param clog ChangeLog instance
+   * @param path the file path where to write to, will get overwritten, 
+   * compressed with BlockGzipOutputStream if the name ends with ".gz"
+   */
+  public void dump(ChangeLog clog, File path) {
+    try (OutputStream ostream = BlockGzipOutputStream.open(path)) {
+      encode(clog).writeTo(ostream, KIND_CHANGELOG);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not save binary changelog to "+path, ex);
+    }
+  }
+  
+  /**
+   * Serialise a BdocDocument to an OutputStream.
+   * 
+   * @param bdoc BdocDocument instance
+   * @param ostream output stream to serialise to, is not flushed or closed
+   */
+  public void dump(BdocDocument bdoc, OutputStream ostream) {
+    try {
+      encode(bdoc).writeTo(ostream, KIND_DOCUMENT);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not save binary bdoc to output stream", ex);
+    }    
+  }  
+  
+  /**
+   * Serialise a ChangeLog to an OutputStream.
+   * 
+   * @param clog ChangeLog instance
+   * @param ostream output stream to serialise to, is not flushed or closed
+   */
+  public void dump(ChangeLog clog, OutputStream ostream) {
+    try {
+      encode(clog).writeTo(ostream, KIND_CHANGELOG);
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not save binary changelog to output stream", ex);
+    }    
+  }
+  
+  /**
+   * Serialise a BdocDocument as a byte array.
+   * 
+   * @param bdoc Bdoc document
+   * @return the binary representation
+   */
+  public byte[] dumps(BdocDocument bdoc) {
+    ByteArrayOutput bytes = new ByteArrayOutput();
+    dump(bdoc, bytes);
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Serialise a ChangeLog as a byte array.
+   * 
+   * @param clog ChangeLog instance
+   * @return the binary representation
+   */
+  public byte[] dumps(ChangeLog clog) {
+    ByteArrayOutput bytes = new ByteArrayOutput();
+    dump(clog, bytes);
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Unsynchronized replacement for ByteArrayOutputStream.
+   */
+  private static class ByteArrayOutput extends OutputStream {
+    private byte[] buf = new byte[1024];
+    private int len = 0;
+    @Override
+    public void write(int b) {
+      write(new byte[] { (byte)b }, 0, 1);
+    }
+    @Override
+    public void write(byte[] b, int off, int n) {
+      if(len + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length*2, len+n));
+      }
+      System.arraycopy(b, off, buf, len, n);
+      len += n;
+    }
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, len);
+    }
+  }
+  
+  // 2) Reading
+  
+  /**
+   * Reads the primitive encodings from a stream, one byte at a time from
+   * the point of view of the stream, so it never reads more than needed.
+   */
+  private static class In {
+    final InputStream in;
+    String[] table;
+    byte[] scratch = new byte[64];
+    In(InputStream in) {
+      this.in = in;
+    }
+    int u8() throws IOException {
+      int b = in.read();
+      if(b < 0) {
+        throw new EOFException("Unexpected end of binary bdoc data");
+      }
+      return b;
+    }
+    long uvarint() throws IOException {
+      long v = 0;
+      int shift = 0;
+      while(true) {
+        int b = u8();
+        v |= (long)(b & 0x7F) << shift;
+        if((b & 0x80) == 0) {
+          return v;
+        }
+        shift += 7;
+        if(shift > 63) {
+          throw new IOException("Malformed varint in binary bdoc data");
+        }
+      }
+    }
+    long svarint() throws IOException {
+      long v = uvarint();
+      return (v >>> 1) ^ -(v & 1);
+    }
+    int count() throws IOException {
+      long v = uvarint();
+      if(v > Integer.MAX_VALUE) {
+        throw new IOException("Count too large in binary bdoc data: "+v);
+      }
+      return (int)v;
+    }
+    Integer nint() throws IOException {
+      long v = uvarint();
+      return v == 0 ? null : (int)(v - 1);
+    }
+    String stringOfLength(int n) throws IOException {
+      if(scratch.length < n) {
+        scratch = new byte[Math.min(n, Math.max(scratch.length*2, STRING_CHUNK))];
+      }
+      int off = 0;
+      while(off < n) {
+        if(off == scratch.length) {
+          // only grow with the bytes which actually arrived
+          scratch = Arrays.copyOf(scratch, (int)Math.min(n, 2L * scratch.length));
+        }
+        int got = in.read(scratch, off, Math.min(n, scratch.length) - off);
+        if(got < 0) {
+          throw new EOFException("Unexpected end of binary bdoc data");
+        }
+        off += got;
+      }
+      return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+    String string() throws IOException {
+      return stringOfLength(count());
+    }
+    String nstring() throws IOException {
+      int n = count();
+      return n == 0 ? null : stringOfLength(n - 1);
+    }
+    String sref() throws IOException {
+      int idx = count();
+      if(idx >= table.length) {
+        throw new IOException("Invalid string reference in binary bdoc data: "+idx);
+      }
+      return table[idx];
+    }
+    HashMap<String, Object> map() throws IOException {
+      int n = count();
+      if(n == 0) {
+        return null;
+      }
+      HashMap<String, Object> map = new HashMap<>();
+      for(int i = 1; i < n; i++) {
+        String key = sref();
+        map.put(key, value());
+      }
+      return map;
+    }
+    Object value() throws IOException {
+      int tag = u8();
+      switch(tag) {
+        case TAG_NULL:
+          return null;
+        case TAG_FALSE:
+          return Boolean.FALSE;
+        case TAG_TRUE:
+          return Boolean.TRUE;
+        case TAG_INT:
+          long v = svarint();
+          if(v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+            return (int)v;
+          }
+          return v;
+        case TAG_DOUBLE:
+          long bits = 0;
+          for(int i = 0; i < 8; i++) {
+            bits = (bits << 8) | u8();
+          }
+          return Double.longBitsToDouble(bits);
+        case TAG_STRING:
+          return string();
+        case TAG_LIST:
+          int n = count();
+          List<Object> list = new ArrayList<>(Math.min(n, MAX_INITIAL_CAPACITY));
+          for(int i = 0; i < n; i++) {
+            list.add(value());
+          }
+          return list;
+        case TAG_MAP:
+          return map();
+        case TAG_STRREF:
+          return sref();
+        case TAG_BIGINT:
+        case TAG_DECIMAL:
+          String digits = string();
+          try {
+            return tag == TAG_BIGINT ? new BigInteger(digits) : new BigDecimal(digits);
+          } catch (NumberFormatException ex) {
+            throw new IOException("Invalid number in binary bdoc data: "+digits);
+          }
+        default:
+          throw new IOException("Invalid value tag in binary bdoc data: "+tag);
+      }
+    }
+    String offsetType() throws IOException {
+      int t = u8();
+      if(t != 'j' && t != 'p') {
+        throw new IOException("Invalid offset type in binary bdoc data: "+t);
+      }
+      return t == 'p' ? "p" : "j";
+    }
+    void header(int kind) throws IOException {
+      for (byte b : MAGIC) {
+        if(u8() != b) {
+          throw new IOException("Not binary bdoc data");
+        }
+      }
+      int version = u8();
+      if(version != VERSION) {
+        throw new IOException("Unsupported binary bdoc version: "+version);
+      }
+      int gotkind = u8();
+      if(gotkind != kind) {
+        throw new IOException("Expected binary bdoc data of kind "+(char)kind+
+                " but got "+(char)gotkind);
+      }
+      int n = count();
+      List<String> strings = new ArrayList<>(Math.min(n, MAX_INITIAL_CAPACITY));
+      for(int i = 0; i < n; i++) {
+        strings.add(string());
+      }
+      table = strings.toArray(new String[0]);
+    }
+  }
+  
+  private BdocDocument decodeDoc(In in) throws IOException {
+    in.header(KIND_DOCUMENT);
+    BdocDocument bdoc = new BdocDocument();
+    bdoc.offset_type = in.offsetType();
+    bdoc.text = in.nstring();
+    bdoc.features = in.map();
+    int nsets = in.count();
+    if(nsets > 0) {
+      bdoc.annotation_sets = new HashMap<>();
+    }
+    for(int s = 0; s < nsets; s++) {
+      BdocAnnotationSet annset = new BdocAnnotationSet();
+      annset.name = in.string();
+      annset.next_annid = in.nint();
+      int nanns = in.count();
+      int prevStart = 0;
+      if(columnar) {
+        ColumnarAnnotationList cols = 
+                new ColumnarAnnotationList(Math.min(nanns, MAX_INITIAL_CAPACITY));
+        for(int i = 0; i < nanns; i++) {
+          Integer id = in.nint();
+          String type = in.sref();
+          int start = (int)(prevStart + in.svarint());
+          int end = (int)(start + in.svarint());
+          cols.add(id, type, start, end, in.map());
+          prevStart = start;
+        }
+        annset.annotations = cols;
+        bdoc.annotation_sets.put(annset.name, annset);
+        continue;
+      }
+      annset.annotations = new ArrayList<>(Math.min(nanns, MAX_INITIAL_CAPACITY));
+      for(int i = 0; i < nanns; i++) {
+        BdocAnnotation ann = new BdocAnnotation();
+        ann.id = in.nint();
+        ann.type = in.sref();
+        ann.start = (int)(prevStart + in.svarint());
+        ann.end = (int)(ann.start + in.svarint());
+        ann.features = in.map();
+        prevStart = ann.start;
+        annset.annotations.add(ann);
+      }
+      bdoc.annotation_sets.put(annset.name, annset);
+    }
+    return bdoc;
+  }
+  
+  private static ChangeLog decodeLog(In in) throws IOException {
+    in.header(KIND_CHANGELOG);
+    ChangeLog clog = new ChangeLog();
+    clog.offset_type = in.offsetType();
+    int n = in.count();
+    for(int i = 0; i < n; i++) {
+      Map<String, Object> change = in.map();
+      if(change == null) {
+        throw new IOException("Null change in binary changelog data");
+      }
+      clog.changes.add(change);
+    }
+    return clog;
+  }
+  
+  /**
+   * Load binary bdoc from stream.
+   * 
+   * Only the bytes of the document are read, the stream is not closed. 
+   * Use a buffered stream for good performance. 
+   * 
+   * @param instream open stream to load from
+   * @return bdoc document instance
+   */
+  public BdocDocument load_doc(InputStream instream) {
+    try {
+      return decodeDoc(new In(instream));
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read binary BdocDocument from input stream", ex);
+    }
+  }
+  
+  /**
+   * Load binary bdoc from a file.
+   * 
+   * @param path the file, decompressed if the name ends with ".gz"
+   * @return bdoc document instance
+   */
+  public BdocDocument load_doc(File path) {
+    try (InputStream instream = BlockGzipInputStream.open(path)) {
+      return decodeDoc(new In(instream));
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read binary BdocDocument from "+path, ex);
+    }
+  }
+  
+  /**
+   * Load binary bdoc from a byte array.
+   * 
+   * @param bytes the binary representation
+   * @return bdoc document instance
+   */
+  public BdocDocument loads_doc(byte[] bytes) {
+    try {
+      return decodeDoc(new In(new ByteArrayInputStream(bytes)));
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read binary BdocDocument from bytes", ex);
+    }
+  }
+  
+  /**
+   * Load binary changelog from stream.
+   * 
+   * Only the bytes of the changelog are read, the stream is not closed. 
+   * Use a buffered stream for good performance. 
+   * 
+   * @param instream open stream
+   * @return changelog instance
+   */
+  public ChangeLog load_log(InputStream instream) {
+    try {
+      return decodeLog(new In(instream));
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read binary ChangeLog from input stream", ex);
+    }
+  }
+  
+  /**
+   * Load binary changelog from a file.
+   * 
+   * @param path the file, decompressed if the name ends with ".gz"
+   * @return changelog instance
+   */
+  public ChangeLog load_log(File path) {
+    try (InputStream instream = BlockGzipInputStream.open(path)) {
+      return decodeLog(new In(instream));
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read binary ChangeLog from "+path, ex);
+    }
+  }
+  
+  /**
+   * Load binary changelog from a byte array.
+   * 
+   * @param bytes the binary representation
+   * @return changelog instance
+   */
+  public ChangeLog loads_log(byte[] bytes) {
+    try {
+      return decodeLog(new In(new ByteArrayInputStream(bytes)));
+    } catch (IOException ex) {
+      throw new RuntimeException("Could not read binary ChangeLog from bytes", ex);
+    }
+  }
+  
+}
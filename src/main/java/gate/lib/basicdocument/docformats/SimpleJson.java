@@ -20,11 +20,10 @@
 
 package gate.lib.basicdocument.docformats;
 
-import com.fasterxml.jackson.jr.ob.JSON;
 import gate.lib.basicdocument.ChangeLog;
 import gate.lib.basicdocument.BdocDocument;
+import gate.lib.basicdocument.SymbolTable;
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
@@ -38,11 +37,55 @@ import java.io.Writer;
  * This is done in a separate class since 
  * we may want to use other serialisation formats in the future and to 
  * hide any details of the de/serialisation.
+ * <p>
+ * All methods delegate to a BdocJsonCodec, which writes and reads the
+ * Bdoc classes without any bean introspection.
+ * <p>
+ * When loading, annotation types, feature names and short string values
+ * are interned through a SymbolTable, by default a new one for each 
+ * document or changelog. Use withSymbolTable(table) to share one table 
+ * across all documents loaded by this instance or noInterning() to turn 
+ * this off.
  * 
  * @author Johann Petrak johann.petrak@gmail.com
  */
 public class SimpleJson {
   
+  private BdocJsonCodec codec = BdocJsonCodec.getDefault();
+  
+  /**
+   * Do not intern any strings when loading.
+   * 
+   * @return this instance
+   */
+  public SimpleJson noInterning() {
+    codec = codec.noInterning();
+    return this;
+  }
+  
+  /**
+   * Intern strings using the given table for all loaded documents/changelogs.
+   * 
+   * @param table the symbol table to share, if null use a new table for 
+   * each document or changelog
+   * @return this instance
+   */
+  public SimpleJson withSymbolTable(SymbolTable table) {
+    codec = codec.withSymbolTable(table);
+    return this;
+  }
+  
+  /**
+   * Use the given codec for all methods.
+   * 
+   * @param codec the codec to use
+   * @return this instance
+   */
+  public SimpleJson withCodec(BdocJsonCodec codec) {
+    this.codec = codec;
+    return this;
+  }
+  
   // 1) Writing to JSON: this is really simple, we essentially just write 
   // exactly what we have
   
@@ -50,30 +93,22 @@ public class SimpleJson {
    * Serialise a BdocDocument to a file. 
    * 
    * @param bdoc Bdoc document
-   * @param path the file path where to write to, will get overwritten
+   * @param path the file path where to write to, will get overwritten, 
+   * compressed with BlockGzipOutputStream if the name ends with ".gz"
    */
   public void dump(BdocDocument bdoc, File path) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      jsonbuilder.write(bdoc, path);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not build and save JSON to "+path, ex);
-    }
+    codec.dump(bdoc, path);
   }
   
   /**
    * Serialise a ChangeLog to a file. 
    * 
    * @param clog ChangeLog instance
-   * @param path the file path where to write to, will get overwritten
+   * @param path the file path where to write to, will get overwritten, 
+   * compressed with BlockGzipOutputStream if the name ends with ".gz"
    */
   public void dump(ChangeLog clog, File path) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      jsonbuilder.write(clog, path);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not build and save JSON to "+path, ex);
-    }
+    codec.dump(clog, path);
   }
 
   /**
@@ -83,13 +118,7 @@ public class SimpleJson {
    * @param writer writer to serialise to
    */
   public void dump(BdocDocument bdoc, Writer writer) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      jsonbuilder.write(bdoc, writer);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not build and save JSON to writer", ex);
-    }
-    
+    codec.dump(bdoc, writer);
   }
 
   /**
@@ -99,13 +128,7 @@ public class SimpleJson {
    * @param writer writer to serialise to
    */
   public void dump(ChangeLog clog, Writer writer) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      jsonbuilder.write(clog, writer);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not build and save JSON to writer", ex);
-    }
-    
+    codec.dump(clog, writer);
   }
   
   /**
@@ -115,13 +138,8 @@ public class SimpleJson {
    * @param ostream output stream to serialise to
    */
   public void dump(BdocDocument bdoc, OutputStream ostream) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      jsonbuilder.write(bdoc, ostream);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not build and save JSON to output stream", ex);
-    }    
-  }  
+    codec.dump(bdoc, ostream);
+  }
   
   /**
    * Serialise a ChangeLog to an OutputStream.
@@ -130,12 +148,7 @@ public class SimpleJson {
    * @param ostream output stream to serialise to
    */
   public void dump(ChangeLog clog, OutputStream ostream) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      jsonbuilder.write(clog, ostream);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not build and save JSON to output stream", ex);
-    }    
+    codec.dump(clog, ostream);
   }
 
   /**
@@ -145,12 +158,7 @@ public class SimpleJson {
    * @return the generated JSON string
    */
   public String dumps(BdocDocument bdoc) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      return jsonbuilder.asString(bdoc);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not build JSON String from BdocDocument", ex);
-    }    
+    return codec.dumps(bdoc);
   }
   
   /**
@@ -160,31 +168,30 @@ public class SimpleJson {
    * @return the generated JSON string
    */
   public String dumps(ChangeLog clog) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      return jsonbuilder.asString(clog);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not build JSON String from ChangeLog", ex);
-    }    
+    return codec.dumps(clog);
   }
   
   
   
-  // 2) Load: it seems this works properly out of the box, no need for custom readers
+  // 2) Load
   
   // 2.1) BdocDocument
+  /**
+   * Load JSON from a file
+   * @param path the file, decompressed if the name ends with ".gz"
+   * @return bdoc document instance
+   */
+  public BdocDocument load_doc(File path) {
+    return codec.load_doc(path);
+  }
+  
   /**
    * Load JSON from stream
    * @param instream open stream to load from
    * @return bdoc document instance
    */
   public BdocDocument load_doc(InputStream instream) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      return jsonbuilder.beanFrom(BdocDocument.class, instream);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not read BdocDocument from input stream", ex);
-    }
+    return codec.load_doc(instream);
   }
   
   /**
@@ -193,12 +200,7 @@ public class SimpleJson {
    * @return bdoc document instance
    */
   public BdocDocument load_doc(Reader reader) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      return jsonbuilder.beanFrom(BdocDocument.class, reader);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not read BdocDocument from reader", ex);
-    }
+    return codec.load_doc(reader);
   }
   
   /**
@@ -207,28 +209,27 @@ public class SimpleJson {
    * @return bdoc document instance
    */
   public BdocDocument loads_doc(String json) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      return jsonbuilder.beanFrom(BdocDocument.class, json);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not read BdocDocument from String", ex);
-    }
+    return codec.loads_doc(json);
   }
 
   // 2.1) BdocDocument
   
+  /**
+   * Load JSON changelog representation from a file
+   * @param path the file, decompressed if the name ends with ".gz"
+   * @return changelog instance
+   */
+  public ChangeLog load_log(File path) {
+    return codec.load_log(path);
+  }
+  
   /**
    * Load JSON changelog representation from stream
    * @param instream open stream
    * @return changelog instance
    */
   public ChangeLog load_log(InputStream instream) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      return jsonbuilder.beanFrom(ChangeLog.class, instream);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not read BdocChangeLog from input stream", ex);
-    }
+    return codec.load_log(instream);
   }
   
   /**
@@ -237,12 +238,7 @@ public class SimpleJson {
    * @return changelog instance
    */
   public ChangeLog load_log(Reader reader) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      return jsonbuilder.beanFrom(ChangeLog.class, reader);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not read BdocChangeLog from reader", ex);
-    }
+    return codec.load_log(reader);
   }
   
   /**
@@ -251,12 +247,7 @@ public class SimpleJson {
    * @return changelog instance
    */
   public ChangeLog loads_log(String json) {
-    JSON jsonbuilder = JSON.std;
-    try {
-      return jsonbuilder.beanFrom(ChangeLog.class, json);
-    } catch (IOException ex) {
-      throw new RuntimeException("Could not read BdocChangeLog from String", ex);
-    }
+    return codec.loads_log(json);
   }
   
 }
@@ -19,6 +19,10 @@
  */
 package gate.lib.basicdocument.tests;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.jr.ob.JSON;
+import gate.Annotation;
 import gate.AnnotationSet;
 import gate.Document;
 import gate.Factory;
@@ -29,13 +33,64 @@ import gate.lib.basicdocument.BdocAnnotationSet;
 import gate.lib.basicdocument.BdocAnnotation;
 import gate.lib.basicdocument.BdocDocument;
 import gate.lib.basicdocument.BdocDocumentBuilder;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.ChangeLogRecorder;
+import gate.lib.basicdocument.ColumnarAnnotationList;
+import gate.lib.basicdocument.GateDocumentLoader;
+import gate.lib.basicdocument.GateDocumentUpdater;
 import gate.lib.basicdocument.OffsetMapper;
+import gate.lib.basicdocument.OffsetMapperCache;
+import gate.lib.basicdocument.SymbolTable;
+import gate.lib.basicdocument.TypedChangeLog;
+import gate.lib.basicdocument.corpus.CorpusConverter;
+import gate.lib.basicdocument.docformats.BdocJsonCodec;
+import gate.lib.basicdocument.docformats.BlockGzipInputStream;
+import gate.lib.basicdocument.docformats.BlockGzipOutputStream;
+import gate.lib.basicdocument.docformats.IndexedCorpus;
+import gate.lib.basicdocument.docformats.IndexedCorpusWriter;
+import gate.lib.basicdocument.docformats.JsonLines;
+import gate.lib.basicdocument.docformats.JsonLinesWriter;
+import gate.lib.basicdocument.docformats.SimpleBinary;
 import gate.lib.basicdocument.docformats.SimpleJson;
 import gate.util.GateException;
+import gate.util.GateRuntimeException;
 import gate.util.InvalidOffsetException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -146,4 +201,1122 @@ public class TestBasicDocument1 extends TestCase {
     Assert.assertArrayEquals(p2j_expected, p2j_actual);
   }
   
+  /**
+   * Test sparse and lazy offset mapping against the full tables.
+   */
+  @Test
+  public void testOffsetMappingsSparse1() {
+    String[] texts = { sampleText1, sampleText2, "no surrogates at all", 
+      "\uD83D\uDCA9", "\uD83D\uDCA9\uD83D\uDCA9x\uD83D\uDCA9" };
+    for (String text : texts) {
+      OffsetMapper full = new OffsetMapper(text);
+      OffsetMapper sparse = new OffsetMapper(text, OffsetMapper.Mode.SPARSE);
+      Assert.assertEquals(OffsetMapper.Mode.SPARSE, sparse.getMode());
+      int[] j2p = full.getJava2PythonArray();
+      int[] p2j = full.getPython2JavaArray();
+      Assert.assertArrayEquals(j2p, sparse.getJava2PythonArray());
+      Assert.assertArrayEquals(p2j, sparse.getPython2JavaArray());
+      for (int i = 0; i < j2p.length; i++) {
+        Assert.assertEquals(j2p[i], sparse.convertToPython(i));
+      }
+      for (int i = 0; i < p2j.length; i++) {
+        Assert.assertEquals(p2j[i], sparse.convertToJava(i));
+      }
+      // a lazy mapper must give the same results, whatever the order of 
+      // conversions
+      OffsetMapper lazy = new OffsetMapper(text, OffsetMapper.Mode.LAZY);
+      for (int i = 0; i < p2j.length; i++) {
+        Assert.assertEquals(p2j[i], lazy.convertToJava(i));
+      }
+      for (int i = j2p.length-1; i >= 0; i--) {
+        Assert.assertEquals(j2p[i], lazy.convertToPython(i));
+      }
+      lazy = new OffsetMapper(text, OffsetMapper.Mode.LAZY);
+      Assert.assertEquals(j2p[j2p.length/2], lazy.convertToPython(j2p.length/2));
+      Assert.assertArrayEquals(p2j, lazy.getPython2JavaArray());
+      // bulk conversion of unsorted offsets in all modes
+      int[] jstarts = new int[j2p.length];
+      int[] pstarts = new int[p2j.length];
+      for (int i = 0; i < jstarts.length; i++) {
+        jstarts[i] = (i * 7) % jstarts.length;
+      }
+      for (int i = 0; i < pstarts.length; i++) {
+        pstarts[i] = (i * 7) % pstarts.length;
+      }
+      for (OffsetMapper.Mode mode : OffsetMapper.Mode.values()) {
+        OffsetMapper om = new OffsetMapper(text, mode);
+        int[] jconv = jstarts.clone();
+        int[] jends = jstarts.clone();
+        om.convertToPython(jconv, jends);
+        int[] pconv = pstarts.clone();
+        om.convertToJava(pconv, null);
+        for (int i = 0; i < jstarts.length; i++) {
+          Assert.assertEquals(j2p[jstarts[i]], jconv[i]);
+          Assert.assertEquals(j2p[jstarts[i]], jends[i]);
+        }
+        for (int i = 0; i < pstarts.length; i++) {
+          Assert.assertEquals(p2j[pstarts[i]], pconv[i]);
+        }
+        // sorted offsets get converted in one merge walk
+        int[] jsorted = new int[j2p.length];
+        for (int i = 0; i < jsorted.length; i++) {
+          jsorted[i] = i;
+        }
+        om.convertToPython(jsorted, jstarts.clone());
+        Assert.assertArrayEquals(j2p, jsorted);
+        int[] psorted = new int[p2j.length];
+        for (int i = 0; i < psorted.length; i++) {
+          psorted[i] = i;
+        }
+        om.convertToJava(psorted, null);
+        Assert.assertArrayEquals(p2j, psorted);
+      }
+      try {
+        new OffsetMapper(text, OffsetMapper.Mode.LAZY).convertToJava(p2j.length);
+        Assert.fail("Python offset outside of the text must not be converted");
+      } catch (GateRuntimeException ex) {
+        // expected
+      }
+    }
+  }
+  
+  /**
+   * Test the offset mapper cache.
+   */
+  @Test
+  public void testOffsetMapperCache1() throws ResourceInstantiationException, InvalidOffsetException {
+    OffsetMapperCache cache = new OffsetMapperCache(2, 1024L*1024L);
+    OffsetMapper om1 = cache.get(sampleText1);
+    // the same text instance finds the same mapper, an equal text instance
+    // gets a new mapper
+    Assert.assertSame(om1, cache.get(sampleText1));
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+    String equalText = new String(sampleText1.toCharArray());
+    Assert.assertNotSame(om1, cache.get(equalText));
+    Assert.assertEquals(2, cache.getMisses());
+    cache.get(sampleText1);
+    // this evicts the least recently used mapper, for the equal text
+    cache.get("a third text");
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(1, cache.getEvictions());
+    Assert.assertSame(om1, cache.get(sampleText1));
+    Assert.assertEquals(3, cache.getHits());
+    
+    // a mapper the caller already has can be passed on instead
+    Document doc = Factory.newDocument(sampleText1);
+    doc.getAnnotations().add(17L, 19L, "Token", Utils.featureMap());
+    BdocDocument bdoc = new BdocDocumentBuilder().fromGate(doc).pythonOffsets().buildBdoc();
+    Document copy = Factory.newDocument(sampleText1);
+    new GateDocumentUpdater(copy).offsetMapper(om1).fromBdoc(bdoc);
+    Assert.assertEquals(19L, (long)copy.getAnnotations().get(0).getEndNode().getOffset());
+    bdoc.fixupOffsets(om1, "j");
+    Assert.assertEquals(19, bdoc.annotation_sets.get("").annotations.get(0).end);
+    
+    // only the conversions of GATE document texts use the default cache
+    OffsetMapperCache.getDefault().clear();
+    bdoc.fixupOffsets("p");
+    Assert.assertEquals(18, bdoc.annotation_sets.get("").annotations.get(0).end);
+    ChangeLog clog = new ChangeLog();
+    Map<String, Object> change = new HashMap<>();
+    change.put("command", "annotation:add");
+    change.put("start", 17);
+    change.put("end", 19);
+    clog.changes.add(change);
+    clog.fixupOffsets(bdoc.text, "p");
+    Assert.assertEquals(18, change.get("end"));
+    Assert.assertEquals(0, OffsetMapperCache.getDefault().size());
+    new BdocDocumentBuilder().fromGate(doc).pythonOffsets().buildBdoc();
+    Assert.assertEquals(1, OffsetMapperCache.getDefault().size());
+  }
+  
+  /**
+   * Test that streaming JSON export gives the same JSON as building first.
+   * @throws ResourceInstantiationException if error
+   * @throws InvalidOffsetException  if error
+   * @throws IOException  if error
+   */
+  @Test
+  public void testStreamingDump1() throws ResourceInstantiationException, InvalidOffsetException, IOException {
+    Document doc = Factory.newDocument(sampleText1);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This", "len", 4));
+    defSet.add(17L, 19L, "Token", Utils.featureMap("string", "poo"));
+    defSet.add(20L, 28L, "Token", Utils.featureMap());
+    // keys with the same string form become one feature
+    defSet.add(29L, 31L, "Token", Utils.featureMap(1, "int key", "1", "string key"));
+    doc.getAnnotations("Other").add(17L, 28L, "Thing", Utils.featureMap("list", Arrays.asList(1, 2)));
+    doc.getAnnotations("Empty");
+    doc.getFeatures().put("docfeature", 12);
+    for (boolean python : new boolean[] { false, true }) {
+      BdocDocumentBuilder builder = new BdocDocumentBuilder().fromGate(doc);
+      if (python) {
+        builder.pythonOffsets();
+      }
+      Object expected = JSON.std.anyFrom(builder.dumps());
+      String streamed = builder.streaming().dumps();
+      Assert.assertEquals(expected, JSON.std.anyFrom(streamed));
+      try (JsonParser parser = new JsonFactory()
+              .enable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION)
+              .createParser(streamed)) {
+        while (parser.nextToken() != null) {
+          // fails on a duplicate field name
+        }
+      }
+      StringWriter writer = new StringWriter();
+      builder.dump(writer);
+      Assert.assertEquals(streamed, writer.toString());
+    }
+  }
+  
+  /**
+   * Test updating a GATE document directly from JSON.
+   * @throws ResourceInstantiationException if error
+   * @throws InvalidOffsetException  if error
+   */
+  @Test
+  public void testFromJson1() throws ResourceInstantiationException, InvalidOffsetException {
+    Document doc = Factory.newDocument(sampleText1);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This"));
+    defSet.add(17L, 19L, "Token", Utils.featureMap("string", "poo"));
+    defSet.add(20L, 28L, "Token", Utils.featureMap("string", "poo"));
+    doc.getAnnotations("Other").add(17L, 28L, "Thing", Utils.featureMap("x", 1));
+    doc.getFeatures().put("docfeature", 12);
+    // python offsets, the offset_type field comes before the annotation sets
+    String json = new BdocDocumentBuilder().fromGate(doc).pythonOffsets().dumps();
+    Assert.assertTrue(json.indexOf("offset_type") < json.indexOf("annotation_sets"));
+    Assert.assertEquals(json, BdocJsonCodec.getDefault().dumps(
+            new BdocDocumentBuilder().fromGate(doc).pythonOffsets().buildBdoc()));
+    // gatenlp writes the offset_type field after the annotation sets
+    String late = json.replace("\"offset_type\":\"p\",", "");
+    late = late.substring(0, late.length() - 1) + ",\"offset_type\":\"p\"}";
+    for (String str : Arrays.asList(json, late)) {
+      Document doc2 = new GateDocumentUpdater(sampleText1)
+              .fromJson(new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8)));
+      Assert.assertEquals(12, doc2.getFeatures().get("docfeature"));
+      Assert.assertEquals(3, doc2.getAnnotations().size());
+      Annotation poo = doc2.getAnnotations().get(1);
+      Assert.assertEquals(17L, (long)poo.getStartNode().getOffset());
+      Assert.assertEquals(19L, (long)poo.getEndNode().getOffset());
+      Assert.assertEquals("poo", poo.getFeatures().get("string"));
+      // feature values get interned
+      Assert.assertSame(poo.getFeatures().get("string"), 
+              doc2.getAnnotations().get(2).getFeatures().get("string"));
+      Annotation thing = doc2.getAnnotations("Other").get(3);
+      Assert.assertEquals(28L, (long)thing.getEndNode().getOffset());
+    }
+    // the annotation set filter must be respected
+    Document doc3 = new GateDocumentUpdater(sampleText1)
+            .noAnnotationSet().useAnnotationSet("Other")
+            .fromJson(new StringReader(json));
+    Assert.assertEquals(0, doc3.getAnnotations().size());
+    Assert.assertEquals(1, doc3.getAnnotations("Other").size());
+  }
+  
+  /**
+   * Test the binary format round trip for documents and changelogs.
+   * @throws ResourceInstantiationException if error
+   * @throws InvalidOffsetException  if error
+   * @throws IOException  if error
+   */
+  @Test
+  public void testSimpleBinary1() throws ResourceInstantiationException, InvalidOffsetException, IOException {
+    Document doc = Factory.newDocument(sampleText1);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(20L, 28L, "Token", Utils.featureMap("string", "document", "len", 8));
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This", "score", -1.5));
+    defSet.add(17L, 19L, "Token", Utils.featureMap("flag", true, "big", 1L << 40));
+    doc.getAnnotations("Other").add(17L, 28L, "Thing", 
+            Utils.featureMap("list", Arrays.asList(1, "two", null), 
+                    "map", Utils.featureMap("a", "a long string value with more than 16 chars")));
+    BdocDocument bdoc = new BdocDocumentBuilder().fromGate(doc).pythonOffsets().buildBdoc();
+    SimpleBinary codec = new SimpleBinary();
+    SimpleJson json = new SimpleJson();
+    byte[] bytes = codec.dumps(bdoc);
+    BdocDocument bdoc2 = codec.loads_doc(bytes);
+    Assert.assertEquals(JSON.std.anyFrom(json.dumps(bdoc)), JSON.std.anyFrom(json.dumps(bdoc2)));
+    Assert.assertTrue(bytes.length < json.dumps(bdoc).length());
+    
+    ChangeLog clog = new ChangeLog();
+    clog.offset_type = "p";
+    Map<String, Object> chg = new HashMap<>();
+    chg.put("command", "annotation:add");
+    chg.put("set", "");
+    chg.put("id", 5);
+    chg.put("start", 1);
+    chg.put("end", 3);
+    chg.put("type", "X");
+    chg.put("features", Utils.featureMap("a", 1));
+    clog.changes.add(chg);
+    chg = new HashMap<>();
+    chg.put("command", "annotations:clear");
+    chg.put("set", "Other");
+    clog.changes.add(chg);
+    // several documents and changelogs in one stream
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.dump(bdoc, out);
+    codec.dump(clog, out);
+    codec.dump(bdoc, out);
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    Assert.assertEquals(JSON.std.anyFrom(json.dumps(bdoc)), JSON.std.anyFrom(json.dumps(codec.load_doc(in))));
+    ChangeLog clog2 = codec.load_log(in);
+    Assert.assertEquals(JSON.std.anyFrom(json.dumps(clog)), JSON.std.anyFrom(json.dumps(clog2)));
+    Assert.assertEquals(JSON.std.anyFrom(json.dumps(bdoc)), JSON.std.anyFrom(json.dumps(codec.load_doc(in))));
+    Assert.assertEquals(-1, in.read());
+    
+    // big numbers keep their value, null keys get dropped like in JSON
+    BigInteger huge = BigInteger.ONE.shiftLeft(70);
+    HashMap<String, Object> features = new HashMap<>();
+    features.put("huge", huge);
+    features.put("small", BigInteger.TEN);
+    features.put("decimal", new BigDecimal("0.1000000000000000000001"));
+    features.put(null, "dropped");
+    bdoc.features = features;
+    Map<String, Object> features2 = codec.loads_doc(codec.dumps(bdoc)).features;
+    Assert.assertEquals(3, features2.size());
+    Assert.assertEquals(huge, features2.get("huge"));
+    Assert.assertEquals(10, features2.get("small"));
+    Assert.assertEquals(features.get("decimal"), features2.get("decimal"));
+    bdoc.annotation_sets.get("").annotations.get(0).type = null;
+    try {
+      codec.dumps(bdoc);
+      Assert.fail("null annotation type must not be accepted");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+  
+  /**
+   * Test that huge counts in corrupt binary data give an error without 
+   * allocating for them.
+   */
+  @Test
+  public void testSimpleBinary2() {
+    byte[] head = { 0x42, 0x44, 0x4F, 0x43, 1, 'D' };
+    byte[] huge = { (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x07 };
+    // string table size, length of a string, number of annotations
+    byte[][] bodies = {
+      huge,
+      concat(new byte[] { 1 }, huge),
+      concat(new byte[] { 0, 'j', 0, 0, 1, 0, 0 }, huge),
+    };
+    SimpleBinary codec = new SimpleBinary();
+    for (byte[] body : bodies) {
+      try {
+        codec.loads_doc(concat(head, body));
+        Assert.fail("corrupt data must not be accepted");
+      } catch (RuntimeException ex) {
+        Assert.assertTrue(ex.getCause() instanceof EOFException);
+      }
+    }
+  }
+  
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] ret = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, ret, a.length, b.length);
+    return ret;
+  }
+  
+  /**
+   * Test the columnar annotation list with the builder, updater and codecs.
+   * @throws ResourceInstantiationException if error
+   * @throws InvalidOffsetException  if error
+   * @throws IOException if error
+   */
+  @Test
+  public void testColumnar1() throws ResourceInstantiationException, InvalidOffsetException, IOException {
+    Document doc = Factory.newDocument(sampleText1);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This"));
+    defSet.add(17L, 19L, "Token", Utils.featureMap("string", "poo"));
+    defSet.add(20L, 28L, "Word", Utils.featureMap());
+    BdocDocument bdoc = new BdocDocumentBuilder().fromGate(doc)
+            .columnar().pythonOffsets().buildBdoc();
+    BdocAnnotationSet bset = bdoc.annotation_sets.get("");
+    Assert.assertTrue(bset.annotations instanceof ColumnarAnnotationList);
+    ColumnarAnnotationList cols = (ColumnarAnnotationList)bset.annotations;
+    Assert.assertEquals(3, cols.size());
+    Assert.assertEquals(2, cols.getNumberOfTypes());
+    Assert.assertEquals((Integer)3, bset.next_annid);
+    for (int i = 0; i < cols.size(); i++) {
+      BdocAnnotation ann = cols.get(i);
+      Assert.assertEquals(ann.start, cols.getStart(i));
+      if (ann.id == 1) {
+        // python offsets
+        Assert.assertEquals(17, ann.start);
+        Assert.assertEquals(18, ann.end);
+      }
+      if (ann.id == 2) {
+        Assert.assertTrue(ann.features.isEmpty());
+        Assert.assertTrue(cols.getFeatures(i).isEmpty());
+      }
+    }
+    // binary round trip, reading into columns again
+    SimpleBinary codec = new SimpleBinary().columnar(true);
+    BdocDocument bdoc2 = codec.loads_doc(codec.dumps(bdoc));
+    Assert.assertTrue(bdoc2.annotation_sets.get("").annotations instanceof ColumnarAnnotationList);
+    // back to GATE, the offsets get converted back to java offsets
+    Document doc2 = bdoc2.toGateDocument();
+    Assert.assertEquals(3, doc2.getAnnotations().size());
+    Annotation poo = doc2.getAnnotations().get(1);
+    Assert.assertEquals(19L, (long)poo.getEndNode().getOffset());
+    Assert.assertEquals("poo", poo.getFeatures().get("string"));
+    Assert.assertEquals("Word", doc2.getAnnotations().get(2).getType());
+    // JSON via the list view 
+    BdocDocument bdoc3 = new SimpleJson().loads_doc(new SimpleJson().dumps(bdoc));
+    Assert.assertEquals(3, bdoc3.annotation_sets.get("").annotations.size());
+    // the same JSON as for the list representation
+    BdocDocument listBdoc = new BdocDocumentBuilder().fromGate(doc).pythonOffsets().buildBdoc();
+    Assert.assertEquals(JSON.std.anyFrom(new SimpleJson().dumps(listBdoc)), 
+            JSON.std.anyFrom(new SimpleJson().dumps(bdoc)));
+    
+    // changes through the List interface change the list
+    List<BdocAnnotation> anns = bset.annotations;
+    anns.get(0).start = 1;
+    anns.get(2).features.put("kind", "word");
+    anns.get(2).type = "Phrase";
+    Assert.assertSame(anns.get(0), anns.get(0));
+    Assert.assertEquals(1, cols.getStart(0));
+    Assert.assertEquals("word", cols.getFeatures(2).get("kind"));
+    Assert.assertEquals("Phrase", cols.getType(2));
+    cols.setOffsets(0, 2, 4);
+    Assert.assertEquals(2, anns.get(0).start);
+    BdocAnnotation added = new BdocAnnotation();
+    added.type = "Token";
+    added.start = 5;
+    added.end = 7;
+    anns.add(added);
+    added.id = 3;
+    Assert.assertEquals((Integer)3, cols.getId(3));
+    anns.remove(1);
+    Assert.assertSame(added, anns.get(2));
+    Map<?, ?> written = (Map<?, ?>)((List<?>)((Map<?, ?>)((Map<?, ?>)JSON.std.mapFrom(new SimpleJson().dumps(bdoc))
+            .get("annotation_sets")).get("")).get("annotations")).get(1);
+    Assert.assertEquals("Phrase", written.get("type"));
+    Assert.assertEquals("word", ((Map<?, ?>)written.get("features")).get("kind"));
+    // a type set through a view only gets a code once the view is written 
+    // back with the next access of the list
+    int ntypes = cols.getNumberOfTypes();
+    anns.get(0).type = "NewType";
+    Assert.assertEquals(-1, cols.getTypeCode(0));
+    Assert.assertEquals(ntypes, cols.getNumberOfTypes());
+    anns.get(1).end = 9;
+    Assert.assertEquals("NewType", cols.getTypeForCode(cols.getTypeCode(0)));
+    // the changes stay when the views are gone
+    anns.get(2);
+    System.gc();
+    Assert.assertEquals("NewType", cols.getType(0));
+    Assert.assertEquals(9, cols.getEnd(1));
+  }
+  
+  /**
+   * Test interning of strings when loading JSON.
+   */
+  @Test
+  public void testInterning1() {
+    String json = "{\"annotation_sets\":{\"\":{\"annotations\":["+
+            "{\"end\":4,\"features\":{\"cat\":\"NN\"},\"id\":0,\"start\":0,\"type\":\"Token\"},"+
+            "{\"end\":8,\"features\":{\"cat\":\"NN\"},\"id\":1,\"start\":5,\"type\":\"Token\"}],"+
+            "\"name\":\"\",\"next_annid\":2}},\"offset_type\":\"j\",\"text\":\"This text\"}";
+    List<BdocAnnotation> anns = new SimpleJson().loads_doc(json).annotation_sets.get("").annotations;
+    Assert.assertSame(anns.get(0).type, anns.get(1).type);
+    Assert.assertSame(anns.get(0).features.get("cat"), anns.get(1).features.get("cat"));
+    // with a shared table, strings are shared across documents too
+    SimpleJson reader = new SimpleJson().withSymbolTable(new SymbolTable());
+    BdocAnnotation ann1 = reader.loads_doc(json).annotation_sets.get("").annotations.get(0);
+    BdocAnnotation ann2 = reader.loads_doc(json).annotation_sets.get("").annotations.get(0);
+    Assert.assertSame(ann1.type, ann2.type);
+    Assert.assertSame(ann1.features.get("cat"), ann2.features.get("cat"));
+    ann1 = new SimpleJson().noInterning().loads_doc(json).annotation_sets.get("").annotations.get(0);
+    ann2 = new SimpleJson().noInterning().loads_doc(json).annotation_sets.get("").annotations.get(0);
+    Assert.assertNotSame(ann1.type, ann2.type);
+  }
+  
+  /**
+   * Test that the codec writes the same JSON as jackson-jr bean 
+   * serialisation and reads back equivalent objects.
+   */
+  @Test
+  public void testJsonCodec1() throws ResourceInstantiationException, InvalidOffsetException, IOException {
+    Document doc = Factory.newDocument(sampleText1);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This", "len", 4, 
+            "big", 10000000000L, "score", 0.25, "flag", true));
+    defSet.add(17L, 19L, "Token", Utils.featureMap("nested", 
+            Utils.featureMap("list", Arrays.asList(1, "x", null))));
+    doc.getAnnotations("Other").add(17L, 28L, "Thing", Utils.featureMap());
+    doc.getFeatures().put("docfeature", 12);
+    BdocDocument bdoc = new BdocDocumentBuilder().fromGate(doc).pythonOffsets().buildBdoc();
+    BdocAnnotation nullfeatures = new BdocAnnotation();
+    nullfeatures.type = "NoFeatures";
+    nullfeatures.id = 5;
+    bdoc.annotation_sets.get("Other").annotations.add(nullfeatures);
+    BdocJsonCodec codec = BdocJsonCodec.getDefault();
+    // same as jackson-jr apart from the offset_type field coming first
+    String json = codec.dumps(bdoc);
+    Assert.assertEquals(JSON.std.anyFrom(JSON.std.asString(bdoc)), JSON.std.anyFrom(json));
+    Assert.assertTrue(json.startsWith("{\"offset_type\":\"p\","));
+    Assert.assertEquals(json, codec.dumps(codec.loads_doc(json)));
+    // columnar lists do not keep empty feature maps
+    String cjson = codec.dumps(codec.columnar(true).loads_doc(json));
+    Assert.assertEquals(cjson, codec.dumps(codec.columnar(true).loads_doc(cjson)));
+    Assert.assertEquals(JSON.std.anyFrom(json), 
+            JSON.std.anyFrom(codec.dumps(JSON.std.beanFrom(BdocDocument.class, json))));
+    // features of the codec take effect
+    Assert.assertEquals(JSON.std.anyFrom(JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT).asString(bdoc)),
+            JSON.std.anyFrom(codec.with(JSON.Feature.PRETTY_PRINT_OUTPUT).dumps(bdoc)));
+    Assert.assertTrue(codec.with(JSON.Feature.PRETTY_PRINT_OUTPUT).dumps(bdoc).contains("\n"));
+    BdocDocumentBuilder builder = new BdocDocumentBuilder().fromGate(doc).
+            withJSONFeature(JSON.Feature.PRETTY_PRINT_OUTPUT);
+    Assert.assertEquals(codec.with(JSON.Feature.PRETTY_PRINT_OUTPUT).dumps(builder.buildBdoc()),
+            builder.dumps());
+    Assert.assertEquals(JSON.std.anyFrom(JSON.std.with(JSON.Feature.WRITE_NULL_PROPERTIES).asString(new BdocDocument())),
+            JSON.std.anyFrom(codec.with(JSON.Feature.WRITE_NULL_PROPERTIES).dumps(new BdocDocument())));
+    ChangeLog clog = new ChangeLog();
+    Map<String, Object> change = new HashMap<>();
+    change.put("command", "annotation:add");
+    change.put("start", 1);
+    change.put("features", Utils.featureMap("a", 1.5, "b", null));
+    clog.changes.add(change);
+    Assert.assertEquals(JSON.std.asString(clog), codec.dumps(clog));
+    Assert.assertEquals(codec.dumps(clog), codec.dumps(codec.loads_log(codec.dumps(clog))));
+  }
+  
+  /**
+   * Test that the parallel build gives the same document as the sequential one.
+   */
+  @Test
+  public void testParallelBuild1() throws ResourceInstantiationException, InvalidOffsetException {
+    Document doc = Factory.newDocument(sampleText1);
+    AnnotationSet defSet = doc.getAnnotations();
+    for (int i = 0; i < 20; i++) {
+      defSet.add((long)i, (long)i+4, "Token", Utils.featureMap("n", i));
+    }
+    defSet.add(17L, 19L, "Emoji", Utils.featureMap());
+    doc.getAnnotations("Other").add(20L, 28L, "Thing", Utils.featureMap("x", "y"));
+    doc.getAnnotations("Empty");
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      for (boolean columnar : new boolean[] { false, true }) {
+        for (boolean python : new boolean[] { false, true }) {
+          BdocDocumentBuilder builder = new BdocDocumentBuilder().fromGate(doc).
+                  addSet("Other", doc.getAnnotations("Other"), 100);
+          if (columnar) {
+            builder.columnar();
+          }
+          if (python) {
+            builder.pythonOffsets();
+          }
+          String expected = new SimpleJson().dumps(builder.buildBdoc());
+          for (int chunkSize : new int[] { 1, 2, 7, 1000 }) {
+            builder.parallel(pool, chunkSize);
+            BdocDocument bdoc = builder.buildBdoc();
+            Assert.assertEquals(expected, new SimpleJson().dumps(bdoc));
+            Assert.assertEquals(100, (int)bdoc.annotation_sets.get("Other").next_annid);
+            Assert.assertEquals(21, (int)bdoc.annotation_sets.get("").next_annid);
+          }
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  /**
+   * Test converting a directory of documents.
+   */
+  @Test
+  public void testCorpusConverter1() throws ResourceInstantiationException, InvalidOffsetException, IOException {
+    File indir = Files.createTempDirectory("bdoc-corpus-in").toFile();
+    File outdir = Files.createTempDirectory("bdoc-corpus-out").toFile();
+    File subdir = new File(indir, "sub");
+    subdir.mkdir();
+    for (int i = 0; i < 5; i++) {
+      Document doc = Factory.newDocument(sampleText1);
+      doc.getAnnotations().add(17L, 19L, "Emoji", Utils.featureMap("n", i));
+      FileUtils.writeStringToFile(new File(i % 2 == 0 ? indir : subdir, "doc"+i+".xml"), 
+              doc.toXml(), StandardCharsets.UTF_8);
+      Factory.deleteResource(doc);
+    }
+    FileUtils.writeStringToFile(new File(indir, "broken.bdocjs"), "{\"text\": ", StandardCharsets.UTF_8);
+    FileUtils.writeStringToFile(new File(indir, "README.txt"), "not a document", StandardCharsets.UTF_8);
+    List<Long> progress = new ArrayList<>();
+    CorpusConverter converter = new CorpusConverter(indir, outdir).
+            threads(2).queueSize(2).pythonOffsets().
+            progress(2, (m) -> progress.add(m.getFinished()));
+    CorpusConverter.Metrics metrics = converter.run();
+    Assert.assertEquals(5, metrics.converted.get());
+    Assert.assertEquals(1, metrics.failed.get());
+    Assert.assertEquals(1, metrics.skipped.get());
+    Assert.assertEquals(1, converter.getFailures().size());
+    Assert.assertEquals("broken.bdocjs", converter.getFailures().get(0).file.getName());
+    // called after 2, 4 and 6 documents and at the end
+    Assert.assertEquals(4, progress.size());
+    Assert.assertEquals(6L, (long)progress.get(3));
+    BdocDocument bdoc = new SimpleJson().load_doc(new File(new File(outdir, "sub"), "doc3.bdocjs").toURI().toURL().openStream());
+    Assert.assertEquals("p", bdoc.offset_type);
+    BdocAnnotation ann = bdoc.annotation_sets.get("").annotations.get(0);
+    Assert.assertEquals(17, ann.start);
+    Assert.assertEquals(18, ann.end);
+    Assert.assertEquals(3, ann.features.get("n"));
+    // and back to GATE XML, a document which fails does not leave an
+    // output file behind
+    File xmldir = Files.createTempDirectory("bdoc-corpus-xml").toFile();
+    FileUtils.writeStringToFile(new File(outdir, "bad.bdocjs"), 
+            "{\"text\": \"abc\", \"annotation_sets\": {\"\": {\"name\": \"\", \"annotations\": "+
+            "[{\"type\": \"X\", \"start\": 0, \"end\": 10, \"id\": 0}]}}}", StandardCharsets.UTF_8);
+    FileUtils.writeStringToFile(new File(xmldir, "bad.xml"), "from an earlier run", StandardCharsets.UTF_8);
+    metrics = new CorpusConverter(outdir, xmldir).outputFormat(CorpusConverter.Format.GATEXML).run();
+    Assert.assertEquals(5, metrics.converted.get());
+    Assert.assertEquals(1, metrics.failed.get());
+    Assert.assertFalse(new File(xmldir, "bad.xml").exists());
+    Document doc = Factory.newDocument(new File(xmldir, "doc0.xml").toURI().toURL(), "UTF-8");
+    Assert.assertEquals(sampleText1, doc.getContent().toString());
+    Assert.assertEquals(19L, (long)doc.getAnnotations().get("Emoji").iterator().next().getEndNode().getOffset());
+    Factory.deleteResource(doc);
+    FileUtils.deleteDirectory(indir);
+    FileUtils.deleteDirectory(outdir);
+    FileUtils.deleteDirectory(xmldir);
+  }
+  
+  /**
+   * Test writing and reading JSON Lines files.
+   */
+  @Test
+  public void testJsonLines1() throws IOException {
+    File file = File.createTempFile("bdoc-test", ".jsonl");
+    file.delete();
+    JsonLines jsonLines = new JsonLines(BdocJsonCodec.getDefault().with(JSON.Feature.PRETTY_PRINT_OUTPUT));
+    List<String> texts = new ArrayList<>();
+    for (int part = 0; part < 2; part++) {
+      // the second writer appends
+      try (JsonLinesWriter writer = jsonLines.writer(file)) {
+        for (int i = 0; i < 50; i++) {
+          BdocDocument bdoc = new BdocDocument();
+          bdoc.text = "Doc " + part + "/" + i + (i % 3 == 0 ? " \uD83D\uDCA9\nnext line" : "");
+          bdoc.features = new HashMap<>();
+          bdoc.features.put("i", i);
+          writer.write(bdoc);
+          texts.add(bdoc.text);
+        }
+        Assert.assertEquals(50, writer.getCount());
+      }
+    }
+    List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
+    Assert.assertEquals(100, lines.size());
+    List<String> read = new ArrayList<>();
+    Iterator<BdocDocument> it = jsonLines.iterator(new FileInputStream(file));
+    while (it.hasNext()) {
+      read.add(it.next().text);
+    }
+    Assert.assertEquals(texts, read);
+    try (Stream<BdocDocument> stream = jsonLines.stream(file, false)) {
+      Assert.assertEquals(texts, stream.map(d -> d.text).collect(Collectors.toList()));
+    }
+    for (long minSplit : new long[] { 1, 7, 100, 100000 }) {
+      try (Stream<BdocDocument> stream = jsonLines.stream(file, 0, file.length(), minSplit, true)) {
+        Assert.assertEquals(texts, stream.map(d -> d.text).collect(Collectors.toList()));
+      }
+    }
+    // any split point gives each document exactly once
+    for (long mid = 0; mid <= file.length(); mid += 13) {
+      List<String> both = new ArrayList<>();
+      try (Stream<BdocDocument> stream = jsonLines.stream(file, 0, mid, 1000000, false)) {
+        stream.forEach(d -> both.add(d.text));
+      }
+      try (Stream<BdocDocument> stream = jsonLines.stream(file, mid, file.length(), 1000000, false)) {
+        stream.forEach(d -> both.add(d.text));
+      }
+      Assert.assertEquals(texts, both);
+    }
+    try (Stream<BdocDocument> stream = jsonLines.stream(file, true)) {
+      Assert.assertEquals("Doc 0/0 \uD83D\uDCA9\nnext line", stream.findFirst().get().text);
+    }
+    file.delete();
+  }
+  
+  @Test
+  public void testIndexedCorpus1() throws IOException {
+    for (IndexedCorpus.Encoding encoding : IndexedCorpus.Encoding.values()) {
+      File file = File.createTempFile("bdoc-test", ".corpus");
+      file.delete();
+      File indexFile = IndexedCorpus.indexFile(file);
+      List<String> texts = new ArrayList<>();
+      for (int part = 0; part < 2; part++) {
+        // the second writer appends to the data file and the index
+        try (IndexedCorpusWriter writer = new IndexedCorpusWriter(file, encoding)) {
+          for (int i = 0; i < 30; i++) {
+            BdocDocument bdoc = new BdocDocument();
+            bdoc.text = "Doc " + part + "/" + i + (i % 4 == 0 ? " \uD83D\uDCA9\nnext" : "");
+            bdoc.features = new HashMap<>();
+            bdoc.features.put("i", i);
+            Assert.assertEquals(texts.size(), writer.write(bdoc));
+            texts.add(bdoc.text);
+          }
+        }
+      }
+      try (IndexedCorpus corpus = new IndexedCorpus(file)) {
+        Assert.assertEquals(encoding, corpus.getEncoding());
+        Assert.assertEquals(60, corpus.size());
+        for (int n : new int[] { 59, 0, 31, 7 }) {
+          BdocDocument bdoc = corpus.get(n);
+          Assert.assertEquals(texts.get(n), bdoc.text);
+          Assert.assertEquals(n % 30, ((Number)bdoc.features.get("i")).intValue());
+        }
+      }
+      // a rebuilt index is identical to the one written
+      byte[] written = Files.readAllBytes(indexFile.toPath());
+      indexFile.delete();
+      Assert.assertEquals(60, IndexedCorpus.rebuildIndex(file, encoding));
+      Assert.assertArrayEquals(written, Files.readAllBytes(indexFile.toPath()));
+      try (IndexedCorpus corpus = new IndexedCorpus(file)) {
+        Assert.assertEquals(texts.get(42), corpus.get(42).text);
+      }
+      file.delete();
+      indexFile.delete();
+    }
+  }
+  
+  @Test
+  public void testBlockGzip1() throws IOException {
+    byte[] data = new byte[100000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte)((i * 7919) % 253 + i / 1000);
+    }
+    File file = File.createTempFile("bdoc-test", ".gz");
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      try (OutputStream out = new BlockGzipOutputStream(new FileOutputStream(file), executor, 1000, 6)) {
+        out.write(data, 0, 12345);
+        out.flush();
+        for (int i = 12345; i < 12400; i++) {
+          out.write(data[i]);
+        }
+        out.write(data, 12400, data.length - 12400);
+      }
+      // standard gzip readers see one stream
+      try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(in));
+      }
+      try (InputStream in = new BlockGzipInputStream(new FileInputStream(file), executor)) {
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(in));
+      }
+      try (BlockGzipInputStream in = new BlockGzipInputStream(file, executor)) {
+        Assert.assertEquals(data.length, in.length());
+        for (int position : new int[] { 54321, 0, 12345, 999, 1000, 99999, 100000 }) {
+          in.seek(position);
+          byte[] rest = IOUtils.toByteArray(in);
+          Assert.assertArrayEquals(Arrays.copyOfRange(data, position, data.length), rest);
+        }
+      }
+      // open with an executor runs the tasks on it
+      AtomicInteger tasks = new AtomicInteger();
+      Executor counting = task -> {
+        tasks.incrementAndGet();
+        executor.execute(task);
+      };
+      try (OutputStream out = BlockGzipOutputStream.open(file, counting)) {
+        out.write(data);
+      }
+      Assert.assertEquals(1, tasks.get());
+      try (InputStream in = BlockGzipInputStream.open(file, counting)) {
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(in));
+      }
+      Assert.assertEquals(2, tasks.get());
+      // other gzip data gets read by the fallback
+      try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+        out.write(data);
+      }
+      try (InputStream in = BlockGzipInputStream.open(file)) {
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(in));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // file based dump and load compress by the extension
+    BdocDocument bdoc = new BdocDocument();
+    bdoc.text = "Some text \uD83D\uDCA9 for gzip";
+    bdoc.features = new HashMap<>();
+    bdoc.features.put("f", 1);
+    new SimpleJson().dump(bdoc, file);
+    try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+      Assert.assertEquals(bdoc.text, new SimpleJson().load_doc(in).text);
+    }
+    Assert.assertEquals(bdoc.text, new SimpleJson().load_doc(file).text);
+    new SimpleBinary().dump(bdoc, file);
+    Assert.assertEquals(bdoc.text, new SimpleBinary().load_doc(file).text);
+    // dumping to a stream leaves flushing to the caller, so a block does 
+    // not end after every document
+    ByteArrayOutputStream noFlush = new ByteArrayOutputStream() {
+      @Override
+      public void flush() {
+        Assert.fail("The binary codec must not flush the stream");
+      }
+    };
+    new SimpleBinary().dump(bdoc, noFlush);
+    Assert.assertEquals(bdoc.text, new SimpleBinary().loads_doc(noFlush.toByteArray()).text);
+    file.delete();
+  }
+  
+  /**
+   * Describe all annotations and features of a document in a canonical way.
+   */
+  private static String canonical(Document doc) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(new TreeMap<>(doc.getFeatures())).append("\n");
+    Set<String> names = new TreeSet<>(doc.getAnnotationSetNames());
+    names.add("");
+    for (String name : names) {
+      AnnotationSet set = name.isEmpty() ? doc.getAnnotations() : doc.getAnnotations(name);
+      sb.append("set ").append(name).append("\n");
+      for (Annotation ann : set.inDocumentOrder()) {
+        sb.append(ann.getId()).append(" ").append(ann.getType()).append(" ")
+                .append(ann.getStartNode().getOffset()).append(" ")
+                .append(ann.getEndNode().getOffset()).append(" ")
+                .append(new TreeMap<>(ann.getFeatures())).append("\n");
+      }
+    }
+    return sb.toString();
+  }
+  
+  @Test
+  public void testChangeLogRecorder1() throws ResourceInstantiationException, InvalidOffsetException {
+    Document doc = Factory.newDocument(sampleText1);
+    doc.getFeatures().put("keep", 1);
+    doc.getFeatures().put("drop", 2);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This", "len", 4));
+    defSet.add(5L, 7L, "Token", Utils.featureMap("string", "is"));
+    defSet.add(17L, 19L, "Token", Utils.featureMap("string", "poo", "kind", "emoji"));
+    doc.getAnnotations("S2").add(0L, 4L, "X", Utils.featureMap());
+    Document copy = new BdocDocumentBuilder().fromGate(doc).buildBdoc().toGateDocument();
+    Assert.assertEquals(canonical(doc), canonical(copy));
+    
+    ChangeLogRecorder recorder = new ChangeLogRecorder(doc);
+    doc.getFeatures().put("new", "value");
+    doc.getFeatures().remove("drop");
+    Integer id = defSet.add(20L, 28L, "Word", Utils.featureMap("a", 1));
+    defSet.get(id).getFeatures().put("b", 2);
+    defSet.get(0).getFeatures().put("string", "THIS");
+    defSet.get(0).getFeatures().remove("len");
+    defSet.get(2).getFeatures().clear();
+    defSet.remove(defSet.get(1));
+    doc.getAnnotations("S1").add(29L, 31L, "Word", Utils.featureMap("x", "y"));
+    doc.removeAnnotationSet("S2");
+    Assert.assertFalse(recorder.isContentEdited());
+    ChangeLog clog = recorder.takeChangeLog();
+    Assert.assertTrue(recorder.getChangeLog().changes.isEmpty());
+    
+    // send the changes as JSON with python offsets and apply them to the copy
+    clog.fixupOffsets(sampleText1, "p");
+    ChangeLog clog2 = new SimpleJson().loads_log(new SimpleJson().dumps(clog));
+    new GateDocumentUpdater(copy).fromChangeLog(clog2);
+    Assert.assertEquals(canonical(doc), canonical(copy));
+    
+    // further changes go to the next changelog, none after closing
+    defSet.get(0).getFeatures().put("string", "this");
+    Assert.assertEquals(1, recorder.getChangeLog().changes.size());
+    recorder.close();
+    defSet.get(0).getFeatures().put("string", "This");
+    Assert.assertEquals(1, recorder.getChangeLog().changes.size());
+  }
+  
+  @Test
+  public void testTypedChangeLog1() throws ResourceInstantiationException, InvalidOffsetException {
+    Document doc = Factory.newDocument(sampleText1);
+    doc.getFeatures().put("drop", 2);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This"));
+    defSet.add(5L, 7L, "Token", Utils.featureMap("string", "is"));
+    doc.getAnnotations("S2").add(0L, 4L, "X", Utils.featureMap());
+    Document copy1 = new BdocDocumentBuilder().fromGate(doc).buildBdoc().toGateDocument();
+    Document copy2 = new BdocDocumentBuilder().fromGate(doc).buildBdoc().toGateDocument();
+    
+    ChangeLog clog;
+    try (ChangeLogRecorder recorder = new ChangeLogRecorder(doc)) {
+      doc.getFeatures().put("new", "value");
+      doc.getFeatures().remove("drop");
+      Integer id = defSet.add(17L, 19L, "Emoji", Utils.featureMap("a", 1));
+      defSet.get(id).getFeatures().put("b", 2);
+      defSet.get(0).getFeatures().clear();
+      defSet.remove(defSet.get(1));
+      doc.removeAnnotationSet("S2");
+      clog = recorder.getChangeLog();
+    }
+    // an entry with an unknown key and one with an unknown command are kept as maps
+    Map<String, Object> odd = new HashMap<>();
+    odd.put("command", "feature:set");
+    odd.put("feature", "odd");
+    odd.put("value", 3);
+    odd.put("comment", "extra key");
+    clog.changes.add(odd);
+    Map<String, Object> unknown = new HashMap<>();
+    unknown.put("command", "annotations:frobnicate");
+    unknown.put("set", "S1");
+    
+    TypedChangeLog tlog = TypedChangeLog.fromChangeLog(clog);
+    Assert.assertEquals(clog.changes.size(), tlog.size());
+    Assert.assertEquals(TypedChangeLog.Op.FEATURE_SET, tlog.getOp(0));
+    Assert.assertEquals(TypedChangeLog.Op.OTHER, tlog.getOp(tlog.size()-1));
+    Assert.assertEquals(clog.changes, tlog.toChangeLog().changes);
+    
+    // offsets get converted in the same way as for the map representation
+    ChangeLog plog = tlog.toChangeLog();
+    plog.fixupOffsets(sampleText1, "p");
+    tlog.fixupOffsets(OffsetMapperCache.getDefault().get(sampleText1), "p");
+    Assert.assertEquals("p", tlog.offset_type);
+    Assert.assertEquals(plog.changes, tlog.toChangeLog().changes);
+    
+    // both representations update a document in the same way
+    new GateDocumentUpdater(copy1).fromChangeLog(plog);
+    new GateDocumentUpdater(copy2).fromChangeLog(tlog);
+    doc.getFeatures().put("odd", 3);
+    Assert.assertEquals(canonical(doc), canonical(copy1));
+    Assert.assertEquals(canonical(doc), canonical(copy2));
+    
+    TypedChangeLog ulog = new TypedChangeLog();
+    ulog.add(unknown);
+    Assert.assertEquals(TypedChangeLog.Op.OTHER, ulog.getOp(0));
+    try {
+      new GateDocumentUpdater(copy2).fromChangeLog(ulog);
+      Assert.fail("Unknown command must be rejected");
+    } catch (GateRuntimeException ex) {
+      Assert.assertTrue(ex.getMessage().contains("annotations:frobnicate"));
+    }
+  }
+  
+  @Test
+  public void testBulkAdd1() throws ResourceInstantiationException {
+    // the same annotations as one bulk entry and as single entries, with
+    // python offsets: the emoji is one code point
+    int[] ids = {0, 1, 2, 3};
+    int[] starts = {0, 5, 17, 19};
+    int[] ends = {4, 7, 18, 27};
+    int[] codes = {0, 0, 1, 0};
+    List<Map<String, Object>> features = new ArrayList<>();
+    features.add(null);
+    features.add(new HashMap<>());
+    features.add(new HashMap<>());
+    features.add(null);
+    features.get(2).put("kind", "poo");
+    ChangeLog bulk = new ChangeLog();
+    bulk.offset_type = "p";
+    bulk.addAnnotationsBulk("S1", ids, starts, ends, Arrays.asList("Token", "Emoji"), codes, features);
+    ChangeLog single = new ChangeLog();
+    single.offset_type = "p";
+    for (int i = 0; i < ids.length; i++) {
+      Map<String, Object> change = new HashMap<>();
+      change.put("command", "annotation:add");
+      change.put("set", "S1");
+      change.put("id", ids[i]);
+      change.put("start", starts[i]);
+      change.put("end", ends[i]);
+      change.put("type", codes[i] == 0 ? "Token" : "Emoji");
+      change.put("features", features.get(i));
+      single.changes.add(change);
+    }
+    
+    Document expected = Factory.newDocument(sampleText1);
+    new GateDocumentUpdater(expected).fromChangeLog(single);
+    Assert.assertEquals("poo", expected.getAnnotations("S1").get(2).getFeatures().get("kind"));
+    Assert.assertEquals(20L, (long)expected.getAnnotations("S1").get(3).getStartNode().getOffset());
+    
+    // through JSON, binary, and with offsets converted to java and back
+    List<ChangeLog> clogs = new ArrayList<>();
+    clogs.add(bulk);
+    clogs.add(new SimpleJson().loads_log(new SimpleJson().dumps(bulk)));
+    clogs.add(new SimpleBinary().loads_log(new SimpleBinary().dumps(bulk)));
+    ChangeLog fixed = new SimpleJson().loads_log(new SimpleJson().dumps(bulk));
+    fixed.fixupOffsets(sampleText1, "j");
+    Assert.assertArrayEquals(new int[]{0, 5, 17, 20}, (int[])fixed.changes.get(0).get("starts"));
+    fixed.fixupOffsets(sampleText1, "p");
+    clogs.add(fixed);
+    for (ChangeLog clog : clogs) {
+      Document doc = Factory.newDocument(sampleText1);
+      new GateDocumentUpdater(doc).fromChangeLog(clog);
+      Assert.assertEquals(canonical(expected), canonical(doc));
+      Factory.deleteResource(doc);
+    }
+    // the original arrays are not modified
+    Assert.assertEquals(19, starts[3]);
+
+    // converting a typed changelog leaves the maps of its source alone
+    ChangeLog source = new SimpleJson().loads_log(new SimpleJson().dumps(bulk));
+    Map<String, Object> extra = new HashMap<>(single.changes.get(3));
+    extra.put("comment", "extra key");
+    source.changes.add(extra);
+    String before = new SimpleJson().dumps(source);
+    TypedChangeLog tlog = TypedChangeLog.fromChangeLog(source);
+    Assert.assertEquals(TypedChangeLog.Op.OTHER, tlog.getOp(1));
+    tlog.fixupOffsets(OffsetMapperCache.getDefault().get(sampleText1), "j");
+    Assert.assertEquals(before, new SimpleJson().dumps(source));
+    Assert.assertEquals(20, tlog.toChangeLog().changes.get(1).get("start"));
+    Assert.assertArrayEquals(new int[]{0, 5, 17, 20}, (int[])tlog.toChangeLog().changes.get(0).get("starts"));
+
+    // a single type does not need type codes, arrays must have the same length
+    ChangeLog one = new ChangeLog();
+    one.addAnnotationsBulk("", new int[]{5}, new int[]{0}, new int[]{4}, Arrays.asList("Token"), null, null);
+    Document doc = Factory.newDocument(sampleText1);
+    new GateDocumentUpdater(doc).fromChangeLog(one);
+    Assert.assertEquals("Token", doc.getAnnotations().get(5).getType());
+    try {
+      one.addAnnotationsBulk("", new int[]{5}, new int[]{0, 1}, new int[]{4}, Arrays.asList("Token"), null, null);
+      Assert.fail("Arrays of different length must be rejected");
+    } catch (GateRuntimeException ex) {
+      // expected
+    }
+  }
+  
+  private static Map<String, Object> addChange(String set, int id, int start, int end, String type) {
+    Map<String, Object> change = new HashMap<>();
+    change.put("command", "annotation:add");
+    change.put("set", set);
+    change.put("id", id);
+    change.put("start", start);
+    change.put("end", end);
+    change.put("type", type);
+    Map<String, Object> features = new HashMap<>();
+    features.put("n", id);
+    change.put("features", features);
+    return change;
+  }
+  
+  @Test
+  public void testBatchedChangeLog1() throws ResourceInstantiationException, InvalidOffsetException {
+    ChangeLog clog = new ChangeLog();
+    clog.offset_type = "p";
+    // a run of new annotations, one with ids which already exist, one in
+    // another set and one which is not in increasing id order
+    for (int i = 0; i < 10; i++) {
+      clog.changes.add(addChange("", 10 + i, 2 * i, 2 * i + 1, "A"));
+    }
+    for (int i = 0; i < 5; i++) {
+      clog.changes.add(addChange("", i, 17 + i, 18 + i, "B"));
+    }
+    clog.changes.add(addChange("S1", 30, 17, 18, "C"));
+    clog.changes.add(addChange("S1", 32, 17, 19, "C"));
+    clog.changes.add(addChange("S1", 31, 18, 19, "C"));
+    Map<String, Object> change = new HashMap<>();
+    change.put("command", "feature:set");
+    change.put("set", "S1");
+    change.put("id", 31);
+    change.put("feature", "f");
+    change.put("value", "v");
+    clog.changes.add(change);
+    // removing the set and adding to it again
+    change = new HashMap<>();
+    change.put("command", "annotations:remove");
+    change.put("set", "S1");
+    clog.changes.add(change);
+    clog.changes.add(addChange("S1", 40, 0, 4, "D"));
+    // an entry in the map representation which removes a set
+    change = new HashMap<>();
+    change.put("command", "annotations:remove");
+    change.put("set", "S1");
+    change.put("note", "kept as a map");
+    clog.changes.add(change);
+    clog.changes.add(addChange("S1", 41, 5, 7, "D"));
+    clog.changes.add(addChange("S1", 42, 8, 9, "D"));
+    
+    // without the feature:set which needs annotation 31 to keep its id
+    ChangeLog newIds = new ChangeLog();
+    newIds.offset_type = "p";
+    for (Map<String, Object> chg : clog.changes) {
+      if (!chg.get("command").equals("feature:set")) {
+        newIds.changes.add(chg);
+      }
+    }
+    
+    for (GateDocumentUpdater.HandleNewAnns option : GateDocumentUpdater.HandleNewAnns.values()) {
+      ChangeLog used = option == GateDocumentUpdater.HandleNewAnns.ADD_WITH_BDOC_ID ? clog : newIds;
+      Document sequential = Factory.newDocument(sampleText1);
+      sequential.getAnnotations().add(0L, 4L, "Token", Utils.featureMap());
+      Document batched = Factory.newDocument(sampleText1);
+      batched.getAnnotations().add(0L, 4L, "Token", Utils.featureMap());
+      new GateDocumentUpdater(sequential).handleNewAnnotation(option).fromChangeLog(used);
+      new GateDocumentUpdater(batched).handleNewAnnotation(option).batched(true).fromChangeLog(used);
+      Assert.assertEquals(canonical(sequential), canonical(batched));
+      Assert.assertEquals(2, batched.getAnnotations("S1").size());
+      Factory.deleteResource(sequential);
+      Factory.deleteResource(batched);
+    }
+  }
+  
+  @Test
+  public void testFeatureMerge1() throws ResourceInstantiationException, InvalidOffsetException {
+    Map<String, Object> features = new HashMap<>();
+    features.put("a", "new");
+    features.put("b", "new");
+    features.put("1", "new");
+    ChangeLog clog = new ChangeLog();
+    clog.changes.add(addChange("", 0, 0, 4, "Token"));
+    clog.changes.get(0).put("features", features);
+    clog.changes.add(addChange("", 1, 5, 7, "Token"));
+    clog.changes.get(1).put("features", features);
+    Map<GateDocumentUpdater.HandleExistingAnns, String[]> expected = new HashMap<>();
+    // expected features of annotation 0 (string keys) and 1 (non-string key 1)
+    expected.put(GateDocumentUpdater.HandleExistingAnns.ADD_NEW_FEATURES, new String[]{
+      "{1=new, a=old, b=new, c=old}", "{1=old, a=new, b=new}"});
+    expected.put(GateDocumentUpdater.HandleExistingAnns.UPDATE_FEATURES, new String[]{
+      "{1=new, a=new, b=new, c=old}", "{1=new, 1=old, a=new, b=new}"});
+    expected.put(GateDocumentUpdater.HandleExistingAnns.REPLACE_FEATURES, new String[]{
+      "{1=new, a=new, b=new}", "{1=new, a=new, b=new}"});
+    for (Map.Entry<GateDocumentUpdater.HandleExistingAnns, String[]> entry : expected.entrySet()) {
+      Document doc = Factory.newDocument(sampleText1);
+      doc.getAnnotations().add(0, 0L, 4L, "Token", Utils.featureMap("a", "old", "c", "old"));
+      doc.getAnnotations().add(1, 5L, 7L, "Token", Utils.featureMap(1, "old"));
+      new GateDocumentUpdater(doc).handleExistingAnnotation(entry.getKey()).fromChangeLog(clog);
+      for (int id = 0; id < 2; id++) {
+        List<String> fs = new ArrayList<>();
+        doc.getAnnotations().get(id).getFeatures().forEach((k, v) -> fs.add(k + "=" + v));
+        fs.sort(null);
+        Assert.assertEquals(entry.getKey() + " " + id, entry.getValue()[id], 
+                "{" + String.join(", ", fs) + "}");
+      }
+      Assert.assertEquals(2, doc.getAnnotations().size());
+      Factory.deleteResource(doc);
+    }
+  }
+  
+  @Test
+  public void testGateDocumentLoader1() throws ResourceInstantiationException, InvalidOffsetException {
+    Document doc = Factory.newDocument(sampleText1);
+    doc.getFeatures().put("f", 1);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(20L, 28L, "Word", Utils.featureMap());
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This"));
+    defSet.add(17L, 19L, "Token", Utils.featureMap("string", "poo"));
+    defSet.add(0L, 7L, "Phrase", Utils.featureMap());
+    doc.getAnnotations("S1").add(17L, 28L, "X", Utils.featureMap("a", 1));
+    doc.getAnnotations("Empty");
+    
+    List<BdocDocument> bdocs = new ArrayList<>();
+    bdocs.add(new BdocDocumentBuilder().fromGate(doc).buildBdoc());
+    bdocs.add(new BdocDocumentBuilder().fromGate(doc).pythonOffsets().buildBdoc());
+    bdocs.add(new BdocDocumentBuilder().fromGate(doc).columnar().pythonOffsets().buildBdoc());
+    // the same id twice in a set: the second one gets a new id
+    BdocDocument dup = new BdocDocumentBuilder().fromGate(doc).buildBdoc();
+    BdocAnnotation copy = new BdocAnnotation();
+    copy.id = 0;
+    copy.start = 5;
+    copy.end = 7;
+    copy.type = "Token";
+    dup.annotation_sets.get("").annotations.add(copy);
+    bdocs.add(dup);
+    for (BdocDocument bdoc : bdocs) {
+      Document expected = new GateDocumentUpdater(bdoc.text).fromBdoc(bdoc);
+      Document loaded = new GateDocumentLoader().load(bdoc);
+      Assert.assertEquals(canonical(expected), canonical(loaded));
+      Assert.assertEquals(expected.getAnnotationSetNames(), loaded.getAnnotationSetNames());
+      // new annotations get ids after the loaded ones
+      Assert.assertEquals(
+              expected.getAnnotations().add(0L, 1L, "New", Utils.featureMap()),
+              loaded.getAnnotations().add(0L, 1L, "New", Utils.featureMap()));
+      Factory.deleteResource(expected);
+      Factory.deleteResource(loaded);
+    }
+    Assert.assertEquals(5, dup.toGateDocument().getAnnotations().size());
+  }
+  
 }
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.tests;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import gate.Utils;
+import gate.creole.ResourceInstantiationException;
+import gate.lib.basicdocument.BdocDocumentBuilder;
+import gate.lib.basicdocument.ChangeLog;
+import gate.lib.basicdocument.ChangeLogRecorder;
+import gate.lib.basicdocument.GateDocumentUpdater;
+import gate.util.GateException;
+import gate.util.InvalidOffsetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import junit.framework.TestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ChangeLog.compact(): the compacted changelog must give the
+ * same document as the original one.
+ * @author Johann Petrak
+ */
+public class TestChangeLogCompaction1 extends TestCase {
+  String text = "This is a simple 💩 document. It has two sentences.";
+  
+  @Override
+  public void setUp() throws GateException {
+    Gate.init();
+  }
+  
+  /**
+   * Describe all annotations and features of a document in a canonical way,
+   * ignoring empty annotation sets.
+   */
+  private static String canonical(Document doc) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(new TreeMap<>(doc.getFeatures())).append("\n");
+    Set<String> names = new TreeSet<>(doc.getAnnotationSetNames());
+    names.add("");
+    for (String name : names) {
+      AnnotationSet set = name.isEmpty() ? doc.getAnnotations() : doc.getAnnotations(name);
+      if (set.isEmpty()) {
+        // getting a set creates it, empty sets are not recorded
+        continue;
+      }
+      sb.append("set ").append(name).append("\n");
+      for (Annotation ann : set.inDocumentOrder()) {
+        sb.append(ann.getId()).append(" ").append(ann.getType()).append(" ")
+                .append(ann.getStartNode().getOffset()).append(" ")
+                .append(ann.getEndNode().getOffset()).append(" ")
+                .append(new TreeMap<>(ann.getFeatures())).append("\n");
+      }
+    }
+    return sb.toString();
+  }
+  
+  private Document initialDocument() throws InvalidOffsetException, ResourceInstantiationException {
+    Document doc = Factory.newDocument(text);
+    doc.getFeatures().put("f1", 1);
+    doc.getFeatures().put("f2", 2);
+    AnnotationSet defSet = doc.getAnnotations();
+    defSet.add(0L, 4L, "Token", Utils.featureMap("string", "This", "len", 4));
+    defSet.add(5L, 7L, "Token", Utils.featureMap("string", "is"));
+    doc.getAnnotations("S1").add(17L, 19L, "Emoji", Utils.featureMap("kind", "poo"));
+    return doc;
+  }
+  
+  private static Map<String, Object> change(Object... kvs) {
+    Map<String, Object> change = new HashMap<>();
+    for (int i = 0; i < kvs.length; i += 2) {
+      change.put((String)kvs[i], kvs[i+1]);
+    }
+    return change;
+  }
+  
+  private static Map<String, Object> add(String set, int id, int start, int end) {
+    return change("command", "annotation:add", "set", set, "id", id, 
+            "start", start, "end", end, "type", "T", "features", new HashMap<>());
+  }
+  
+  /**
+   * Apply the changelog and its compacted form to copies of the initial
+   * document and check that both give the same result.
+   * @return the compacted changelog
+   */
+  private ChangeLog checkSameResult(ChangeLog clog, boolean idsAreNew) 
+          throws InvalidOffsetException, ResourceInstantiationException {
+    ChangeLog compacted = clog.compact(idsAreNew);
+    Document doc1 = initialDocument();
+    new GateDocumentUpdater(doc1).fromChangeLog(clog);
+    Document doc2 = initialDocument();
+    new GateDocumentUpdater(doc2).fromChangeLog(compacted);
+    Assert.assertEquals(canonical(doc1), canonical(doc2));
+    Assert.assertTrue(compacted.changes.size() <= clog.changes.size());
+    Assert.assertEquals(clog.offset_type, compacted.offset_type);
+    return compacted;
+  }
+  
+  private static List<String> commands(ChangeLog clog) {
+    List<String> ret = new ArrayList<>();
+    for (Map<String, Object> change : clog.changes) {
+      ret.add((String)change.get("command"));
+    }
+    return ret;
+  }
+  
+  @Test
+  public void testAddThenRemove() throws InvalidOffsetException, ResourceInstantiationException {
+    ChangeLog clog = new ChangeLog();
+    clog.changes.add(add("", 10, 0, 4));
+    clog.changes.add(change("command", "feature:set", "set", "", "id", 10, "feature", "a", "value", 1));
+    clog.changes.add(change("command", "annotation:remove", "set", "", "id", 10));
+    Assert.assertTrue(checkSameResult(clog, true).changes.isEmpty());
+    Assert.assertEquals(2, checkSameResult(clog, false).changes.size());
+  }
+  
+  @Test
+  public void testAddExistingId() throws InvalidOffsetException, ResourceInstantiationException {
+    // the initial document already has an annotation with id 0, so the
+    // add gets a new id and the other entries refer to the existing one
+    ChangeLog clog = new ChangeLog();
+    clog.changes.add(add("", 0, 8, 9));
+    clog.changes.add(change("command", "feature:set", "set", "", "id", 0, "feature", "a", "value", 1));
+    clog.changes.add(change("command", "feature:set", "set", "", "id", 0, "feature", "a", "value", 2));
+    clog.changes.add(change("command", "annotation:remove", "set", "", "id", 0));
+    ChangeLog compacted = checkSameResult(clog, false);
+    Assert.assertEquals(java.util.Arrays.asList("annotation:add", "annotation:remove"), 
+            commands(compacted));
+    clog.changes.remove(3);
+    compacted = checkSameResult(clog, false);
+    Assert.assertEquals(java.util.Arrays.asList("annotation:add", "feature:set"), 
+            commands(compacted));
+    Assert.assertEquals(2, compacted.changes.get(1).get("value"));
+    // the default does not assume new ids
+    Assert.assertEquals(compacted.changes, clog.compact().changes);
+  }
+  
+  @Test
+  public void testFeaturesFoldIntoAdd() throws InvalidOffsetException, ResourceInstantiationException {
+    ChangeLog clog = new ChangeLog();
+    Map<String, Object> add = add("", 10, 0, 4);
+    clog.changes.add(add);
+    clog.changes.add(change("command", "feature:set", "set", "", "id", 10, "feature", "a", "value", 1));
+    clog.changes.add(change("command", "feature:set", "set", "", "id", 10, "feature", "b", "value", 2));
+    clog.changes.add(change("command", "feature:remove", "set", "", "id", 10, "feature", "a"));
+    ChangeLog compacted = checkSameResult(clog, true);
+    Assert.assertEquals(1, compacted.changes.size());
+    Assert.assertEquals(2, ((Map<?, ?>)compacted.changes.get(0).get("features")).get("b"));
+    // the original entry is not modified
+    Assert.assertTrue(((Map<?, ?>)add.get("features")).isEmpty());
+  }
+  
+  @Test
+  public void testRepeatedFeatureSet() throws InvalidOffsetException, ResourceInstantiationException {
+    ChangeLog clog = new ChangeLog();
+    for (int i = 0; i < 3; i++) {
+      clog.changes.add(change("command", "feature:set", "set", "", "id", 0, "feature", "string", "value", "v"+i));
+      clog.changes.add(change("command", "feature:set", "feature", "f1", "value", i));
+    }
+    clog.changes.add(change("command", "feature:remove", "feature", "f2"));
+    clog.changes.add(change("command", "feature:set", "feature", "f2", "value", 22));
+    ChangeLog compacted = checkSameResult(clog, false);
+    Assert.assertEquals(3, compacted.changes.size());
+    Assert.assertEquals("v2", compacted.changes.get(0).get("value"));
+  }
+  
+  @Test
+  public void testClearAfterFill() throws InvalidOffsetException, ResourceInstantiationException {
+    ChangeLog clog = new ChangeLog();
+    clog.changes.add(change("command", "feature:set", "set", "S1", "id", 2, "feature", "kind", "value", "x"));
+    clog.changes.add(add("S1", 10, 0, 4));
+    clog.changes.add(add("S1", 11, 5, 7));
+    clog.changes.add(change("command", "annotation:remove", "set", "S1", "id", 2));
+    clog.changes.add(add("", 10, 0, 4));
+    clog.changes.add(change("command", "annotations:clear", "set", "S1"));
+    clog.changes.add(add("S1", 10, 8, 9));
+    ChangeLog compacted = checkSameResult(clog, false);
+    Assert.assertEquals(
+            java.util.Arrays.asList("annotation:add", "annotations:clear", "annotation:add"), 
+            commands(compacted));
+  }
+  
+  @Test
+  public void testOrderOfSetRemove() throws InvalidOffsetException, ResourceInstantiationException {
+    // entries after the removal of a set must stay after it
+    ChangeLog clog = new ChangeLog();
+    clog.changes.add(change("command", "features:clear", "set", "", "id", 0));
+    clog.changes.add(change("command", "feature:set", "set", "", "id", 0, "feature", "a", "value", 1));
+    clog.changes.add(add("S1", 10, 0, 4));
+    clog.changes.add(change("command", "annotations:remove", "set", "S1"));
+    clog.changes.add(add("S1", 11, 5, 7));
+    clog.changes.add(change("command", "feature:set", "set", "S1", "id", 11, "feature", "a", "value", 1));
+    clog.changes.add(change("command", "features:clear"));
+    clog.changes.add(change("command", "feature:remove", "feature", "f1"));
+    clog.changes.add(change("command", "feature:set", "feature", "f3", "value", 3));
+    ChangeLog compacted = checkSameResult(clog, true);
+    Assert.assertEquals(
+            java.util.Arrays.asList("features:clear", "feature:set", "annotations:remove", 
+                    "annotation:add", "features:clear", "feature:set"), 
+            commands(compacted));
+  }
+  
+  @Test
+  public void testRandomRecordedEdits() throws InvalidOffsetException, ResourceInstantiationException {
+    Random rand = new Random(1);
+    for (int round = 0; round < 20; round++) {
+      Document doc = initialDocument();
+      ChangeLog clog;
+      try (ChangeLogRecorder recorder = new ChangeLogRecorder(doc)) {
+        for (int i = 0; i < 200; i++) {
+          String setName = rand.nextBoolean() ? "" : "S" + rand.nextInt(3);
+          AnnotationSet set = setName.isEmpty() ? doc.getAnnotations() : doc.getAnnotations(setName);
+          List<Annotation> anns = new ArrayList<>(set);
+          Annotation ann = anns.isEmpty() ? null : anns.get(rand.nextInt(anns.size()));
+          String feature = "f" + rand.nextInt(4);
+          switch (rand.nextInt(9)) {
+            case 0: case 1:
+              long start = rand.nextInt(text.length() - 1);
+              set.add(start, start + 1, "T", Utils.featureMap(feature, i));
+              break;
+            case 2: case 3:
+              if (ann != null) {
+                ann.getFeatures().put(feature, rand.nextInt(3));
+              }
+              break;
+            case 4:
+              if (ann != null) {
+                ann.getFeatures().remove(feature);
+              }
+              break;
+            case 5:
+              if (ann != null) {
+                if (rand.nextInt(4) == 0) {
+                  ann.getFeatures().clear();
+                } else {
+                  set.remove(ann);
+                }
+              }
+              break;
+            case 6:
+              doc.getFeatures().put(feature, rand.nextInt(3));
+              break;
+            case 7:
+              if (rand.nextInt(4) == 0) {
+                doc.getFeatures().clear();
+              } else {
+                doc.getFeatures().remove(feature);
+              }
+              break;
+            default:
+              if (!setName.isEmpty() && rand.nextInt(5) == 0) {
+                doc.removeAnnotationSet(setName);
+              }
+          }
+        }
+        clog = recorder.getChangeLog();
+      }
+      // the recorded ids are all new for the initial document
+      ChangeLog compacted = checkSameResult(clog, true);
+      Assert.assertTrue(compacted.changes.size() < clog.changes.size());
+      ChangeLog safe = checkSameResult(clog, false);
+      Assert.assertTrue(compacted.changes.size() <= safe.changes.size());
+      // the result is also the same as the edited document itself
+      Document copy = initialDocument();
+      new GateDocumentUpdater(copy).fromChangeLog(compacted);
+      Assert.assertEquals(canonical(doc), canonical(copy));
+      // and applying the changelog in batches
+      Document batched = initialDocument();
+      new GateDocumentUpdater(batched).batched(true).fromChangeLog(clog);
+      Assert.assertEquals(canonical(doc), canonical(batched));
+      // compacting again does not change anything
+      Assert.assertEquals(compacted.changes, compacted.compact(true).changes);
+      Factory.deleteResource(doc);
+      Factory.deleteResource(copy);
+      Factory.deleteResource(batched);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2019 The University of Sheffield.
+ *
+ * This file is part of gatelib-basicdocument 
+ * (see https://github.com/GateNLP/gatelib-basicdocument).
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.lib.basicdocument.tests;
+
+import gate.lib.basicdocument.OffsetMapper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the offset mapper modes on emoji-heavy and pathological texts.
+ * @author Johann Petrak
+ */
+public class TestOffsetMapper1 extends TestCase {
+  
+  /**
+   * Get the texts to test: all lines of the corpus, the whole corpus and 
+   * a few pathological texts.
+   * @return list of texts
+   * @throws IOException if the corpus cannot be read
+   */
+  private List<String> getTexts() throws IOException {
+    List<String> texts = new ArrayList<>();
+    File corpus = new File("test", "offsetmapper-corpus.txt");
+    texts.addAll(FileUtils.readLines(corpus, StandardCharsets.UTF_8));
+    texts.add(FileUtils.readFileToString(corpus, StandardCharsets.UTF_8));
+    texts.add("");
+    texts.add("a");
+    // lone high and low surrogates
+    texts.add("\uD83D");
+    texts.add("\uDCA9");
+    texts.add("a\uD83Db\uDCA9c");
+    // low before high, high high low, high low low
+    texts.add("\uDCA9\uD83D");
+    texts.add("\uD83D💩");
+    texts.add("💩\uDCA9");
+    // only surrogate pairs, and alternating pairs and lone surrogates
+    StringBuilder pairs = new StringBuilder();
+    StringBuilder mixed = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      pairs.append("💩");
+      mixed.append((i % 3 == 0) ? "\uD83D" : "💩");
+    }
+    texts.add(pairs.toString());
+    texts.add(mixed.toString());
+    return texts;
+  }
+  
+  /**
+   * All modes and the parallel construction must agree with the tables.
+   * @throws IOException  if error
+   */
+  @Test
+  public void testModesAndParallelScan() throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (String text : getTexts()) {
+        OffsetMapper tables = new OffsetMapper(text);
+        int[] j2p = tables.getJava2PythonArray();
+        int[] p2j = tables.getPython2JavaArray();
+        Assert.assertEquals(text.length()+1, j2p.length);
+        Assert.assertEquals(text.codePointCount(0, text.length())+1, p2j.length);
+        OffsetMapper sparse = new OffsetMapper(text, OffsetMapper.Mode.SPARSE);
+        Assert.assertArrayEquals(j2p, sparse.getJava2PythonArray());
+        Assert.assertArrayEquals(p2j, sparse.getPython2JavaArray());
+        for (int chunkSize : new int[] { 1, 2, 3, 5, 7, 64, 1000000 }) {
+          OffsetMapper parallel = new OffsetMapper(text, executor, chunkSize);
+          Assert.assertEquals(OffsetMapper.Mode.SPARSE, parallel.getMode());
+          Assert.assertArrayEquals("chunk size "+chunkSize+" for "+text, 
+                  j2p, parallel.getJava2PythonArray());
+          Assert.assertArrayEquals("chunk size "+chunkSize+" for "+text, 
+                  p2j, parallel.getPython2JavaArray());
+          for (int i = 0; i < p2j.length; i++) {
+            Assert.assertEquals(p2j[i], parallel.convertToJava(i));
+          }
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+}